@@ -36,8 +36,13 @@ package com.sorcix.sirc;
  * Note that if sIRC supports new events in the future the lines will
  * no longer be sent to the {@code AdvancedListener}!
  * </p>
+ * <p>
+ * To receive every line as a typed event, with any number of
+ * listeners, use the {@link IrcEventBus} instead.
+ * </p>
  * 
  * @author Sorcix
+ * @see IrcConnection#getEventBus()
  */
 public interface AdvancedListener {
 	
@@ -41,6 +41,10 @@ public final class Channel {
 	private final IrcConnection irc;
 	/** Channel name */
 	private final String name;
+	/** Start of every message sent to this channel. */
+	private final String messagePrefix;
+	/** Start of every notice sent to this channel. */
+	private final String noticePrefix;
 	/** The topic of this channel. */
 	private String topic;
 	/** The user list. */
@@ -59,6 +63,8 @@ public final class Channel {
 	protected Channel(final String name, final IrcConnection irc, final boolean global) {
 		this.name = name;
 		this.irc = irc;
+		this.messagePrefix = "PRIVMSG " + name + " :";
+		this.noticePrefix = "NOTICE " + name + " :";
 		if (global) {
 			this.users = new ConcurrentHashMap<String, User>(100, .75f, 2);
 		} else {
@@ -284,6 +290,7 @@ public final class Channel {
 	 * @param password The password needed to join this channel.
 	 */
 	public void join(final String password) {
+		this.irc.getState().setChannelKey(this.getName(), password);
 		this.irc.getOutput().send("JOIN " + this.getName() + " " + password);
 	}
 	
@@ -414,7 +421,7 @@ public final class Channel {
 	 * @param command Command to send.
 	 */
 	public void sendCtcp(final String command) {
-		this.irc.getOutput().send("PRIVMSG " + this.getName() + " :" + IrcPacket.CTCP + command + IrcPacket.CTCP);
+		this.irc.getOutput().send(this.messagePrefix + IrcPacket.CTCP + command + IrcPacket.CTCP);
 	}
 	
 	/**
@@ -435,7 +442,7 @@ public final class Channel {
 	 * @param message The message to send.
 	 */
 	public void sendMessage(final String message) {
-		this.irc.getOutput().send("PRIVMSG " + this.getName() + " :" + message);
+		this.irc.getOutput().send(this.messagePrefix + message);
 	}
 	
 	/**
@@ -444,7 +451,7 @@ public final class Channel {
 	 * @param message The notice to send.
 	 */
 	public void sendNotice(final String message) {
-		this.irc.getOutput().send("NOTICE " + this.getName() + " :" + message);
+		this.irc.getOutput().send(this.noticePrefix + message);
 	}
 	
 	/**
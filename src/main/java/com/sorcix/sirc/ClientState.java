@@ -29,7 +29,9 @@ package com.sorcix.sirc;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Contains information about an {@link IrcConnection}.
@@ -40,8 +42,10 @@ import java.util.Map;
 public final class ClientState {
 
 	// TODO: Allow changing the username (sIRC@..)
-	/** The list of channels. */
+	/** The list of channels, read by other threads when joining. */
 	private final Map<String, Channel> channels;
+	/** The keys used to join channels. */
+	private final Map<String, String> keys;
 	/** Contains a singleton for all known users. */
 	private final Map<String, User> users;
 	/** The local user. */
@@ -51,8 +55,9 @@ public final class ClientState {
 	 * Creates a new ClientState.
 	 */
 	protected ClientState() {
-		this.channels = new HashMap<String, Channel>();
+		this.channels = new ConcurrentHashMap<String, Channel>();
 		this.users = new HashMap<String, User>();
+		this.keys = new ConcurrentHashMap<String, String>();
 	}
 
 	/**
@@ -108,7 +113,22 @@ public final class ClientState {
 	}
 
 	/**
-	 * Creates an iterator through all Channels.
+	 * Retrieves the names of all channels, with the key used to join
+	 * them.
+	 * 
+	 * @return The channel names, mapped to their key or {@code null}.
+	 */
+	protected Map<String, String> getChannelKeys() {
+		final Map<String, String> keys = new LinkedHashMap<String, String>();
+		for (final Channel channel : this.channels.values()) {
+			keys.put(channel.getName(), this.keys.get(channel.getName().toLowerCase()));
+		}
+		return keys;
+	}
+
+	/**
+	 * Creates an iterator through all Channels. The iterator does not
+	 * fail when channels are joined or left while using it.
 	 * 
 	 * @return an iterator through all Channels.
 	 */
@@ -157,6 +177,7 @@ public final class ClientState {
 	 */
 	protected void removeAll() {
 		this.channels.clear();
+		this.keys.clear();
 	}
 
 	/**
@@ -169,6 +190,23 @@ public final class ClientState {
 		if (channel != null && this.channels.containsKey(channel.toLowerCase())) {
 			this.channels.remove(channel.toLowerCase());
 		}
+		if (channel != null) {
+			this.keys.remove(channel.toLowerCase());
+		}
+	}
+
+	/**
+	 * Remembers the key used to join a channel.
+	 * 
+	 * @param channel
+	 *            The channel name.
+	 * @param key
+	 *            The channel key.
+	 */
+	protected void setChannelKey(final String channel, final String key) {
+		if (key != null) {
+			this.keys.put(channel.toLowerCase(), key);
+		}
 	}
 
 	/**
@@ -0,0 +1,57 @@
+/*
+ * CommandListener.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+/**
+ * Notified when receiving lines with a certain command or numeric
+ * reply. Unlike the {@link AdvancedListener}, any number of command
+ * listeners can be registered, each for the commands it needs.
+ * <p>
+ * Command listeners are called after sIRC handled the line itself.
+ * Lines handled by a command listener are no longer sent to the
+ * {@code AdvancedListener}.
+ * </p>
+ * <p>
+ * Note that sIRC reuses the {@link IrcPacket} for the next line, use
+ * {@link IrcPacket#copy()} to keep it after this method returns.
+ * </p>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#addCommandListener(String, CommandListener)
+ * @see IrcConnection#addCommandListener(int, CommandListener)
+ */
+public interface CommandListener {
+	
+	/**
+	 * Received a line with a command this listener is registered for.
+	 * 
+	 * @param irc The {@link IrcConnection} receiving this event.
+	 * @param line The incoming line.
+	 */
+	void onCommand(IrcConnection irc, IrcPacket line);
+}
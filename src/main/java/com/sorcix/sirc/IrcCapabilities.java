@@ -0,0 +1,236 @@
+/*
+ * IrcCapabilities.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * IRCv3 capability negotiation.
+ * <p>
+ * When any capabilities are wanted, {@code CAP LS 302} is sent along
+ * with the registration commands. Once the server listed all its
+ * capabilities, every wanted capability it offers is requested at
+ * once, using as few {@code CAP REQ} lines as possible, and
+ * {@code CAP END} is sent after the last reply. Registration thus
+ * takes two extra round trips at most.
+ * </p>
+ * 
+ * @author Sorcix
+ */
+final class IrcCapabilities {
+	
+	/** Maximum length of the capabilities in a single request. */
+	private static final int MAX_REQUEST = 400;
+	/** Capabilities to request, guarded by {@code this}. */
+	private final Set<String> wanted = new LinkedHashSet<String>();
+	/** Capabilities offered by the server during negotiation. */
+	private final Set<String> offered = new LinkedHashSet<String>();
+	/** Enabled capabilities, never modified. */
+	private volatile Set<String> enabled = Collections.emptySet();
+	/** Number of requests waiting for a reply. */
+	private int pending = 0;
+	/** Whether registration waits for negotiation to finish. */
+	private boolean negotiating = false;
+	
+	/**
+	 * Adds a capability to request when connecting.
+	 * 
+	 * @param capability The capability name.
+	 */
+	protected synchronized void add(final String capability) {
+		this.wanted.add(capability.toLowerCase());
+	}
+	
+	/**
+	 * Enables or disables capabilities acknowledged by the server.
+	 * 
+	 * @param capabilities The capabilities, a {@code -} prefix
+	 *            disables a capability.
+	 * @param remove True to disable all given capabilities.
+	 */
+	private void enable(final String capabilities, final boolean remove) {
+		final Set<String> enabled = new LinkedHashSet<String>(this.enabled);
+		for (final String capability : IrcCapabilities.split(capabilities)) {
+			if (remove || capability.startsWith("-")) {
+				enabled.remove(IrcCapabilities.nameOf(capability.startsWith("-") ? capability.substring(1) : capability));
+			} else {
+				enabled.add(IrcCapabilities.nameOf(capability));
+			}
+		}
+		this.enabled = Collections.unmodifiableSet(enabled);
+	}
+	
+	/**
+	 * Returns the enabled capabilities.
+	 * 
+	 * @return The capabilities, in lowercase.
+	 */
+	protected Set<String> getEnabled() {
+		return this.enabled;
+	}
+	
+	/**
+	 * Handles a {@code CAP} line from the server.
+	 * 
+	 * @param line The line.
+	 * @return Lines to send in reply, possibly none.
+	 */
+	protected synchronized List<String> handle(final IrcPacket line) {
+		final String[] parameters = line.getParameters();
+		final List<String> reply = new ArrayList<String>(2);
+		if (parameters.length < 3) {
+			return reply;
+		}
+		final String command = parameters[1].toUpperCase();
+		final String capabilities = parameters[parameters.length - 1];
+		if (command.equals("LS")) {
+			for (final String capability : IrcCapabilities.split(capabilities)) {
+				this.offered.add(IrcCapabilities.nameOf(capability));
+			}
+			// CAP * LS * :more capabilities follow
+			if ((parameters.length == 4) && parameters[2].equals("*")) {
+				return reply;
+			}
+			this.request(this.offered, reply);
+			this.offered.clear();
+		} else if (command.equals("NEW")) {
+			this.request(IrcCapabilities.split(capabilities), reply);
+		} else if (command.equals("DEL")) {
+			this.enable(capabilities, true);
+		} else if (command.equals("ACK") || command.equals("NAK")) {
+			if (command.equals("ACK")) {
+				this.enable(capabilities, false);
+			}
+			if (this.pending > 0) {
+				this.pending--;
+			}
+		} else {
+			return reply;
+		}
+		if (this.negotiating && (this.pending == 0)) {
+			this.negotiating = false;
+			reply.add("CAP END");
+		}
+		return reply;
+	}
+	
+	/**
+	 * Checks whether a capability is enabled.
+	 * 
+	 * @param capability The capability name.
+	 * @return True if the server enabled it.
+	 */
+	protected boolean isEnabled(final String capability) {
+		return this.enabled.contains(capability.toLowerCase());
+	}
+	
+	/**
+	 * Returns the name of a capability, without its value.
+	 * 
+	 * @param capability A capability as listed by the server, like
+	 *            {@code sasl=PLAIN,EXTERNAL}.
+	 * @return The name in lowercase.
+	 */
+	private static String nameOf(final String capability) {
+		final int value = capability.indexOf('=');
+		return (value < 0 ? capability : capability.substring(0, value)).toLowerCase();
+	}
+	
+	/**
+	 * Requests all wanted capabilities from the given ones.
+	 * 
+	 * @param capabilities The capabilities offered by the server.
+	 * @param reply The lines to send.
+	 */
+	private void request(final Iterable<String> capabilities, final List<String> reply) {
+		StringBuilder request = null;
+		for (final String capability : capabilities) {
+			final String name = IrcCapabilities.nameOf(capability);
+			if (!this.wanted.contains(name) || this.enabled.contains(name)) {
+				continue;
+			}
+			if ((request != null) && (request.length() + name.length() >= IrcCapabilities.MAX_REQUEST)) {
+				reply.add(request.toString());
+				this.pending++;
+				request = null;
+			}
+			if (request == null) {
+				request = new StringBuilder("CAP REQ :").append(name);
+			} else {
+				request.append(' ').append(name);
+			}
+		}
+		if (request != null) {
+			reply.add(request.toString());
+			this.pending++;
+		}
+	}
+	
+	/**
+	 * Removes a capability to request when connecting.
+	 * 
+	 * @param capability The capability name.
+	 */
+	protected synchronized void remove(final String capability) {
+		this.wanted.remove(capability.toLowerCase());
+	}
+	
+	/**
+	 * Splits a list of capabilities.
+	 * 
+	 * @param capabilities Space separated capabilities.
+	 * @return The capabilities.
+	 */
+	private static List<String> split(final String capabilities) {
+		final List<String> list = new ArrayList<String>();
+		for (final String capability : capabilities.split(" ")) {
+			if (capability.length() > 0) {
+				list.add(capability);
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * Starts negotiation for a new connection.
+	 * 
+	 * @return The line to send before registering, or null if no
+	 *         capabilities are wanted.
+	 */
+	protected synchronized String start() {
+		this.enabled = Collections.emptySet();
+		this.offered.clear();
+		this.pending = 0;
+		this.negotiating = !this.wanted.isEmpty();
+		return this.negotiating ? "CAP LS 302" : null;
+	}
+}
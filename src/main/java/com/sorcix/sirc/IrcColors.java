@@ -27,11 +27,15 @@
  */
 package com.sorcix.sirc;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * This class provides mIRC color codes to be used when sending
- * messages. However, all known markup is stripped upon receiving, and
- * thus sIRC does not support viewing any incoming markup. It is not
- * planned to change this behavior.
+ * messages. All known markup is stripped upon receiving, but the
+ * formatting of a message can be read as {@link IrcStyle} spans using
+ * {@link IrcPacket#getMessageStyles()}.
  * <p>
  * Note that not all IRC clients are able to receive messages with
  * color codes, and that some IRC servers allow channel operators to
@@ -95,6 +99,42 @@ public final class IrcColors {
 	public static final int WHITE = 0;
 	/** Color number: Yellow */
 	public static final int YELLOW = 8;
+	/** Largest buffer kept for reuse, long enough for any IRC line. */
+	private static final int MAX_BUFFER = 1024;
+	/** Buffer used by {@link #remove(String)}, per thread. */
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+		
+		@Override
+		protected char[] initialValue() {
+			return new char[IrcOutput.MAX_LINE_LENGTH];
+		}
+	};
+	
+	/**
+	 * Adds a style span, unless it is empty or unstyled. A span
+	 * continuing the previous one with the same style is merged with
+	 * it.
+	 * 
+	 * @param styles The spans so far.
+	 * @param start Start offset in the plain text.
+	 * @param end End offset in the plain text.
+	 * @param flags Style flags.
+	 * @param foreground Foreground color, or -1.
+	 * @param background Background color, or -1.
+	 */
+	private static void addStyle(final List<IrcStyle> styles, final int start, final int end, final int flags, final int foreground, final int background) {
+		if ((end <= start) || ((flags == 0) && (foreground < 0))) {
+			return;
+		}
+		if (!styles.isEmpty()) {
+			final IrcStyle last = styles.get(styles.size() - 1);
+			if ((last.getEnd() == start) && last.hasStyle(flags, foreground, background)) {
+				styles.set(styles.size() - 1, new IrcStyle(last.getStart(), end, flags, foreground, background));
+				return;
+			}
+		}
+		styles.add(new IrcStyle(start, end, flags, foreground, background));
+	}
 	
 	/**
 	 * Helper for adding color to a string. This method simply
@@ -126,63 +166,137 @@ public final class IrcColors {
 	}
 	
 	/**
-	 * Removes all color codes and markup from given text.
+	 * Checks whether a character starts markup.
 	 * 
-	 * @param input Text to clear.
-	 * @return Given text without markup.
+	 * @param c The character.
+	 * @return True for bold, color, reset, reverse and underline.
 	 */
-	protected static String remove(final String input) {
-		return IrcColors.remove(new StringBuffer(input)).toString();
+	private static boolean isMarkup(final char c) {
+		return (c == '\u0002') || (c == '\u0003') || (c == '\u000f') || (c == '\u0016') || (c == '\u001f');
 	}
 	
 	/**
-	 * Removes all color codes and markup from given text.
+	 * Parses the formatting of given text into style spans. The
+	 * offsets of the spans refer to the text as returned by
+	 * {@link #remove(String)}. Text without markup has no spans.
 	 * 
-	 * @param buf input Text to clear.
-	 * @return Given text without markup.
+	 * @param input Text with markup.
+	 * @return The styled parts of the text, in order.
 	 */
-	private static StringBuffer remove(StringBuffer buf) {
-		int len = buf.length();
-		for (int i = 0, j = 0, c; i < len; i++, j = i) {
-			c = buf.charAt(i);
-			try {
-				// COLORS Beginning
-				// (format:
-				// <colorIndicator><int>[<int>][[,<int>[<int>]]
-				if (c == 3) {
-					c = buf.charAt(++j);
-					if (('0' <= c) && (c <= '9')) { // first int
-						c = buf.charAt(++j);
-						if (('0' <= c) && (c <= '9')) {
-							c = buf.charAt(++j); // second int
-						}
-					}
-					if (c == ',') {
-						c = buf.charAt(++j); // comma
+	protected static List<IrcStyle> parse(final String input) {
+		final int length = input.length();
+		int i = 0;
+		while ((i < length) && !IrcColors.isMarkup(input.charAt(i))) {
+			i++;
+		}
+		if (i == length) {
+			return Collections.emptyList();
+		}
+		final List<IrcStyle> styles = new ArrayList<IrcStyle>(4);
+		// plain text offset, and where the current style started
+		int offset = i;
+		int start = i;
+		int flags = 0;
+		int foreground = -1;
+		int background = -1;
+		while (i < length) {
+			final char c = input.charAt(i++);
+			if (!IrcColors.isMarkup(c)) {
+				offset++;
+				continue;
+			}
+			IrcColors.addStyle(styles, start, offset, flags, foreground, background);
+			start = offset;
+			switch (c) {
+				case '\u0002':
+					flags ^= IrcStyle.BOLD;
+					break;
+				case '\u001f':
+					flags ^= IrcStyle.UNDERLINE;
+					break;
+				case '\u0016':
+					flags ^= IrcStyle.REVERSE;
+					break;
+				case '\u000f':
+					flags = 0;
+					foreground = -1;
+					background = -1;
+					break;
+				default:
+					// <color>[fg[fg]][,[bg[bg]]]
+					int end = IrcColors.skipDigits(input, i);
+					if (end > i) {
+						foreground = Integer.parseInt(input.substring(i, end));
+					} else {
+						foreground = -1;
+						background = -1;
 					}
-					if (('0' <= c) && (c <= '9')) { // first int
-						c = buf.charAt(++j);
-						if (('0' <= c) && (c <= '9')) {
-							c = buf.charAt(++j); // second int
+					i = end;
+					if ((i < length) && (input.charAt(i) == ',')) {
+						end = IrcColors.skipDigits(input, i + 1);
+						if ((end > i + 1) && (foreground >= 0)) {
+							background = Integer.parseInt(input.substring(i + 1, end));
 						}
+						i = end;
 					}
-					// CTCP / BOLD / UNDERLINE / COLOR END
-					// (format: <ctcpDelimiter> / <boldIndicator>
-					// etc.)
-				} else if ((c == 31) || (c == 2) || (c == 15) || (c == 22)) {
-					j++;
-				}
-			} catch (final StringIndexOutOfBoundsException exc) {
-				// we got the end of the string with a call to
-				// charAt(++iIndexEnd)
-				// nothing
 			}
-			if (j > i) {
-				buf = buf.delete(i, j); // remove the cars
-				len -= (j - i);
-				i--;
+		}
+		IrcColors.addStyle(styles, start, offset, flags, foreground, background);
+		return Collections.unmodifiableList(styles);
+	}
+	
+	/**
+	 * Removes all color codes and markup from given text. Text without
+	 * markup is returned as is, other text is copied once into a
+	 * buffer reused by the current thread.
+	 * 
+	 * @param input Text to clear.
+	 * @return Given text without markup.
+	 */
+	protected static String remove(final String input) {
+		final int length = input.length();
+		int i = 0;
+		while ((i < length) && !IrcColors.isMarkup(input.charAt(i))) {
+			i++;
+		}
+		if (i == length) {
+			return input;
+		}
+		char[] buffer = IrcColors.BUFFER.get();
+		if (buffer.length < length) {
+			buffer = new char[length];
+			if (length <= IrcColors.MAX_BUFFER) {
+				IrcColors.BUFFER.set(buffer);
 			}
 		}
-		return buf;
+		input.getChars(0, i, buffer, 0);
+		int end = i;
+		while (i < length) {
+			final char c = input.charAt(i++);
+			if (c == '\u0003') {
+				// <color>[fg[fg]][,[bg[bg]]]
+				i = IrcColors.skipDigits(input, i);
+				if ((i < length) && (input.charAt(i) == ',')) {
+					i = IrcColors.skipDigits(input, i + 1);
+				}
+			} else if (!IrcColors.isMarkup(c)) {
+				buffer[end++] = c;
+			}
+		}
+		return new String(buffer, 0, end);
+	}
+	
+	/**
+	 * Skips up to two digits of a color number.
+	 * 
+	 * @param input The text.
+	 * @param i Position of the first digit.
+	 * @return Position after the digits.
+	 */
+	private static int skipDigits(final String input, int i) {
+		for (int digits = 0; (digits < 2) && (i < input.length()) && (input.charAt(i) >= '0') && (input.charAt(i) <= '9'); digits++) {
+			i++;
+		}
+		return i;
 	}
 }
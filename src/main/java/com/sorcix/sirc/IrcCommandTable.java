@@ -0,0 +1,181 @@
+/*
+ * IrcCommandTable.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+/**
+ * Maps IRC commands and numeric replies to values.
+ * <p>
+ * Numeric replies are looked up in an array indexed by their number,
+ * commands in a hash table that is probed using the command's
+ * position in the {@link IrcPacket}, so looking up a line never
+ * creates a String. The table is copied on every change, lookups
+ * don't need any locking.
+ * </p>
+ * 
+ * @author Sorcix
+ * @param <T> The type of values.
+ */
+final class IrcCommandTable<T> {
+	
+	/** Number of possible numeric replies. */
+	protected static final int NUMERICS = 1000;
+	/** Values for numeric replies. */
+	private volatile Object[] numerics = new Object[IrcCommandTable.NUMERICS];
+	/** Commands and values, stored as key/value pairs. */
+	private volatile Object[] commands = new Object[16];
+	
+	/**
+	 * Spreads the bits of a hash code.
+	 * 
+	 * @param hash The hash code.
+	 * @return The spread hash code.
+	 */
+	private static int spread(final int hash) {
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * Gives the value for given line's command or numeric reply.
+	 * 
+	 * @param line The line.
+	 * @return The value, or null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	protected T get(final IrcPacket line) {
+		if (line.isNumeric()) {
+			return this.get(line.getNumericCommand());
+		}
+		final Object[] table = this.commands;
+		final int mask = (table.length >> 1) - 1;
+		for (int i = IrcCommandTable.spread(line.hashCommand()) & mask;; i = (i + 1) & mask) {
+			final String key = (String) table[i << 1];
+			if (key == null) {
+				return null;
+			} else if (line.isCommand(key)) {
+				return (T) table[(i << 1) + 1];
+			}
+		}
+	}
+	
+	/**
+	 * Gives the value for given numeric reply.
+	 * 
+	 * @param numeric The numeric reply.
+	 * @return The value, or null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	protected T get(final int numeric) {
+		if ((numeric < 0) || (numeric >= IrcCommandTable.NUMERICS)) {
+			return null;
+		}
+		return (T) this.numerics[numeric];
+	}
+	
+	/**
+	 * Gives the value for given command.
+	 * 
+	 * @param command The command.
+	 * @return The value, or null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	protected T get(final String command) {
+		final Object[] table = this.commands;
+		final int mask = (table.length >> 1) - 1;
+		for (int i = IrcCommandTable.spread(command.hashCode()) & mask;; i = (i + 1) & mask) {
+			final String key = (String) table[i << 1];
+			if (key == null) {
+				return null;
+			} else if (key.equals(command)) {
+				return (T) table[(i << 1) + 1];
+			}
+		}
+	}
+	
+	/**
+	 * Adds a key/value pair to a table, without checking its size.
+	 * 
+	 * @param table The table.
+	 * @param key The command.
+	 * @param value The value.
+	 */
+	private static void insert(final Object[] table, final String key, final Object value) {
+		final int mask = (table.length >> 1) - 1;
+		int i = IrcCommandTable.spread(key.hashCode()) & mask;
+		while (table[i << 1] != null) {
+			i = (i + 1) & mask;
+		}
+		table[i << 1] = key;
+		table[(i << 1) + 1] = value;
+	}
+	
+	/**
+	 * Changes the value for given numeric reply.
+	 * 
+	 * @param numeric The numeric reply, between 0 and 999.
+	 * @param value The new value, or null to remove it.
+	 */
+	protected synchronized void put(final int numeric, final T value) {
+		if ((numeric < 0) || (numeric >= IrcCommandTable.NUMERICS)) {
+			throw new IllegalArgumentException("Invalid numeric reply: " + numeric);
+		}
+		final Object[] numerics = this.numerics.clone();
+		numerics[numeric] = value;
+		this.numerics = numerics;
+	}
+	
+	/**
+	 * Changes the value for given command.
+	 * 
+	 * @param command The command.
+	 * @param value The new value, or null to remove it.
+	 */
+	protected synchronized void put(final String command, final T value) {
+		final Object[] old = this.commands;
+		int size = value != null ? 1 : 0;
+		for (int i = 0; i < old.length; i += 2) {
+			if ((old[i] != null) && !old[i].equals(command)) {
+				size++;
+			}
+		}
+		// keep the table at most half full
+		int capacity = 16;
+		while (capacity < size * 4) {
+			capacity <<= 1;
+		}
+		final Object[] table = new Object[capacity];
+		for (int i = 0; i < old.length; i += 2) {
+			if ((old[i] != null) && !old[i].equals(command)) {
+				IrcCommandTable.insert(table, (String) old[i], old[i + 1]);
+			}
+		}
+		if (value != null) {
+			IrcCommandTable.insert(table, command, value);
+		}
+		this.commands = table;
+	}
+}
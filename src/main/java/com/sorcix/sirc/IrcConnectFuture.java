@@ -0,0 +1,224 @@
+/*
+ * IrcConnectFuture.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The outcome of {@link IrcConnection#connectAsync()}.
+ * <p>
+ * The future completes when the server accepted the registration
+ * (numeric reply 004), or fails with the exception
+ * {@link IrcConnection#connect()} would have thrown: a
+ * {@link NickNameException} for replies 432 and 433, a
+ * {@link PasswordException} for reply 464, or an {@link IOException}
+ * if the connection could not be made or was closed.
+ * </p>
+ * 
+ * <pre>
+ * IrcConnectFuture future = irc.connectAsync();
+ * future.addListener(new Runnable() {
+ * 
+ * 	public void run() {
+ * 		if (future.getCause() == null) {
+ * 			irc.createChannel(&quot;#sirc&quot;).join();
+ * 		}
+ * 	}
+ * });
+ * </pre>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#connectAsync()
+ */
+public final class IrcConnectFuture implements Future<IrcConnection> {
+	
+	/** The IrcConnection connecting. */
+	private final IrcConnection irc;
+	/** Released when done. */
+	private final CountDownLatch done = new CountDownLatch(1);
+	/** Listeners to run when done, or null once done. */
+	private List<Runnable> listeners = new ArrayList<Runnable>(1);
+	/** Why connecting failed, or null. */
+	private volatile Throwable cause = null;
+	
+	/**
+	 * Creates a new future.
+	 * 
+	 * @param irc The IrcConnection connecting.
+	 */
+	protected IrcConnectFuture(final IrcConnection irc) {
+		this.irc = irc;
+	}
+	
+	/**
+	 * Runs a listener once connecting finished, successfully or not.
+	 * If it already finished, the listener is run right away.
+	 * Otherwise it is run by the thread finishing registration, which
+	 * may be an event loop, so listeners should not block.
+	 * 
+	 * @param listener The listener.
+	 */
+	public void addListener(final Runnable listener) {
+		synchronized (this) {
+			if (this.listeners != null) {
+				this.listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+	
+	/**
+	 * Aborts connecting by closing the connection. Has no effect once
+	 * connecting finished.
+	 * 
+	 * @param mayInterruptIfRunning Ignored.
+	 * @return True if connecting was aborted.
+	 */
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		if (!this.finish(new CancellationException("Connecting was cancelled"))) {
+			return false;
+		}
+		this.irc.disconnect();
+		return true;
+	}
+	
+	/**
+	 * Marks connecting as successful.
+	 * 
+	 * @return True if this future was not done yet.
+	 */
+	protected boolean complete() {
+		return this.finish(null);
+	}
+	
+	/**
+	 * Marks connecting as failed.
+	 * 
+	 * @param cause Why connecting failed.
+	 * @return True if this future was not done yet.
+	 */
+	protected boolean fail(final Throwable cause) {
+		return this.finish(cause);
+	}
+	
+	/**
+	 * Finishes this future and runs the listeners.
+	 * 
+	 * @param cause Why connecting failed, or null.
+	 * @return True if this future was not done yet.
+	 */
+	private boolean finish(final Throwable cause) {
+		final List<Runnable> listeners;
+		synchronized (this) {
+			if (this.listeners == null) {
+				return false;
+			}
+			listeners = this.listeners;
+			this.listeners = null;
+			this.cause = cause;
+		}
+		this.done.countDown();
+		for (final Runnable listener : listeners) {
+			try {
+				listener.run();
+			} catch (final Exception ex) {
+				IrcDebug.log("Exception " + ex + " in connect listener");
+				ex.printStackTrace();
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public IrcConnection get() throws InterruptedException, ExecutionException {
+		this.done.await();
+		return this.result();
+	}
+	
+	@Override
+	public IrcConnection get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!this.done.await(timeout, unit)) {
+			throw new TimeoutException("Still connecting to " + this.irc.getServerAddress());
+		}
+		return this.result();
+	}
+	
+	/**
+	 * Returns why connecting failed.
+	 * 
+	 * @return The exception, or {@code null} if connecting succeeded or
+	 *         didn't finish yet.
+	 */
+	public Throwable getCause() {
+		return this.cause;
+	}
+	
+	/**
+	 * Returns the IrcConnection connecting.
+	 * 
+	 * @return The IrcConnection.
+	 */
+	public IrcConnection getConnection() {
+		return this.irc;
+	}
+	
+	@Override
+	public boolean isCancelled() {
+		return this.cause instanceof CancellationException;
+	}
+	
+	@Override
+	public boolean isDone() {
+		return this.done.getCount() == 0;
+	}
+	
+	/**
+	 * Returns the result of a finished future.
+	 * 
+	 * @return The IrcConnection.
+	 * @throws ExecutionException If connecting failed.
+	 */
+	private IrcConnection result() throws ExecutionException {
+		final Throwable cause = this.cause;
+		if (cause instanceof CancellationException) {
+			throw (CancellationException) cause;
+		} else if (cause != null) {
+			throw new ExecutionException(cause);
+		}
+		return this.irc;
+	}
+}
@@ -30,14 +30,20 @@ package com.sorcix.sirc;
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Main IRC Connection class in sIRC.
@@ -60,20 +66,44 @@ public class IrcConnection {
 	public static final String VERSION = "1.1.6-SNAPSHOT";
 	/** Advanced listener. */
 	private AdvancedListener advancedListener = null;
+	/** Command listeners, by command or numeric reply. */
+	private final IrcCommandTable<CommandListener[]> commandListeners = new IrcCommandTable<CommandListener[]>();
 	/** Connection InputStream thread. */
 	private IrcInput in = null;
 	/** Outgoing message delay. (Flood control) */
 	private int messageDelay = 100;
+	/** Flood control, or null to use the message delay. */
+	private IrcFloodControl floodControl = null;
+	/** Message queue weights, by priority. */
+	private volatile int[] priorityWeights;
 	/** Message listeners. */
-	private final List<MessageListener> messageListeners;
+	private final IrcListenerList<MessageListener> messageListeners;
 	/** Mode listeners. */
-	private final List<ModeListener> modeListeners;
+	private final IrcListenerList<ModeListener> modeListeners;
 	/** Connection OutputStream thread. */
 	protected IrcOutput out = null;
 	/** Server listeners. */
-	private final List<ServerListener> serverListeners;
+	private final IrcListenerList<ServerListener> serverListeners;
 	/** Services. */
-	private final List<SIRCService> services;
+	private final IrcListenerList<SIRCService> services;
+	/** Outcome of the registration in progress, or null. */
+	private volatile IrcConnectFuture registration = null;
+	/** Outcome of {@link #connectAsync()} connecting on its own thread, or null. */
+	private volatile IrcConnectFuture connecting = null;
+	/** How to reconnect when the connection is lost, or null. */
+	private volatile IrcReconnect reconnect = null;
+	/** The thread reconnecting, or null. */
+	private Thread reconnecting = null;
+	/** Whether we asked the server to close the connection. */
+	private volatile boolean quitting = false;
+	/** IRCv3 capabilities. */
+	private final IrcCapabilities capabilities = new IrcCapabilities();
+	/** Typed event listeners. */
+	private final IrcEventBus eventBus = new IrcEventBus(this);
+	/** Message listeners added with a subscription. */
+	private final IrcSubscriptions subscriptions = new IrcSubscriptions();
+	/** Features advertised by the server. */
+	private final IrcSupport support = new IrcSupport();
 	/** Connection socket. */
 	private Socket socket = null;
 	/** Custom version string. */
@@ -90,6 +120,14 @@ public class IrcConnection {
 	protected static final String ENDLINE = "\n";
 	/** Whether to allow server redirection (bounce) or not. */
 	private boolean bounceAllowed = false;
+	/** The reactor handling this connection, or null to use threads. */
+	private IrcReactor reactor = null;
+	/** Calls listeners off the input thread, or null. */
+	private volatile IrcDispatcher dispatcher = null;
+	/** Receives every handled line, or null. */
+	private volatile IrcRingBuffer ringBuffer = null;
+	/** Creates the input and output threads, or null for the default. */
+	private ThreadFactory threadFactory = null;
 
 	/**
 	 * Creates a new IrcConnection object.
@@ -133,11 +171,15 @@ public class IrcConnection {
 	public IrcConnection(final String server, final int port,
 			final String password) {
 		this.server = new IrcServer(server, port, password, false);
-		this.serverListeners = new Vector<ServerListener>(4);
-		this.messageListeners = new Vector<MessageListener>(4);
-		this.modeListeners = new Vector<ModeListener>(2);
-		this.services = new Vector<SIRCService>(0);
+		this.serverListeners = new IrcListenerList<ServerListener>(ServerListener.class);
+		this.messageListeners = new IrcListenerList<MessageListener>(MessageListener.class);
+		this.modeListeners = new IrcListenerList<ModeListener>(ModeListener.class);
+		this.services = new IrcListenerList<SIRCService>(SIRCService.class);
 		this.state = new ClientState();
+		this.priorityWeights = new int[IrcPriority.values().length];
+		for (final IrcPriority priority : IrcPriority.values()) {
+			this.priorityWeights[priority.ordinal()] = priority.getDefaultWeight();
+		}
 	}
 
 	/**
@@ -152,6 +194,135 @@ public class IrcConnection {
 		this(server, IrcServer.DEFAULT_PORT, password);
 	}
 
+	/**
+	 * Stops connecting on the thread started by {@link #connectAsync()}
+	 * if its future was cancelled. Cancelling can't close a socket that
+	 * doesn't exist yet, so this is checked after every step that
+	 * blocks.
+	 * 
+	 * @param socket
+	 *            The socket connecting, closed when aborting.
+	 * @throws InterruptedIOException
+	 *             If connecting was cancelled.
+	 */
+	private void abortIfCancelled(final Socket socket) throws InterruptedIOException {
+		final IrcConnectFuture future = this.connecting;
+		if ((future == null) || !future.isCancelled()) {
+			return;
+		}
+		try {
+			socket.close();
+		} catch (final IOException ex) {
+			// ignore
+		}
+		throw new InterruptedIOException("Connecting was cancelled");
+	}
+
+	/**
+	 * Adds an IRCv3 capability to request when connecting, like
+	 * {@code multi-prefix} or {@code away-notify}. Capabilities the
+	 * server doesn't offer are ignored. This takes effect on the next
+	 * connect, or when the server announces the capability using
+	 * {@code cap-notify}.
+	 * 
+	 * @param capability
+	 *            The capability name.
+	 * @see #getCapabilities()
+	 */
+	public void addCapability(final String capability) {
+		if (capability != null) {
+			this.capabilities.add(capability);
+		}
+	}
+
+	/**
+	 * Adds a command listener to this IrcConnection, which will be
+	 * notified of every incoming line with given command.
+	 * 
+	 * @param command
+	 *            The command, like {@code WALLOPS}.
+	 * @param listener
+	 *            The command listener to add.
+	 * @see CommandListener
+	 */
+	public void addCommandListener(final String command, final CommandListener listener) {
+		if ((command != null) && (listener != null)) {
+			synchronized (this.commandListeners) {
+				final String key = command.toUpperCase();
+				this.commandListeners.put(key, IrcConnection.add(this.commandListeners.get(key), listener));
+			}
+		}
+	}
+
+	/**
+	 * Adds a command listener to this IrcConnection, which will be
+	 * notified of every incoming numeric reply with given number.
+	 * 
+	 * @param numeric
+	 *            The numeric reply, between 0 and 999.
+	 * @param listener
+	 *            The command listener to add.
+	 * @see CommandListener
+	 */
+	public void addCommandListener(final int numeric, final CommandListener listener) {
+		if (listener != null) {
+			synchronized (this.commandListeners) {
+				this.commandListeners.put(numeric, IrcConnection.add(this.commandListeners.get(numeric), listener));
+			}
+		}
+	}
+
+	/**
+	 * Creates a copy of given listener array with a listener added.
+	 * 
+	 * @param listeners
+	 *            The current listeners, or {@code null}.
+	 * @param listener
+	 *            The listener to add.
+	 * @return The new listeners.
+	 */
+	private static CommandListener[] add(final CommandListener[] listeners, final CommandListener listener) {
+		if (listeners == null) {
+			return new CommandListener[] { listener };
+		}
+		for (final CommandListener current : listeners) {
+			if (current.equals(listener)) {
+				return listeners;
+			}
+		}
+		final CommandListener[] added = new CommandListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, added, 0, listeners.length);
+		added[listeners.length] = listener;
+		return added;
+	}
+
+	/**
+	 * Creates a copy of given listener array with a listener removed.
+	 * 
+	 * @param listeners
+	 *            The current listeners, or {@code null}.
+	 * @param listener
+	 *            The listener to remove.
+	 * @return The new listeners, or {@code null} if there are none left.
+	 */
+	private static CommandListener[] remove(final CommandListener[] listeners, final CommandListener listener) {
+		if (listeners == null) {
+			return null;
+		}
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i].equals(listener)) {
+				if (listeners.length == 1) {
+					return null;
+				}
+				final CommandListener[] removed = new CommandListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, removed, 0, i);
+				System.arraycopy(listeners, i + 1, removed, i, listeners.length - i - 1);
+				return removed;
+			}
+		}
+		return listeners;
+	}
+
 	/**
 	 * Adds a message listener to this IrcConnection.
 	 * 
@@ -159,9 +330,7 @@ public class IrcConnection {
 	 *            The message listener to add.
 	 */
 	public void addMessageListener(final MessageListener listener) {
-		if ((listener != null) && !this.messageListeners.contains(listener)) {
-			this.messageListeners.add(listener);
-		}
+		this.messageListeners.add(listener);
 	}
 
 	/**
@@ -175,9 +344,7 @@ public class IrcConnection {
 	 *            The mode listener to add.
 	 */
 	public void addModeListener(final ModeListener listener) {
-		if ((listener != null) && !this.modeListeners.contains(listener)) {
-			this.modeListeners.add(listener);
-		}
+		this.modeListeners.add(listener);
 	}
 
 	/**
@@ -187,9 +354,7 @@ public class IrcConnection {
 	 *            The server listener to add.
 	 */
 	public void addServerListener(final ServerListener listener) {
-		if ((listener != null) && !this.serverListeners.contains(listener)) {
-			this.serverListeners.add(listener);
-		}
+		this.serverListeners.add(listener);
 	}
 
 	/**
@@ -201,8 +366,7 @@ public class IrcConnection {
 	 *            The service to add.
 	 */
 	public void addService(final SIRCService service) {
-		if ((service != null) && !this.services.contains(service)) {
-			this.services.add(service);
+		if (this.services.add(service)) {
 			service.load(this);
 		}
 	}
@@ -221,12 +385,63 @@ public class IrcConnection {
 	/**
 	 * Send a raw command to the IRC server.  Unrecognized responses
 	 * are passed to the AdvancedListener's onUnknown() callback.
-	 *
+	 * 
 	 * @param line The raw line to send.
 	 */
 	public void sendRaw(final String line) {
 		this.out.send(line);
 	}
+
+	/**
+	 * Send a raw command to the IRC server, with given priority in the
+	 * message queue.
+	 * 
+	 * @param line The raw line to send.
+	 * @param priority The priority of this line.
+	 * @see IrcPriority
+	 */
+	public void sendRaw(final String line, final IrcPriority priority) {
+		this.out.send(line, priority);
+	}
+
+	/**
+	 * Sends a message to several channels or users at once. Targets are
+	 * packed into as few PRIVMSG commands as the maximum line length
+	 * and the server's {@code TARGMAX} or {@code MAXTARGETS} allow. If
+	 * the server advertises neither, one command per target is sent.
+	 * 
+	 * @param targets
+	 *            The channel names or nicknames.
+	 * @param message
+	 *            The message to send.
+	 * @see #getSupport(String)
+	 */
+	public void sendMessage(final Collection<String> targets, final String message) {
+		final List<String> names = new ArrayList<String>(targets);
+		// the server adds our prefix when relaying to every target
+		final int length = message.getBytes(this.charset).length + this.out.getPrefixLength();
+		for (final IrcPacket packet : IrcPacketFactory.createPRIVMSG(names, message, length, this.support.getTargetLimit("PRIVMSG", 1))) {
+			this.out.send(packet);
+		}
+	}
+
+	/**
+	 * Sends a notice to several channels or users at once, like
+	 * {@link #sendMessage(Collection, String)}.
+	 * 
+	 * @param targets
+	 *            The channel names or nicknames.
+	 * @param message
+	 *            The notice to send.
+	 */
+	public void sendNotice(final Collection<String> targets, final String message) {
+		final List<String> names = new ArrayList<String>(targets);
+		// the server adds our prefix when relaying to every target
+		final int length = message.getBytes(this.charset).length + this.out.getPrefixLength();
+		for (final IrcPacket packet : IrcPacketFactory.createNOTICE(names, message, length, this.support.getTargetLimit("NOTICE", 1))) {
+			this.out.send(packet);
+		}
+	}
 	
 	/**
 	 * Asks the userlist for a certain channel.
@@ -280,7 +495,7 @@ public class IrcConnection {
 	/**
 	 * Connect to the IRC server. You must set the server details and nickname
 	 * before calling this method!
-	 *
+	 * 
 	 * @param sslctx The SSLContext to use.
 	 * @throws UnknownHostException
 	 *             When the domain name is invalid.
@@ -302,15 +517,36 @@ public class IrcConnection {
 				throw new IllegalStateException(e);
 			}
 			this.connect(sslctx.getSocketFactory());
+		} else if (this.reactor != null) {
+			this.connect(this.openChannel());
 		} else {
 			this.connect(SocketFactory.getDefault());
 		}
 	}
 
+	/**
+	 * Opens a socket channel to the IRC server, to be used with a
+	 * reactor.
+	 * 
+	 * @return The socket of the connected channel.
+	 * @throws IOException
+	 *             When anything went wrong while connecting.
+	 */
+	private Socket openChannel() throws IOException {
+		// check if a server is given
+		if ((this.server.getAddress() == null)) {
+			throw new IOException("Server address is not set!");
+		}
+		if (this.socket != null && this.socket.isConnected() && !this.socket.isClosed()) {
+			return this.socket;
+		}
+		return SocketChannel.open(new InetSocketAddress(this.server.getAddress(), this.server.getPort())).socket();
+	}
+
 	/**
 	 * Connect to the IRC server. You must set the server details and nickname
 	 * before calling this method!
-	 *
+	 * 
 	 * @param sfact The SocketFactory to create a socket with.
 	 * @throws UnknownHostException
 	 *             When the domain name is invalid.
@@ -329,8 +565,9 @@ public class IrcConnection {
 			throw new IOException("Server address is not set!");
 		}
 		// connect socket
-		if (this.socket == null || !this.socket.isConnected()) {
+		if (this.socket == null || !this.socket.isConnected() || this.socket.isClosed()) {
 			Socket socket = sfact.createSocket(this.server.getAddress(), this.server.getPort());
+			this.abortIfCancelled(socket);
 			this.socket = null;
 			this.connect(socket);
 		} else if (this.socket != null) {
@@ -343,7 +580,7 @@ public class IrcConnection {
 	/**
 	 * Connect to the IRC server. You must set the server details and nickname
 	 * before calling this method!
-	 *
+	 * 
 	 * @param sock The socket to connect to.
 	 * @throws UnknownHostException
 	 *             When the domain name is invalid.
@@ -363,6 +600,8 @@ public class IrcConnection {
 		if ((this.state.getClient() == null) || this.state.getClient().getNick().trim().equals("")) {
 			throw new NickNameException("Nickname is empty or null!");
 		}
+		this.quitting = false;
+		this.support.clear();
 		// allows for handling SASL, etc. before doing IRC handshake
 		// set to input socket
 		if (sock != null && this.socket != sock) {
@@ -370,24 +609,30 @@ public class IrcConnection {
 			reconnecting = false;
 		}
 		// open streams
-		this.out = new IrcOutput(this, new OutputStreamWriter(this.socket.getOutputStream(), this.charset));
-		this.in = new IrcInput(this, new InputStreamReader(this.socket.getInputStream(), this.charset));
-		if (!reconnecting) {
-			// send password if given
-			if (this.server.getPassword() != null) {
-				this.out.sendNowEx(IrcPacketFactory.createPASS(this.server
-						.getPassword()));
-			}
-			this.out.sendNowEx(IrcPacketFactory.createUSER(this.state.getClient()
-					.getUserName(), this.state.getClient().getNick()));
+		IrcSession session = null;
+		if (this.reactor != null && this.socket.getChannel() != null) {
+			session = new IrcSession(this, this.socket.getChannel());
+			this.out = new IrcOutput(this, session.getOutputStream());
+			this.in = new IrcInput(this, session);
+			session.attach(this.in, this.out);
+		} else {
+			this.out = new IrcOutput(this, this.socket.getOutputStream());
+			this.in = new IrcInput(this, this.socket.getInputStream());
 		}
-		this.out.sendNowEx(IrcPacketFactory.createNICK(this.state.getClient()
-				.getNick()));
+		this.abortIfCancelled(this.socket);
+		this.sendRegistration(!reconnecting);
 		// wait for reply
 		String line;
-		loop: while ((line = this.in.getReader().readLine()) != null) {
+		final IrcPacket decoder = new IrcPacket(this);
+		loop: while ((line = this.in.readLine()) != null) {
 			IrcDebug.log(line);
-			final IrcPacket decoder = new IrcPacket(line, this);
+			decoder.reset(line);
+			if (decoder.isCommand("CAP")) {
+				for (final String reply : this.capabilities.handle(decoder)) {
+					this.out.sendNowEx(reply);
+				}
+				continue;
+			}
 			if (decoder.isNumeric()) {
 				final int command = decoder.getNumericCommand();
 				switch (command) {
@@ -416,16 +661,138 @@ public class IrcConnection {
 				this.out.pong(line.substring(5));
 			}
 		}
-		// start listening
-		this.in.start();
-		this.out.start();
+		this.abortIfCancelled(this.socket);
 		// we are connected
 		this.setConnected(true);
+		// start listening
+		if (session != null) {
+			this.out.setSession(session);
+			session.register(this.reactor);
+		} else {
+			this.in.start();
+			this.out.start();
+		}
 		// send events
-		for (final Iterator<ServerListener> it = this.getServerListeners(); it
-				.hasNext();) {
-			it.next().onConnect(this);
+		for (final ServerListener listener : this.getServerListeners()) {
+			listener.onConnect(this);
+		}
+	}
+
+	/**
+	 * Connects to the IRC server without waiting for registration to
+	 * finish. You must set the server details and nickname before
+	 * calling this method!
+	 * <p>
+	 * With a reactor, this doesn't block at all: the socket connects in
+	 * non-blocking mode, and the server's replies to the registration
+	 * are handled by the event loop like any other line. Hundreds of
+	 * connections can be started from a single thread this way.
+	 * Without a reactor, or when using SSL, {@link #connect()} is run
+	 * on a new thread.
+	 * </p>
+	 * <p>
+	 * Messages sent before registration finished are queued, and sent
+	 * once it did.
+	 * </p>
+	 * 
+	 * @return The outcome of connecting.
+	 * @see IrcConnectFuture
+	 * @see #setReactor(IrcReactor)
+	 */
+	public IrcConnectFuture connectAsync() {
+		final IrcConnectFuture future = new IrcConnectFuture(this);
+		if ((this.state.getClient() == null) || this.state.getClient().getNick().trim().equals("")) {
+			future.fail(new NickNameException("Nickname is empty or null!"));
+			return future;
+		}
+		this.quitting = false;
+		this.support.clear();
+		if ((this.reactor == null) || this.server.isSecure()) {
+			this.newThread(new Runnable() {
+
+				@Override
+				public void run() {
+					IrcConnection.this.connecting = future;
+					try {
+						IrcConnection.this.connect();
+					} catch (final Exception ex) {
+						future.fail(ex);
+						return;
+					} finally {
+						IrcConnection.this.connecting = null;
+					}
+					if (!future.complete()) {
+						// cancelled while starting the connection
+						IrcConnection.this.disconnect();
+					}
+				}
+			}, "sIRC-CONNECT:" + this.getServerAddress(), Thread.NORM_PRIORITY, true).start();
+			return future;
+		}
+		final SocketChannel channel;
+		try {
+			if (this.server.getAddress() == null) {
+				throw new IOException("Server address is not set!");
+			}
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.connect(new InetSocketAddress(this.server.getAddress(), this.server.getPort()));
+		} catch (final IOException ex) {
+			future.fail(ex);
+			return future;
 		}
+		this.socket = channel.socket();
+		final IrcSession session = new IrcSession(this, channel);
+		this.out = new IrcOutput(this, session.getOutputStream());
+		this.in = new IrcInput(this, session);
+		session.attach(this.in, this.out);
+		this.registration = future;
+		try {
+			session.connect(this.reactor, new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						IrcConnection.this.sendRegistration(true);
+					} catch (final IOException ex) {
+						session.close();
+					}
+				}
+			});
+		} catch (final IOException ex) {
+			this.registration = null;
+			session.close();
+			future.fail(ex);
+		}
+		return future;
+	}
+
+	/**
+	 * Sends the registration commands.
+	 * 
+	 * @param full
+	 *            False to only send NICK, if the rest of the handshake
+	 *            was done by the caller.
+	 * @throws IOException
+	 *             If sending failed.
+	 */
+	private void sendRegistration(final boolean full) throws IOException {
+		if (full) {
+			// negotiate capabilities before registration completes
+			final String capabilities = this.capabilities.start();
+			if (capabilities != null) {
+				this.out.sendNowEx(capabilities);
+			}
+			// send password if given
+			if (this.server.getPassword() != null) {
+				this.out.sendNowEx(IrcPacketFactory.createPASS(this.server
+						.getPassword()));
+			}
+			this.out.sendNowEx(IrcPacketFactory.createUSER(this.state.getClient()
+					.getUserName(), this.state.getClient().getNick()));
+		}
+		this.out.sendNowEx(IrcPacketFactory.createNICK(this.state.getClient()
+				.getNick()));
 	}
 
 	/**
@@ -486,6 +853,23 @@ public class IrcConnection {
 		}
 	}
 
+	/**
+	 * Returns given listener, or a proxy calling it through the
+	 * dispatcher if one is set.
+	 * 
+	 * @param <T> The listener type.
+	 * @param listener The listener, may be null.
+	 * @param type The listener interface.
+	 * @return The listener to call.
+	 */
+	protected <T> T dispatch(final T listener, final Class<T> type) {
+		final IrcDispatcher dispatcher = this.dispatcher;
+		if ((dispatcher == null) || (listener == null)) {
+			return listener;
+		}
+		return dispatcher.wrap(listener, type);
+	}
+
 	/**
 	 * Disconnects from the server. In the case a connection to the server is
 	 * alive, this method will send the QUIT command and wait for the server to
@@ -504,12 +888,57 @@ public class IrcConnection {
 	 *            The QUIT message to use.
 	 */
 	public void disconnect(final String message) {
+		this.stopReconnecting();
 		if (this.isConnected()) {
+			this.quitting = true;
 			this.out.sendNow(IrcPacketFactory.createQUIT(message));
 		} else {
-			this.close();
-			this.getState().removeAll();
-			this.garbageCollection();
+			this.dispose();
+		}
+	}
+
+	/**
+	 * Closes all streams and forgets the channels, without stopping a
+	 * reconnect in progress.
+	 */
+	protected void dispose() {
+		this.close();
+		this.getState().removeAll();
+		this.garbageCollection();
+	}
+
+	/**
+	 * Fails the registration in progress after {@link #connectAsync()}
+	 * and closes the connection.
+	 * 
+	 * @param cause
+	 *            Why registration failed.
+	 * @return True if registration was in progress.
+	 */
+	protected boolean failRegistration(final Throwable cause) {
+		final IrcConnectFuture registration = this.registration;
+		if (registration == null) {
+			return false;
+		}
+		if (registration.fail(cause)) {
+			// the input handler clears the registration when closed
+			this.dispose();
+		} else {
+			this.registration = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Forgets the dispatching proxy of a removed listener.
+	 * 
+	 * @param listener
+	 *            The removed listener.
+	 */
+	protected void forget(final Object listener) {
+		final IrcDispatcher dispatcher = this.dispatcher;
+		if (dispatcher != null) {
+			dispatcher.forget(listener);
 		}
 	}
 
@@ -528,7 +957,7 @@ public class IrcConnection {
 	 * @return The advanced listener, or null.
 	 */
 	protected AdvancedListener getAdvancedListener() {
-		return this.advancedListener;
+		return this.dispatch(this.advancedListener, AdvancedListener.class);
 	}
 
 	/**
@@ -560,6 +989,50 @@ public class IrcConnection {
 		return this.state.getClient();
 	}
 
+	/**
+	 * Returns the IRCv3 capabilities enabled by the server.
+	 * 
+	 * @return The enabled capabilities, in lowercase. The set can't be
+	 *         modified.
+	 * @see #addCapability(String)
+	 */
+	public Set<String> getCapabilities() {
+		return this.capabilities.getEnabled();
+	}
+
+	/**
+	 * Returns the dispatcher calling the listeners of this connection.
+	 * 
+	 * @return The dispatcher, or {@code null} if listeners are called on
+	 *         the input thread.
+	 * @see #setDispatcher(IrcDispatcher)
+	 */
+	public IrcDispatcher getDispatcher() {
+		return this.dispatcher;
+	}
+
+	/**
+	 * Returns the event bus of this connection, used to register
+	 * listeners for typed events.
+	 * 
+	 * @return The event bus.
+	 * @see IrcEventBus
+	 */
+	public IrcEventBus getEventBus() {
+		return this.eventBus;
+	}
+
+	/**
+	 * Returns the flood control used for queued messages.
+	 * 
+	 * @return The flood control, or {@code null} if the message delay
+	 *         is used.
+	 * @see #setFloodControl(IrcFloodControl)
+	 */
+	public IrcFloodControl getFloodControl() {
+		return this.floodControl;
+	}
+
 	/**
 	 * Returns the outgoing message delay in milliseconds.
 	 * 
@@ -570,12 +1043,31 @@ public class IrcConnection {
 	}
 
 	/**
-	 * Returns all {@link MessageListener}s registered with this IrcConnection.
+	 * Returns the {@link CommandListener}s registered with this
+	 * IrcConnection.
 	 * 
-	 * @return All {@code MessageListeners}.
+	 * @return The {@code CommandListeners}, by command.
+	 */
+	protected IrcCommandTable<CommandListener[]> getCommandListeners() {
+		return this.commandListeners;
+	}
+
+	/**
+	 * Returns the {@link MessageListener}s to notify of a message: all
+	 * message listeners, followed by those subscribed to the channel or
+	 * sender of the message.
+	 * 
+	 * @param channel
+	 *            The channel the message was sent to, or {@code null}
+	 *            for private messages.
+	 * @param line
+	 *            The message.
+	 * @return The {@code MessageListeners} to notify.
+	 * @see #subscribe(IrcSubscription, MessageListener)
 	 */
-	protected Iterator<MessageListener> getMessageListeners() {
-		return this.messageListeners.iterator();
+	protected MessageListener[] getMessageListeners(final Channel channel, final IrcPacket line) {
+		final IrcDispatcher dispatcher = this.dispatcher;
+		return this.subscriptions.get(this.messageListeners.get(dispatcher), channel == null ? null : channel.getName(), line.getPrefix(), dispatcher);
 	}
 
 	/**
@@ -583,8 +1075,8 @@ public class IrcConnection {
 	 * 
 	 * @return All {@code ModeListeners}.
 	 */
-	protected Iterator<ModeListener> getModeListeners() {
-		return this.modeListeners.iterator();
+	protected ModeListener[] getModeListeners() {
+		return this.modeListeners.get(this.dispatcher);
 	}
 
 	/**
@@ -597,6 +1089,50 @@ public class IrcConnection {
 		return this.out;
 	}
 
+	/**
+	 * Returns the weight of given priority in the message queue.
+	 * 
+	 * @param priority The priority.
+	 * @return The number of messages of this priority sent in every
+	 *         round of the message queue.
+	 * @see #setPriorityWeight(IrcPriority, int)
+	 */
+	public int getPriorityWeight(final IrcPriority priority) {
+		return this.priorityWeights[priority.ordinal()];
+	}
+
+	/**
+	 * Returns the weights of all priorities, by ordinal. The returned
+	 * array must not be modified.
+	 * 
+	 * @return The message queue weights.
+	 */
+	protected int[] getPriorityWeights() {
+		return this.priorityWeights;
+	}
+
+	/**
+	 * Returns the reactor used by this {@code IrcConnection}.
+	 * 
+	 * @return The reactor, or null if this connection uses its own
+	 *         threads.
+	 * @see #setReactor(IrcReactor)
+	 */
+	public IrcReactor getReactor() {
+		return this.reactor;
+	}
+
+	/**
+	 * Returns how this {@code IrcConnection} reconnects when the
+	 * connection is lost.
+	 * 
+	 * @return The reconnect policy, or null if sIRC doesn't reconnect.
+	 * @see #setReconnect(IrcReconnect)
+	 */
+	public IrcReconnect getReconnect() {
+		return this.reconnect;
+	}
+
 	/**
 	 * Returns the server this {@code IrcConnection} connects to.
 	 * 
@@ -606,6 +1142,17 @@ public class IrcConnection {
 		return this.server;
 	}
 
+	/**
+	 * Returns the ring buffer receiving every line handled by this
+	 * connection.
+	 * 
+	 * @return The ring buffer, or {@code null}.
+	 * @see #setRingBuffer(IrcRingBuffer)
+	 */
+	public IrcRingBuffer getRingBuffer() {
+		return this.ringBuffer;
+	}
+
 	/**
 	 * Gives the server address this {@code IrcConnection} is using to connect.
 	 * 
@@ -621,8 +1168,8 @@ public class IrcConnection {
 	 * 
 	 * @return All {@code ServerListeners}.
 	 */
-	protected Iterator<ServerListener> getServerListeners() {
-		return this.serverListeners.iterator();
+	protected ServerListener[] getServerListeners() {
+		return this.serverListeners.get(this.dispatcher);
 	}
 
 	/**
@@ -636,12 +1183,26 @@ public class IrcConnection {
 	}
 
 	/**
-	 * Returns all services running on this IrcConnection.
+	 * Returns a feature the server advertised using
+	 * {@code RPL_ISUPPORT} (005), like {@code CHANLIMIT} or
+	 * {@code TARGMAX}.
 	 * 
-	 * @return All running services.
+	 * @param token
+	 *            The feature name.
+	 * @return The value, an empty string if the feature has no value or
+	 *         null if the server did not advertise it.
 	 */
-	private Iterator<SIRCService> getServices() {
-		return this.services.iterator();
+	public String getSupport(final String token) {
+		return this.support.get(token);
+	}
+
+	/**
+	 * Returns the features advertised by the server.
+	 * 
+	 * @return The advertised features.
+	 */
+	protected IrcSupport getSupportTokens() {
+		return this.support;
 	}
 
 	/**
@@ -654,6 +1215,17 @@ public class IrcConnection {
 		return this.state;
 	}
 
+	/**
+	 * Returns the thread factory used for the input and output threads.
+	 * 
+	 * @return The thread factory, or {@code null} if sIRC creates its
+	 *         own threads.
+	 * @see #setThreadFactory(ThreadFactory)
+	 */
+	public ThreadFactory getThreadFactory() {
+		return this.threadFactory;
+	}
+
 	/**
 	 * Gives the version string used.
 	 * 
@@ -667,6 +1239,81 @@ public class IrcConnection {
 		return IrcConnection.ABOUT;
 	}
 
+	/**
+	 * Handles a {@code CAP} line received after registration, sending
+	 * new capability requests if needed.
+	 * 
+	 * @param line
+	 *            The line.
+	 */
+	protected void handleCapabilities(final IrcPacket line) {
+		for (final String reply : this.capabilities.handle(line)) {
+			if (this.registration == null) {
+				this.out.send(reply, IrcPriority.CONTROL);
+			} else {
+				// the queue is only sent after registration
+				this.out.sendNow(reply);
+			}
+		}
+	}
+
+	/**
+	 * Handles a numeric reply while registering after
+	 * {@link #connectAsync()}.
+	 * 
+	 * @param line
+	 *            The numeric reply.
+	 * @return True if the reply was part of the registration.
+	 */
+	protected boolean handleRegistration(final IrcPacket line) {
+		final IrcConnectFuture registration = this.registration;
+		if ((registration == null) || registration.isDone()) {
+			return false;
+		}
+		switch (line.getNumericCommand()) {
+			case 1:
+			case 2:
+			case 3:
+				final String nick = line.getArgumentsArray()[0];
+				if (!this.state.getClient().getNick().equals(nick)) {
+					this.setNick(nick);
+				}
+				return true;
+			case 4:
+				// login OK
+				this.registration = null;
+				this.setConnected(true);
+				this.out.setSession(this.in.getSession());
+				this.in.getSession().scheduleOutput();
+				for (final ServerListener listener : this.getServerListeners()) {
+					listener.onConnect(this);
+				}
+				registration.complete();
+				return true;
+			case 432:
+			case 433:
+				this.failRegistration(new NickNameException("Nickname " + this.state.getClient().getNick() + " already in use or not allowed!"));
+				return true;
+			case 464:
+				this.failRegistration(new PasswordException("Invalid password"));
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Checks whether the server enabled an IRCv3 capability.
+	 * 
+	 * @param capability
+	 *            The capability name.
+	 * @return True if the capability is enabled.
+	 * @see #addCapability(String)
+	 */
+	public boolean hasCapability(final String capability) {
+		return this.capabilities.isEnabled(capability);
+	}
+
 	/**
 	 * Returns whether this connection is allowed to be redirected.
 	 * 
@@ -685,6 +1332,17 @@ public class IrcConnection {
 		return this.connected;
 	}
 
+	/**
+	 * Checks whether given thread is still supposed to reconnect.
+	 * 
+	 * @param thread
+	 *            The reconnecting thread.
+	 * @return True if the thread should go on.
+	 */
+	protected synchronized boolean isReconnecting(final Thread thread) {
+		return this.reconnecting == thread;
+	}
+
 	/**
 	 * Checks if given {@link User} object represents us.
 	 * 
@@ -705,16 +1363,233 @@ public class IrcConnection {
 		return this.server.isSecure();
 	}
 
+	/**
+	 * Joins several channels, using as few JOIN commands as possible.
+	 * Channels are packed into commands up to the maximum line length
+	 * and the number of targets the server allows.
+	 * 
+	 * @param channels
+	 *            The channels to join.
+	 * @return The channels that were not joined because the server's
+	 *         channel limit would be exceeded.
+	 * @see #joinAll(Map)
+	 * @see #partAll(Collection)
+	 */
+	public List<Channel> joinAll(final Collection<Channel> channels) {
+		final Map<Channel, String> keys = new LinkedHashMap<Channel, String>();
+		for (final Channel channel : channels) {
+			keys.put(channel, null);
+		}
+		return this.joinAll(keys);
+	}
+
+	/**
+	 * Joins several channels using given keys, using as few JOIN
+	 * commands as possible. Channels are packed into commands up to the
+	 * maximum line length and the number of targets the server allows.
+	 * 
+	 * @param channels
+	 *            The channels to join, mapped to their key or
+	 *            {@code null}.
+	 * @return The channels that were not joined because the server's
+	 *         channel limit would be exceeded.
+	 * @see #joinAll(Collection)
+	 */
+	public List<Channel> joinAll(final Map<Channel, String> channels) {
+		// number of channels that can still be joined per limit
+		final Map<String, Integer> left = this.support.getChannelLimits();
+		if (!left.isEmpty()) {
+			// the input thread may join or leave channels meanwhile
+			final List<String> current = new ArrayList<String>();
+			for (final Iterator<Channel> it = this.state.getChannels(); it.hasNext();) {
+				current.add(it.next().getName());
+			}
+			for (final Map.Entry<String, Integer> limit : left.entrySet()) {
+				int joined = 0;
+				for (final String name : current) {
+					if (limit.getKey().indexOf(name.charAt(0)) >= 0) {
+						joined++;
+					}
+				}
+				limit.setValue(limit.getValue() - joined);
+			}
+		}
+		final Map<String, String> join = new LinkedHashMap<String, String>();
+		final List<Channel> skipped = new ArrayList<Channel>();
+		channels: for (final Map.Entry<Channel, String> channel : channels.entrySet()) {
+			final String name = channel.getKey().getName();
+			if (!this.state.hasChannel(name)) {
+				for (final Map.Entry<String, Integer> limit : left.entrySet()) {
+					if (limit.getKey().indexOf(name.charAt(0)) < 0) {
+						continue;
+					}
+					if (limit.getValue() <= 0) {
+						skipped.add(channel.getKey());
+						continue channels;
+					}
+					limit.setValue(limit.getValue() - 1);
+				}
+			}
+			this.state.setChannelKey(name, channel.getValue());
+			join.put(name, channel.getValue());
+		}
+		for (final IrcPacket packet : IrcPacketFactory.createJOIN(join, this.support.getTargetLimit("JOIN", Integer.MAX_VALUE))) {
+			this.out.send(packet);
+		}
+		return skipped;
+	}
+
+	/**
+	 * Creates a thread for this connection, using the thread factory if
+	 * one was set.
+	 * 
+	 * @param task The task to run.
+	 * @param name The thread name.
+	 * @param priority The priority, if sIRC creates the thread.
+	 * @param daemon Whether the thread is a daemon, if sIRC creates the
+	 *            thread.
+	 * @return The new thread, not started yet.
+	 */
+	protected Thread newThread(final Runnable task, final String name, final int priority, final boolean daemon) {
+		final ThreadFactory factory = this.threadFactory;
+		if (factory == null) {
+			final Thread thread = new Thread(task, name);
+			thread.setPriority(priority);
+			thread.setDaemon(daemon);
+			return thread;
+		}
+		final Thread thread = factory.newThread(task);
+		try {
+			thread.setName(name);
+		} catch (final SecurityException ex) {
+			// keep the name given by the factory
+		}
+		return thread;
+	}
+
+	/**
+	 * Leaves several channels, using as few PART commands as possible.
+	 * 
+	 * @param channels
+	 *            The channels to leave.
+	 * @see #joinAll(Collection)
+	 */
+	public void partAll(final Collection<Channel> channels) {
+		final List<String> names = new ArrayList<String>(channels.size());
+		for (final Channel channel : channels) {
+			names.add(channel.getName());
+		}
+		for (final IrcPacket packet : IrcPacketFactory.createPART(names, this.support.getTargetLimit("PART", Integer.MAX_VALUE))) {
+			this.out.send(packet);
+		}
+	}
+
+	/**
+	 * Starts reconnecting after the connection was lost, unless we
+	 * asked the server to close it, a listener connected again already
+	 * or no {@link IrcReconnect} is set.
+	 * 
+	 * @param channels
+	 *            The channels to rejoin, mapped to their key or
+	 *            {@code null}.
+	 */
+	protected void reconnect(final Map<String, String> channels) {
+		final IrcReconnect reconnect = this.reconnect;
+		if ((reconnect == null) || this.quitting || this.isConnected()) {
+			return;
+		}
+		final Thread thread = this.newThread(new IrcReconnector(this, reconnect, channels), "sIRC-RECONNECT:" + this.getServerAddress(), Thread.NORM_PRIORITY, true);
+		synchronized (this) {
+			this.stopReconnecting();
+			this.reconnecting = thread;
+		}
+		thread.start();
+	}
+
+	/**
+	 * Joins channels again after reconnecting.
+	 * 
+	 * @param thread
+	 *            The reconnecting thread.
+	 * @param channels
+	 *            The channels to join, mapped to their key or
+	 *            {@code null}.
+	 */
+	protected synchronized void rejoin(final Thread thread, final Map<String, String> channels) {
+		if (this.reconnecting != thread) {
+			return;
+		}
+		this.reconnecting = null;
+		final Map<Channel, String> keys = new LinkedHashMap<Channel, String>();
+		for (final Map.Entry<String, String> channel : channels.entrySet()) {
+			keys.put(this.createChannel(channel.getKey()), channel.getValue());
+		}
+		this.joinAll(keys);
+	}
+
 	/**
 	 * Calls {@link #removeService(SIRCService)} for all registered services.
 	 * 
 	 * @see #removeService(SIRCService)
 	 */
 	public void removeAllServices() {
-		if (this.services.size() > 0) {
-			for (final Iterator<SIRCService> it = this.getServices(); it
-					.hasNext();) {
-				this.removeService(it.next());
+		for (final SIRCService service : this.services.get()) {
+			this.removeService(service);
+		}
+	}
+
+	/**
+	 * Stops requesting an IRCv3 capability when connecting. This does
+	 * not disable a capability that is already enabled.
+	 * 
+	 * @param capability
+	 *            The capability name.
+	 */
+	public void removeCapability(final String capability) {
+		if (capability != null) {
+			this.capabilities.remove(capability);
+		}
+	}
+
+	/**
+	 * Removes a command listener from this IrcConnection.
+	 * 
+	 * @param command
+	 *            The command the listener was added for.
+	 * @param listener
+	 *            The command listener to remove.
+	 */
+	public void removeCommandListener(final String command, final CommandListener listener) {
+		if ((command != null) && (listener != null)) {
+			synchronized (this.commandListeners) {
+				final String key = command.toUpperCase();
+				final CommandListener[] current = this.commandListeners.get(key);
+				final CommandListener[] removed = IrcConnection.remove(current, listener);
+				this.commandListeners.put(key, removed);
+				if (removed != current) {
+					this.forget(listener);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a command listener from this IrcConnection.
+	 * 
+	 * @param numeric
+	 *            The numeric reply the listener was added for.
+	 * @param listener
+	 *            The command listener to remove.
+	 */
+	public void removeCommandListener(final int numeric, final CommandListener listener) {
+		if (listener != null) {
+			synchronized (this.commandListeners) {
+				final CommandListener[] current = this.commandListeners.get(numeric);
+				final CommandListener[] removed = IrcConnection.remove(current, listener);
+				this.commandListeners.put(numeric, removed);
+				if (removed != current) {
+					this.forget(listener);
+				}
 			}
 		}
 	}
@@ -726,8 +1601,8 @@ public class IrcConnection {
 	 *            The message listener to remove.
 	 */
 	public void removeMessageListener(final MessageListener listener) {
-		if ((listener != null) && this.messageListeners.contains(listener)) {
-			this.messageListeners.remove(listener);
+		if (this.messageListeners.remove(listener)) {
+			this.forget(listener);
 		}
 	}
 
@@ -738,8 +1613,8 @@ public class IrcConnection {
 	 *            The mode listener to remove.
 	 */
 	public void removeModeListener(final ModeListener listener) {
-		if ((listener != null) && this.modeListeners.contains(listener)) {
-			this.modeListeners.remove(listener);
+		if (this.modeListeners.remove(listener)) {
+			this.forget(listener);
 		}
 	}
 
@@ -750,8 +1625,8 @@ public class IrcConnection {
 	 *            The server listener to remove.
 	 */
 	public void removeServerListener(final ServerListener listener) {
-		if ((listener != null) && this.serverListeners.contains(listener)) {
-			this.serverListeners.remove(listener);
+		if (this.serverListeners.remove(listener)) {
+			this.forget(listener);
 		}
 	}
 
@@ -764,9 +1639,8 @@ public class IrcConnection {
 	 *            The service to remove.
 	 */
 	public void removeService(final SIRCService service) {
-		if ((service != null) && !this.services.contains(service)) {
+		if (this.services.remove(service)) {
 			service.unload(this);
-			this.services.remove(service);
 		}
 	}
 
@@ -777,7 +1651,11 @@ public class IrcConnection {
 	 *            The advanced listener to use, or {@code null}.
 	 */
 	public void setAdvancedListener(final AdvancedListener listener) {
+		final AdvancedListener previous = this.advancedListener;
 		this.advancedListener = listener;
+		if ((previous != null) && (previous != listener)) {
+			this.forget(previous);
+		}
 	}
 
 	/**
@@ -827,10 +1705,42 @@ public class IrcConnection {
 		this.connected = connected;
 	}
 
+	/**
+	 * Sets the dispatcher used to call listeners. By default, listeners
+	 * are called on the input thread, and a slow listener delays
+	 * reading from the server. With a dispatcher, listeners are called
+	 * on its executor instead.
+	 * 
+	 * @param dispatcher
+	 *            The dispatcher, or {@code null} to call listeners on the
+	 *            input thread.
+	 * @see IrcDispatcher
+	 */
+	public void setDispatcher(final IrcDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Sets the flood control used for queued messages. This replaces
+	 * the fixed message delay, allowing bursts of messages while
+	 * staying within the limits of the server.
+	 * 
+	 * @param floodControl
+	 *            The flood control to use, or {@code null} to use the
+	 *            message delay.
+	 * @see IrcFloodControl
+	 * @see #setMessageDelay(int)
+	 */
+	public void setFloodControl(final IrcFloodControl floodControl) {
+		this.floodControl = floodControl;
+	}
+
 	/**
 	 * Sets the outgoing message delay in milliseconds. Note that sending a lot
 	 * of messages in a short period of time might cause the server to
-	 * disconnect you. The default is 1 message each 100ms.
+	 * disconnect you. The default is 1 message each 100ms. A delay of 0
+	 * disables the message queue. Only used if no
+	 * {@link IrcFloodControl} is set.
 	 * 
 	 * @param messageDelay
 	 *            The outgoing message delay in milliseconds.
@@ -888,6 +1798,76 @@ public class IrcConnection {
 		this.setAway(null);
 	}
 
+	/**
+	 * Sets the weight of given priority in the message queue. Every
+	 * round, the queue sends up to this many messages of given
+	 * priority, higher priorities first. The defaults are 8 control,
+	 * 4 moderation, 2 interactive and 1 bulk message per round.
+	 * 
+	 * @param priority The priority.
+	 * @param weight The number of messages of this priority to send in
+	 *            every round, at least 1.
+	 * @see IrcPriority
+	 */
+	public synchronized void setPriorityWeight(final IrcPriority priority, final int weight) {
+		if (weight < 1) {
+			throw new IllegalArgumentException("Priority weight must be at least 1!");
+		}
+		final int[] weights = this.priorityWeights.clone();
+		weights[priority.ordinal()] = weight;
+		this.priorityWeights = weights;
+	}
+
+	/**
+	 * Sets the ring buffer receiving every line handled by this
+	 * connection. Its listener groups are called on their own threads,
+	 * after the regular listeners were called.
+	 * 
+	 * @param ringBuffer
+	 *            The ring buffer, which must be created for this
+	 *            connection, or {@code null}.
+	 * @see IrcRingBuffer
+	 */
+	public void setRingBuffer(final IrcRingBuffer ringBuffer) {
+		if ((ringBuffer != null) && !ringBuffer.isFor(this)) {
+			throw new IllegalArgumentException("Ring buffer belongs to another connection!");
+		}
+		this.ringBuffer = ringBuffer;
+	}
+
+	/**
+	 * Sets the reactor to use for this connection. Instead of starting
+	 * an input and output thread, the connection will be handled by
+	 * one of the reactor's event loops. This property can only be
+	 * changed while sIRC is not connected to an IRC server, and has no
+	 * effect on SSL connections.
+	 * 
+	 * @param reactor
+	 *            The reactor to use, or {@code null} to use threads.
+	 * @see IrcReactor
+	 */
+	public void setReactor(final IrcReactor reactor) {
+		if (!this.isConnected()) {
+			this.reactor = reactor;
+		}
+	}
+
+	/**
+	 * Sets how to reconnect when the connection to the server is lost.
+	 * Calling {@link #disconnect()} never causes a reconnect.
+	 * 
+	 * @param reconnect
+	 *            The reconnect policy, or {@code null} to stay
+	 *            disconnected. This also stops a reconnect in progress.
+	 * @see IrcReconnect
+	 */
+	public void setReconnect(final IrcReconnect reconnect) {
+		this.reconnect = reconnect;
+		if (reconnect == null) {
+			this.stopReconnecting();
+		}
+	}
+
 	/**
 	 * Sets the server details to use while connecting.
 	 * 
@@ -939,6 +1919,30 @@ public class IrcConnection {
 		}
 	}
 
+	/**
+	 * Sets the thread factory used to create the input and output
+	 * threads. Listeners are called on the input thread. By default,
+	 * sIRC creates its own platform threads. This property can only be
+	 * changed while sIRC is not connected to an IRC server, and is not
+	 * used by connections using a reactor.
+	 * 
+	 * <pre>
+	 * if (IrcThreads.isVirtualSupported()) {
+	 * 	irc.setThreadFactory(IrcThreads.virtual());
+	 * }
+	 * </pre>
+	 * 
+	 * @param threadFactory
+	 *            The thread factory, or {@code null} to use the default
+	 *            threads.
+	 * @see IrcThreads
+	 */
+	public void setThreadFactory(final ThreadFactory threadFactory) {
+		if (!this.isConnected()) {
+			this.threadFactory = threadFactory;
+		}
+	}
+
 	/**
 	 * Sets whether this connection should use SSL to connect. Note that the
 	 * connection will fail if the server has no valid certificate. This
@@ -955,6 +1959,102 @@ public class IrcConnection {
 		}
 	}
 
+	/**
+	 * Stops reconnecting, if sIRC is.
+	 */
+	private synchronized void stopReconnecting() {
+		final Thread thread = this.reconnecting;
+		this.reconnecting = null;
+		if ((thread != null) && (thread != Thread.currentThread())) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Adds a command listener which is only notified of lines matching
+	 * given subscription. The subscription must have a command or
+	 * numeric reply, and may be limited to a channel (the first
+	 * parameter of the line) or sender.
+	 * 
+	 * @param subscription
+	 *            The subscription.
+	 * @param listener
+	 *            The command listener to add.
+	 * @throws IllegalArgumentException
+	 *             If the subscription has no command or numeric reply.
+	 * @see #unsubscribe(IrcSubscription, CommandListener)
+	 */
+	public void subscribe(final IrcSubscription subscription, final CommandListener listener) {
+		if ((subscription != null) && (listener != null)) {
+			if (!subscription.isCommand()) {
+				throw new IllegalArgumentException("Command listeners need a command or numeric reply to subscribe to!");
+			}
+			final CommandListener filter = new IrcSubscriptions.Filter(subscription, listener);
+			if (subscription.getCommand() != null) {
+				this.addCommandListener(subscription.getCommand(), filter);
+			} else {
+				this.addCommandListener(subscription.getNumeric(), filter);
+			}
+		}
+	}
+
+	/**
+	 * Adds a message listener which is only notified of messages
+	 * matching given subscription. Subscriptions for a channel receive
+	 * messages and notices sent to that channel, subscriptions for a
+	 * sender receive everything that sender sends, including private
+	 * messages.
+	 * 
+	 * @param subscription
+	 *            The subscription.
+	 * @param listener
+	 *            The message listener to add.
+	 * @throws IllegalArgumentException
+	 *             If the subscription has a command or numeric reply.
+	 * @see #unsubscribe(IrcSubscription, MessageListener)
+	 */
+	public void subscribe(final IrcSubscription subscription, final MessageListener listener) {
+		if ((subscription != null) && (listener != null)) {
+			if (subscription.isCommand()) {
+				throw new IllegalArgumentException("Message listeners can't subscribe to a command!");
+			}
+			this.subscriptions.add(subscription, listener);
+		}
+	}
+
+	/**
+	 * Removes a command listener added with given subscription.
+	 * 
+	 * @param subscription
+	 *            The subscription the listener was added with.
+	 * @param listener
+	 *            The command listener to remove.
+	 */
+	public void unsubscribe(final IrcSubscription subscription, final CommandListener listener) {
+		if ((subscription != null) && (listener != null) && subscription.isCommand()) {
+			final CommandListener filter = new IrcSubscriptions.Filter(subscription, listener);
+			if (subscription.getCommand() != null) {
+				this.removeCommandListener(subscription.getCommand(), filter);
+			} else {
+				this.removeCommandListener(subscription.getNumeric(), filter);
+			}
+		}
+	}
+
+	/**
+	 * Removes a message listener added with given subscription.
+	 * 
+	 * @param subscription
+	 *            The subscription the listener was added with.
+	 * @param listener
+	 *            The message listener to remove.
+	 */
+	public void unsubscribe(final IrcSubscription subscription, final MessageListener listener) {
+		if ((subscription != null) && (listener != null) && this.subscriptions.remove(subscription, listener)) {
+			this.forget(listener);
+		}
+	}
+
 	/**
 	 * Set the string returned on CTCP VERSION and FINGER commands.
 	 * 
@@ -0,0 +1,343 @@
+/*
+ * IrcDispatcher.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls listeners on an {@link Executor} instead of the input thread.
+ * <p>
+ * By default, sIRC calls all listeners on the thread reading from the
+ * server, so a slow listener delays everything that follows it. With
+ * an {@code IrcDispatcher}, the input thread keeps parsing lines and
+ * updating channels and users, while listener calls are handed to the
+ * executor. PING is always answered by the input thread.
+ * </p>
+ * <p>
+ * Events about the same channel are delivered one at a time and in
+ * order. Other events, like private messages, nick changes and quits,
+ * share a single lane and are delivered in order as well. Events in
+ * different lanes may be delivered concurrently. Every lane holds at
+ * most {@code capacity} pending events; the {@link Overflow} policy
+ * decides what happens when a lane is full.
+ * </p>
+ * 
+ * <pre>
+ * ExecutorService pool = Executors.newFixedThreadPool(4);
+ * irc.setDispatcher(new IrcDispatcher(pool, 1000, IrcDispatcher.Overflow.DROP_OLDEST));
+ * </pre>
+ * <p>
+ * Packets given to {@link CommandListener}s and the
+ * {@link AdvancedListener} are copied, so they can be kept.
+ * </p>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#setDispatcher(IrcDispatcher)
+ */
+public final class IrcDispatcher {
+	
+	/**
+	 * What to do with new events when a lane is full.
+	 */
+	public enum Overflow {
+		/**
+		 * Wait until there is room. This stops reading from the server,
+		 * which may still cause a ping timeout if listeners can't keep
+		 * up.
+		 */
+		BLOCK,
+		/** Drop the oldest pending event of the lane. */
+		DROP_OLDEST,
+		/** Drop the new event. */
+		DROP_NEWEST
+	}
+	
+	/** Maximum number of events delivered before giving up the thread. */
+	private static final int BATCH_SIZE = 64;
+	/** Listener types that can be dispatched. */
+	private static final Class<?>[] LISTENERS = { MessageListener.class, ModeListener.class, ServerListener.class, CommandListener.class,
+			AdvancedListener.class, IrcEventListener.class };
+	/** Lane for events not about a channel. */
+	private static final String SERVER = "";
+	/** The executor calling the listeners. */
+	private final Executor executor;
+	/** Maximum number of pending events per lane. */
+	private final int capacity;
+	/** The overflow policy. */
+	private final Overflow overflow;
+	/** Lanes with pending events, by channel. Guarded by {@code this}. */
+	private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+	/** Dispatching proxies, by listener. */
+	private final Map<Object, Object> proxies = new ConcurrentHashMap<Object, Object>();
+	/** Number of events dropped. */
+	private final AtomicLong dropped = new AtomicLong(0);
+	
+	/**
+	 * Creates a new dispatcher, allowing 1000 pending events per lane
+	 * and blocking when a lane is full.
+	 * 
+	 * @param executor The executor calling the listeners.
+	 */
+	public IrcDispatcher(final Executor executor) {
+		this(executor, 1000, Overflow.BLOCK);
+	}
+	
+	/**
+	 * Creates a new dispatcher.
+	 * 
+	 * @param executor The executor calling the listeners.
+	 * @param capacity Maximum number of pending events per lane.
+	 * @param overflow What to do when a lane is full.
+	 */
+	public IrcDispatcher(final Executor executor, final int capacity, final Overflow overflow) {
+		if ((executor == null) || (overflow == null)) {
+			throw new IllegalArgumentException("Executor and overflow policy are required!");
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1!");
+		}
+		this.executor = executor;
+		this.capacity = capacity;
+		this.overflow = overflow;
+	}
+	
+	/**
+	 * Queues an event in given lane.
+	 * 
+	 * @param key The lane.
+	 * @param task The listener call.
+	 */
+	private synchronized void dispatch(final String key, final Runnable task) {
+		Lane lane = this.lanes.get(key);
+		if (lane == null) {
+			lane = new Lane(key);
+			this.lanes.put(key, lane);
+		}
+		while (lane.tasks.size() >= this.capacity) {
+			if (this.overflow == Overflow.DROP_NEWEST) {
+				this.dropped.incrementAndGet();
+				return;
+			} else if (this.overflow == Overflow.DROP_OLDEST) {
+				lane.tasks.pollFirst();
+				this.dropped.incrementAndGet();
+			} else {
+				try {
+					this.wait();
+				} catch (final InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					this.dropped.incrementAndGet();
+					return;
+				}
+			}
+		}
+		lane.tasks.addLast(task);
+		if (!lane.scheduled) {
+			lane.scheduled = true;
+			this.execute(lane);
+		}
+	}
+	
+	/**
+	 * Hands a lane to the executor. If the executor rejects it, the
+	 * pending events of the lane are dropped.
+	 * 
+	 * @param lane The lane.
+	 */
+	private void execute(final Lane lane) {
+		try {
+			this.executor.execute(lane);
+		} catch (final RejectedExecutionException ex) {
+			synchronized (this) {
+				this.dropped.addAndGet(lane.tasks.size());
+				lane.tasks.clear();
+				lane.scheduled = false;
+				this.lanes.remove(lane.key);
+				this.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Forgets the proxy of a removed listener.
+	 * 
+	 * @param listener The listener.
+	 */
+	protected void forget(final Object listener) {
+		if (listener != null) {
+			this.proxies.remove(listener);
+		}
+	}
+	
+	/**
+	 * Returns the number of events dropped because a lane was full.
+	 * 
+	 * @return The number of dropped events.
+	 */
+	public long getDropped() {
+		return this.dropped.get();
+	}
+	
+	/**
+	 * Takes the next event of a lane, removing the lane when it is
+	 * empty.
+	 * 
+	 * @param lane The lane.
+	 * @return The next event, or null if the lane is empty.
+	 */
+	private synchronized Runnable next(final Lane lane) {
+		final Runnable task = lane.tasks.pollFirst();
+		if (task == null) {
+			lane.scheduled = false;
+			this.lanes.remove(lane.key);
+		} else if (this.overflow == Overflow.BLOCK) {
+			this.notifyAll();
+		}
+		return task;
+	}
+	
+	/**
+	 * Returns a proxy of given listener, which calls the listener on
+	 * the executor.
+	 * 
+	 * @param <T> The listener type.
+	 * @param listener The listener.
+	 * @param type The listener interface.
+	 * @return The proxy.
+	 */
+	protected <T> T wrap(final T listener, final Class<T> type) {
+		Object proxy = this.proxies.get(listener);
+		if (proxy == null) {
+			// one proxy for all listener types, like IrcAdaptor
+			final List<Class<?>> types = new ArrayList<Class<?>>(IrcDispatcher.LISTENERS.length);
+			for (final Class<?> listenerType : IrcDispatcher.LISTENERS) {
+				if (listenerType.isInstance(listener)) {
+					types.add(listenerType);
+				}
+			}
+			proxy = Proxy.newProxyInstance(type.getClassLoader(), types.toArray(new Class<?>[types.size()]), new Handler(listener));
+			this.proxies.put(listener, proxy);
+		}
+		return type.cast(proxy);
+	}
+	
+	/**
+	 * Hands listener calls to the dispatcher.
+	 */
+	private final class Handler implements InvocationHandler {
+		
+		/** The listener. */
+		private final Object listener;
+		
+		/**
+		 * Creates a new handler.
+		 * 
+		 * @param listener The listener.
+		 */
+		private Handler(final Object listener) {
+			this.listener = listener;
+		}
+		
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				return method.invoke(this.listener, args);
+			}
+			String key = IrcDispatcher.SERVER;
+			for (int i = 0; (args != null) && (i < args.length); i++) {
+				if (args[i] instanceof IrcPacket) {
+					// packets are reused by the input thread
+					args[i] = ((IrcPacket) args[i]).copy();
+				} else if ((args[i] instanceof Channel) && (key == IrcDispatcher.SERVER)) {
+					key = ((Channel) args[i]).getName().toLowerCase();
+				}
+			}
+			IrcDispatcher.this.dispatch(key, new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						method.invoke(Handler.this.listener, args);
+					} catch (final InvocationTargetException ex) {
+						IrcDebug.log("Exception " + ex.getCause() + " in " + method.getName());
+						ex.getCause().printStackTrace();
+					} catch (final IllegalAccessException ex) {
+						IrcDebug.log("Exception " + ex + " in " + method.getName());
+					}
+				}
+			});
+			return null;
+		}
+	}
+	
+	/**
+	 * Pending events of one channel, delivered one at a time.
+	 */
+	private final class Lane implements Runnable {
+		
+		/** The channel, or an empty string. */
+		private final String key;
+		/** Pending events. */
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+		/** Whether this lane was handed to the executor. */
+		private boolean scheduled = false;
+		
+		/**
+		 * Creates a new lane.
+		 * 
+		 * @param key The channel, or an empty string.
+		 */
+		private Lane(final String key) {
+			this.key = key;
+		}
+		
+		@Override
+		public void run() {
+			for (int i = 0; i < IrcDispatcher.BATCH_SIZE; i++) {
+				final Runnable task = IrcDispatcher.this.next(this);
+				if (task == null) {
+					return;
+				}
+				task.run();
+			}
+			// give other lanes a turn
+			IrcDispatcher.this.execute(this);
+		}
+	}
+}
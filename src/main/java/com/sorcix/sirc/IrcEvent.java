@@ -0,0 +1,137 @@
+/*
+ * IrcEvent.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+/**
+ * An incoming line, passed to {@link IrcEventListener}s registered
+ * with the {@link IrcEventBus}.
+ * <p>
+ * Lines with a known command use a subclass, like
+ * {@link IrcJoinEvent} or {@link IrcNumericEvent}. Listeners
+ * registered for {@code IrcEvent} itself receive every line. The
+ * parameters are split once when the event is created, so listeners
+ * don't have to split the line themselves.
+ * </p>
+ * 
+ * @author Sorcix
+ * @see IrcEventBus
+ */
+public class IrcEvent {
+	
+	/** The IrcConnection receiving this event. */
+	private final IrcConnection irc;
+	/** The line, owned by this event. */
+	private final IrcPacket line;
+	/** The parameters of the line. */
+	private final String[] parameters;
+	
+	/**
+	 * Creates a new event.
+	 * 
+	 * @param irc The IrcConnection receiving this event.
+	 * @param line The line, which must not be reused.
+	 */
+	protected IrcEvent(final IrcConnection irc, final IrcPacket line) {
+		this.irc = irc;
+		this.line = line;
+		this.parameters = line.getParameters();
+	}
+	
+	/**
+	 * Returns the command of this event, like {@code JOIN} or
+	 * {@code 311}.
+	 * 
+	 * @return The command.
+	 */
+	public final String getCommand() {
+		return this.line.getCommand();
+	}
+	
+	/**
+	 * Returns the IrcConnection receiving this event.
+	 * 
+	 * @return The IrcConnection.
+	 */
+	public final IrcConnection getConnection() {
+		return this.irc;
+	}
+	
+	/**
+	 * Returns the line causing this event.
+	 * 
+	 * @return The line.
+	 */
+	public final IrcPacket getLine() {
+		return this.line;
+	}
+	
+	/**
+	 * Returns a parameter of this event.
+	 * 
+	 * @param index The index of the parameter, starting at 0.
+	 * @return The parameter, or {@code null} if there are not that many
+	 *         parameters.
+	 */
+	public final String getParameter(final int index) {
+		return (index >= 0) && (index < this.parameters.length) ? this.parameters[index] : null;
+	}
+	
+	/**
+	 * Returns the number of parameters of this event.
+	 * 
+	 * @return The number of parameters.
+	 */
+	public final int getParameterCount() {
+		return this.parameters.length;
+	}
+	
+	/**
+	 * Returns the parameters of this event: the arguments, followed by
+	 * the message. The array must not be modified.
+	 * 
+	 * @return The parameters.
+	 * @see IrcPacket#getParameters()
+	 */
+	public final String[] getParameters() {
+		return this.parameters;
+	}
+	
+	/**
+	 * Returns the user or server that sent this event.
+	 * 
+	 * @return The sender, or {@code null} if there is none.
+	 */
+	public final User getSender() {
+		return this.line.getSender();
+	}
+	
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "[" + this.line.getRaw() + "]";
+	}
+}
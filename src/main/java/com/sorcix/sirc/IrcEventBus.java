@@ -0,0 +1,229 @@
+/*
+ * IrcEventBus.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Passes incoming lines to listeners as typed events.
+ * <p>
+ * Unlike the single {@link AdvancedListener}, any number of
+ * {@link IrcEventListener}s can be registered, for any event type.
+ * Every incoming line (except {@code PING}) becomes an event:
+ * numeric replies are {@link IrcNumericEvent}s, some commands have
+ * their own type like {@link IrcJoinEvent}, and all other lines are
+ * plain {@link IrcEvent}s. A listener registered for a type also
+ * receives events of its subclasses, so listeners for {@code IrcEvent}
+ * receive every line.
+ * </p>
+ * 
+ * <pre>
+ * irc.getEventBus().addListener(IrcNumericEvent.class, new IrcEventListener&lt;IrcNumericEvent&gt;() {
+ * 
+ * 	public void onEvent(IrcNumericEvent event) {
+ * 		if (event.getCode() == 311) {
+ * 			// WHOIS reply: me nick user host * :realname
+ * 			String host = event.getParameter(3);
+ * 		}
+ * 	}
+ * });
+ * </pre>
+ * <p>
+ * Events are only created if there is a listener for them. The
+ * listeners are called after sIRC handled the line, on the input
+ * thread or through the {@link IrcDispatcher} of the connection.
+ * </p>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#getEventBus()
+ */
+public final class IrcEventBus {
+	
+	/** The IrcConnection posting events. */
+	private final IrcConnection irc;
+	/** Listeners by event type, never modified. */
+	private volatile Map<Class<?>, IrcEventListener<?>[]> listeners = Collections.emptyMap();
+	
+	/**
+	 * Creates an event bus without listeners.
+	 * 
+	 * @param irc The IrcConnection posting events.
+	 */
+	protected IrcEventBus(final IrcConnection irc) {
+		this.irc = irc;
+	}
+	
+	/**
+	 * Registers a listener for an event type and its subclasses.
+	 * Registering a listener twice for the same type has no effect.
+	 * 
+	 * @param <E> The event type.
+	 * @param type The event type.
+	 * @param listener The listener.
+	 */
+	public synchronized <E extends IrcEvent> void addListener(final Class<E> type, final IrcEventListener<? super E> listener) {
+		if ((type == null) || (listener == null)) {
+			return;
+		}
+		final IrcEventListener<?>[] current = this.listeners.get(type);
+		if (current == null) {
+			this.replace(type, new IrcEventListener<?>[] { listener });
+			return;
+		}
+		for (final IrcEventListener<?> registered : current) {
+			if (registered.equals(listener)) {
+				return;
+			}
+		}
+		final IrcEventListener<?>[] added = new IrcEventListener<?>[current.length + 1];
+		System.arraycopy(current, 0, added, 0, current.length);
+		added[current.length] = listener;
+		this.replace(type, added);
+	}
+	
+	/**
+	 * Creates an event.
+	 * 
+	 * @param type The event type, as returned by
+	 *            {@link #getType(IrcPacket)}.
+	 * @param irc The IrcConnection receiving the event.
+	 * @param line A copy of the line.
+	 * @return The event.
+	 */
+	private static IrcEvent create(final Class<? extends IrcEvent> type, final IrcConnection irc, final IrcPacket line) {
+		if (type == IrcNumericEvent.class) {
+			return new IrcNumericEvent(irc, line);
+		} else if (type == IrcJoinEvent.class) {
+			return new IrcJoinEvent(irc, line);
+		} else if (type == IrcPartEvent.class) {
+			return new IrcPartEvent(irc, line);
+		} else if (type == IrcKickEvent.class) {
+			return new IrcKickEvent(irc, line);
+		}
+		return new IrcEvent(irc, line);
+	}
+	
+	/**
+	 * Returns the event type for a line.
+	 * 
+	 * @param line The line.
+	 * @return The event type.
+	 */
+	private static Class<? extends IrcEvent> getType(final IrcPacket line) {
+		if (line.isNumeric()) {
+			return IrcNumericEvent.class;
+		} else if (line.isCommand("JOIN")) {
+			return IrcJoinEvent.class;
+		} else if (line.isCommand("PART")) {
+			return IrcPartEvent.class;
+		} else if (line.isCommand("KICK")) {
+			return IrcKickEvent.class;
+		}
+		return IrcEvent.class;
+	}
+	
+	/**
+	 * Checks whether any listeners are registered.
+	 * 
+	 * @return True if there are no listeners.
+	 */
+	public boolean isEmpty() {
+		return this.listeners.isEmpty();
+	}
+	
+	/**
+	 * Passes a line to the listeners of its event type and the
+	 * supertypes of that type.
+	 * 
+	 * @param irc The IrcConnection receiving the line.
+	 * @param line The line, which may be reused afterwards.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected void post(final IrcConnection irc, final IrcPacket line) {
+		final Map<Class<?>, IrcEventListener<?>[]> listeners = this.listeners;
+		if (listeners.isEmpty()) {
+			return;
+		}
+		final Class<? extends IrcEvent> type = IrcEventBus.getType(line);
+		IrcEvent event = null;
+		for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+			final IrcEventListener<?>[] registered = listeners.get(current);
+			if (registered == null) {
+				continue;
+			}
+			if (event == null) {
+				event = IrcEventBus.create(type, irc, line.copy());
+			}
+			for (final IrcEventListener listener : registered) {
+				irc.dispatch(listener, IrcEventListener.class).onEvent(event);
+			}
+		}
+	}
+	
+	/**
+	 * Removes a listener registered for an event type.
+	 * 
+	 * @param type The event type the listener was registered for.
+	 * @param listener The listener.
+	 */
+	public synchronized void removeListener(final Class<? extends IrcEvent> type, final IrcEventListener<?> listener) {
+		final IrcEventListener<?>[] current = this.listeners.get(type);
+		if ((current == null) || (listener == null)) {
+			return;
+		}
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].equals(listener)) {
+				final IrcEventListener<?>[] removed = new IrcEventListener<?>[current.length - 1];
+				System.arraycopy(current, 0, removed, 0, i);
+				System.arraycopy(current, i + 1, removed, i, removed.length - i);
+				this.replace(type, removed.length == 0 ? null : removed);
+				this.irc.forget(listener);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Replaces the listeners of an event type. Must be called while
+	 * holding the lock.
+	 * 
+	 * @param type The event type.
+	 * @param registered The new listeners, or null to remove them.
+	 */
+	private void replace(final Class<?> type, final IrcEventListener<?>[] registered) {
+		final Map<Class<?>, IrcEventListener<?>[]> listeners = new HashMap<Class<?>, IrcEventListener<?>[]>(this.listeners);
+		if (registered == null) {
+			listeners.remove(type);
+		} else {
+			listeners.put(type, registered);
+		}
+		this.listeners = listeners.isEmpty() ? Collections.<Class<?>, IrcEventListener<?>[]> emptyMap() : listeners;
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * IrcEventLoop.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Event loop thread, used by {@link IrcReactor} to handle a group of
+ * connections.
+ * 
+ * @author Sorcix
+ */
+final class IrcEventLoop extends Thread {
+
+	/** Selector watching all sessions of this loop. */
+	private final Selector selector;
+	/** Tasks submitted by other threads. */
+	private final Queue<Runnable> tasks;
+	/** Sessions waiting to send queued messages, by due time. */
+	private final PriorityQueue<IrcSession> timers;
+	/** Whether this loop should keep running. */
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a new event loop.
+	 * 
+	 * @param name The thread name.
+	 * @throws IOException If the selector could not be opened.
+	 */
+	protected IrcEventLoop(final String name) throws IOException {
+		this.setName(name);
+		this.setPriority(Thread.NORM_PRIORITY);
+		this.setDaemon(false);
+		this.selector = Selector.open();
+		this.tasks = new ConcurrentLinkedQueue<Runnable>();
+		this.timers = new PriorityQueue<IrcSession>(16, new Comparator<IrcSession>() {
+
+			@Override
+			public int compare(final IrcSession a, final IrcSession b) {
+				final long diff = a.getDue() - b.getDue();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+	}
+
+	/**
+	 * Runs given task on this event loop. Tasks submitted from the
+	 * event loop itself are run on the next iteration.
+	 * 
+	 * @param task The task to run.
+	 */
+	protected void execute(final Runnable task) {
+		this.tasks.add(task);
+		if (!this.inLoop()) {
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * Checks whether the current thread is this event loop.
+	 * 
+	 * @return True if called from this event loop.
+	 */
+	protected boolean inLoop() {
+		return Thread.currentThread() == this;
+	}
+
+	/**
+	 * Registers a channel with this event loop. Must be called from
+	 * the event loop.
+	 * 
+	 * @param channel The non-blocking channel to register.
+	 * @param session The session handling events for this channel.
+	 * @return The selection key.
+	 * @throws ClosedChannelException If the channel was closed.
+	 */
+	protected SelectionKey register(final SocketChannel channel, final IrcSession session) throws ClosedChannelException {
+		return this.register(channel, session, SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Registers a channel with this event loop, for given operations.
+	 * Must be called from the event loop.
+	 * 
+	 * @param channel The non-blocking channel to register.
+	 * @param session The session handling events for this channel.
+	 * @param ops The operations to select.
+	 * @return The selection key.
+	 * @throws ClosedChannelException If the channel was closed.
+	 */
+	protected SelectionKey register(final SocketChannel channel, final IrcSession session, final int ops) throws ClosedChannelException {
+		return channel.register(this.selector, ops, session);
+	}
+
+	/**
+	 * Schedules a session to send queued messages at given time. Must
+	 * be called from the event loop.
+	 * 
+	 * @param session The session to schedule.
+	 * @param due The time in nanoseconds, as given by
+	 *            {@link System#nanoTime()}.
+	 */
+	protected void schedule(final IrcSession session, final long due) {
+		session.setDue(due);
+		this.timers.add(session);
+	}
+
+	/**
+	 * Stops this event loop, closing all its sessions.
+	 */
+	protected void shutdown() {
+		this.running = false;
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Runs all due timers.
+	 * 
+	 * @return Milliseconds until the next timer is due, or 0 if there
+	 *         are no timers left.
+	 */
+	private long runTimers() {
+		while (!this.timers.isEmpty()) {
+			final long now = System.nanoTime();
+			final IrcSession session = this.timers.peek();
+			final long wait = session.getDue() - now;
+			if (wait > 0) {
+				// round up, select(0) would block forever
+				return (wait + 999999) / 1000000;
+			}
+			this.timers.poll();
+			session.sendQueued(now);
+		}
+		return 0;
+	}
+
+	/**
+	 * Runs all submitted tasks.
+	 */
+	private void runTasks() {
+		Runnable task;
+		while ((task = this.tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (final Exception ex) {
+				IrcDebug.log("Exception " + ex + " in event loop task");
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Handles selected channels.
+	 */
+	@Override
+	public void run() {
+		try {
+			while (this.running) {
+				final long timeout = this.runTimers();
+				if (this.tasks.isEmpty()) {
+					this.selector.select(timeout);
+				} else {
+					this.selector.selectNow();
+				}
+				this.runTasks();
+				final Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					final SelectionKey key = it.next();
+					it.remove();
+					final IrcSession session = (IrcSession) key.attachment();
+					if (key.isValid() && key.isConnectable()) {
+						session.finishConnect();
+					}
+					if (key.isValid() && key.isReadable()) {
+						session.read();
+					}
+					if (key.isValid() && key.isWritable()) {
+						session.flush();
+					}
+				}
+			}
+		} catch (final IOException ex) {
+			IrcDebug.log("Exception " + ex + " in event loop");
+		}
+		// close all remaining sessions
+		for (final SelectionKey key : this.selector.keys()) {
+			((IrcSession) key.attachment()).close();
+		}
+		this.runTasks();
+		try {
+			this.selector.close();
+		} catch (final IOException ex) {
+			// ignore
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * IrcFloodControl.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+/**
+ * Describes how fast sIRC may send queued messages to the server.
+ * <p>
+ * This follows the flood control most IRC servers use. Each message
+ * adds a penalty to a timer, which never runs behind the current time.
+ * Messages are sent as long as the timer is at most a certain window
+ * ahead of the current time, and held back otherwise. This allows
+ * short bursts, while keeping the average rate below what the server
+ * accepts.
+ * </p>
+ * 
+ * <pre>
+ * // RFC 1459: a 10 second window, 2 seconds + 1 second per 120 bytes
+ * irc.setFloodControl(IrcFloodControl.RFC1459);
+ * // bursts of 5 lines, then 2 lines per second
+ * irc.setFloodControl(IrcFloodControl.tokenBucket(5, 2));
+ * </pre>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#setFloodControl(IrcFloodControl)
+ */
+public final class IrcFloodControl {
+	
+	/** Flood control as described in RFC 1459 and used by most servers. */
+	public static final IrcFloodControl RFC1459 = new IrcFloodControl(10000, 2000, 120);
+	/** Nanoseconds the timer may be ahead of the current time. */
+	private final long window;
+	/** Penalty for every message in nanoseconds. */
+	private final long linePenalty;
+	/** Number of bytes adding a second of penalty, or 0. */
+	private final int bytesPerSecond;
+	
+	/**
+	 * Creates a new flood control.
+	 * 
+	 * @param window Milliseconds the timer may be ahead of the current
+	 *            time.
+	 * @param linePenalty Penalty for every message, in milliseconds.
+	 * @param bytesPerSecond Number of bytes that add another second
+	 *            of penalty, or 0 to ignore the message length.
+	 */
+	public IrcFloodControl(final int window, final int linePenalty, final int bytesPerSecond) {
+		if ((window < 0) || (linePenalty < 0) || (bytesPerSecond < 0)) {
+			throw new IllegalArgumentException("Flood control settings can't be negative!");
+		}
+		this.window = window * 1000000L;
+		this.linePenalty = linePenalty * 1000000L;
+		this.bytesPerSecond = bytesPerSecond;
+	}
+	
+	/**
+	 * Creates a flood control allowing bursts of a number of messages,
+	 * and a fixed rate after that.
+	 * 
+	 * @param burst The number of messages that can be sent at once.
+	 * @param linesPerSecond The number of messages per second after a
+	 *            burst, at most 1000.
+	 * @return The flood control.
+	 */
+	public static IrcFloodControl tokenBucket(final int burst, final int linesPerSecond) {
+		if ((burst < 1) || (linesPerSecond < 1)) {
+			throw new IllegalArgumentException("Burst and rate must be at least 1!");
+		}
+		if (linesPerSecond > 1000) {
+			// the penalty would round down to 0 milliseconds
+			throw new IllegalArgumentException("Rate can't be more than 1000 lines per second!");
+		}
+		final int penalty = 1000 / linesPerSecond;
+		return new IrcFloodControl((burst - 1) * penalty, penalty, 0);
+	}
+	
+	/**
+	 * Calculates the penalty for a message.
+	 * 
+	 * @param bytes The length of the message, including line ending.
+	 * @return The penalty in nanoseconds.
+	 */
+	protected long getPenalty(final int bytes) {
+		if (this.bytesPerSecond == 0) {
+			return this.linePenalty;
+		}
+		return this.linePenalty + ((bytes * 1000000000L) / this.bytesPerSecond);
+	}
+	
+	/**
+	 * Returns how far the timer may be ahead of the current time.
+	 * 
+	 * @return The window in nanoseconds.
+	 */
+	protected long getWindow() {
+		return this.window;
+	}
+}
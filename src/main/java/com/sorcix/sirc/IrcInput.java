@@ -27,37 +27,69 @@
  */
 package com.sorcix.sirc;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.InputStream;
 import java.net.SocketException;
-import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Input Thread.
+ * <p>
+ * The thread is created using the thread factory of the
+ * {@link IrcConnection} when {@link #start()} is called.
+ * </p>
  * 
  * @author Sorcix
  */
-final class IrcInput extends Thread {
+final class IrcInput implements Runnable {
 	
 	/** Stream used to read from the IRC server. */
-	private final BufferedReader in;
+	private final InputStream in;
+	/** Splits the incoming stream into lines. */
+	private final IrcLineReader reader;
+	/** Session used to read from the IRC server, when using a reactor. */
+	private final IrcSession session;
 	/** The IrcConnection. */
 	private final IrcConnection irc;
+	/** Name of the input thread. */
+	private final String name;
+	/** The input thread, once started. */
+	private volatile Thread thread = null;
 
 	private final IrcParser parser = new IrcParser();
 	
+	/** Packet reused for every incoming line. */
+	private final IrcPacket packet;
+	
 	/**
 	 * Creates a new input thread.
 	 * 
 	 * @param irc The IrcConnection using this output thread.
 	 * @param in The stream to use for communication.
 	 */
-	protected IrcInput(final IrcConnection irc, final Reader in) {
-		this.setName("sIRC-IN:" + irc.getServerAddress() + "-" + irc.getClient().getUserName());
-		this.setPriority(Thread.NORM_PRIORITY);
-		this.setDaemon(false);
-		this.in = new BufferedReader(in);
+	protected IrcInput(final IrcConnection irc, final InputStream in) {
+		this.name = "sIRC-IN:" + irc.getServerAddress() + "-" + irc.getClient().getUserName();
+		this.in = in;
+		this.reader = new IrcLineReader(irc.getCharset());
+		this.session = null;
+		this.packet = new IrcPacket(irc);
+		this.irc = irc;
+	}
+	
+	/**
+	 * Creates a new input handler for a connection using a reactor.
+	 * This thread is never started, the event loop calls
+	 * {@link #receive(String)} for every line instead.
+	 * 
+	 * @param irc The IrcConnection using this input handler.
+	 * @param session The session to read from.
+	 */
+	protected IrcInput(final IrcConnection irc, final IrcSession session) {
+		this.name = null;
+		this.in = null;
+		this.reader = null;
+		this.session = session;
+		this.packet = new IrcPacket(irc);
 		this.irc = irc;
 	}
 	
@@ -68,16 +100,77 @@ final class IrcInput extends Thread {
 	 * @see IrcConnection#disconnect()
 	 */
 	protected void close() throws IOException {
-		this.in.close();
+		if (this.session != null) {
+			this.session.close();
+		} else {
+			this.in.close();
+		}
+	}
+	
+	/**
+	 * Notifies everyone that the connection was lost.
+	 */
+	protected void finish() {
+		// connecting asynchronously failed, the future reports it
+		IOException cause = this.session != null ? this.session.getError() : null;
+		if (cause == null) {
+			cause = new IOException("Connection closed during registration");
+		}
+		if (this.irc.failRegistration(cause)) {
+			this.irc.setConnected(false);
+			return;
+		}
+		// when reaching this, we are disconnected
+		this.irc.setConnected(false);
+		// remember the channels to rejoin
+		final Map<String, String> channels = this.irc.getState().getChannelKeys();
+		// close connections
+		this.irc.dispose();
+		// send disconnect event
+		for (final ServerListener listener : this.irc.getServerListeners()) {
+			listener.onDisconnect(this.irc);
+		}
+		this.irc.reconnect(channels);
+	}
+	
+	/**
+	 * Returns the session this input handler reads from.
+	 * 
+	 * @return The session, or null if this is an input thread.
+	 */
+	protected IrcSession getSession() {
+		return this.session;
 	}
 	
 	/**
-	 * Returns the reader used in this input thread.
+	 * Interrupts the input thread, if it was started.
+	 */
+	protected void interrupt() {
+		final Thread thread = this.thread;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+	
+	/**
+	 * Reads a single line, blocking until it is available.
 	 * 
-	 * @return the reader.
+	 * @return The line, or null if the end of the stream was reached.
+	 * @throws IOException If reading fails.
 	 */
-	protected BufferedReader getReader() {
-		return this.in;
+	protected String readLine() throws IOException {
+		if (this.session != null) {
+			return this.session.readLine();
+		}
+		return this.reader.readLine(this.in);
+	}
+	
+	/**
+	 * Starts the input thread.
+	 */
+	protected void start() {
+		this.thread = this.irc.newThread(this, this.name, Thread.NORM_PRIORITY, false);
+		this.thread.start();
 	}
 	
 	/**
@@ -87,14 +180,34 @@ final class IrcInput extends Thread {
 	 */
 	private void handleLine(final String line) {
 		// transform the raw line into an easier format
-		final IrcPacket parser = new IrcPacket(line, this.irc);
+		final IrcPacket parser = this.packet.reset(line);
 		// Handle numeric server replies.
 		if (parser.isNumeric()) {
 			this.parser.parseNumeric(this.irc, parser);
-			return;
+		} else {
+			// Handle different commands
+			this.parser.parseCommand(this.irc, parser);
+		}
+		this.irc.getEventBus().post(this.irc, parser);
+		final IrcRingBuffer ring = this.irc.getRingBuffer();
+		if (ring != null) {
+			ring.publish(parser);
+		}
+	}
+	
+	/**
+	 * Handles a line received from the IRC server.
+	 * 
+	 * @param line The line to handle.
+	 */
+	protected void receive(final String line) {
+		IrcDebug.log("<<< " + line);
+		// always respond to PING
+		if (line.startsWith("PING ")) {
+			this.irc.out.pong(line.substring(5));
+		} else {
+			this.handleLine(line);
 		}
-		// Handle different commands
-		this.parser.parseCommand(this.irc, parser);
 	}
 	
 	/**
@@ -105,14 +218,8 @@ final class IrcInput extends Thread {
 		String line = null;
 		try {
 			// wait for lines to come in
-			while ((line = this.in.readLine()) != null) {
-				IrcDebug.log("<<< " + line);
-				// always respond to PING
-				if (line.startsWith("PING ")) {
-					this.irc.out.pong(line.substring(5));
-				} else {
-					this.handleLine(line);
-				}
+			while ((line = this.reader.readLine(this.in)) != null) {
+				this.receive(line);
 			}
 		} catch (final SocketException ex) {
 			this.irc.setConnected(false);
@@ -122,13 +229,6 @@ final class IrcInput extends Thread {
 			IrcDebug.log("Exception " + ex + " on: " + line);
 			ex.printStackTrace();
 		}
-		// when reaching this, we are disconnected
-		this.irc.setConnected(false);
-		// close connections
-		this.irc.disconnect();
-		// send disconnect event
-		for (final Iterator<ServerListener> it = this.irc.getServerListeners(); it.hasNext();) {
-			it.next().onDisconnect(this.irc);
-		}
+		this.finish();
 	}
 }
@@ -0,0 +1,75 @@
+/*
+ * IrcKickEvent.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+/**
+ * A user being kicked from a channel. The sender is the user who
+ * kicked.
+ * 
+ * @author Sorcix
+ * @see IrcEventBus
+ */
+public class IrcKickEvent extends IrcEvent {
+	
+	/**
+	 * Creates a new kick event.
+	 * 
+	 * @param irc The IrcConnection receiving this event.
+	 * @param line The line, which must not be reused.
+	 */
+	protected IrcKickEvent(final IrcConnection irc, final IrcPacket line) {
+		super(irc, line);
+	}
+	
+	/**
+	 * Returns the name of the channel.
+	 * 
+	 * @return The channel name.
+	 */
+	public final String getChannelName() {
+		return this.getParameter(0);
+	}
+	
+	/**
+	 * Returns the nickname of the user kicked.
+	 * 
+	 * @return The nickname.
+	 */
+	public final String getNick() {
+		return this.getParameter(1);
+	}
+	
+	/**
+	 * Returns the kick message.
+	 * 
+	 * @return The message, or {@code null} if none was given.
+	 */
+	public final String getReason() {
+		return this.getParameter(2);
+	}
+}
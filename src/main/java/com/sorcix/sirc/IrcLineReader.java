@@ -0,0 +1,283 @@
+/*
+ * IrcLineReader.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits incoming bytes into lines.
+ * <p>
+ * Data is read into a byte buffer which is scanned for line endings,
+ * every line is decoded straight from that buffer. Lines longer than
+ * allowed by the protocol are cut off, the rest of the line is
+ * dropped. That is 510 bytes, or an extra 8191 bytes for the message
+ * tags if the line starts with {@code @}.
+ * </p>
+ * <p>
+ * Buffers are shared between all readers. A reader that has nothing
+ * left to handle can give its buffer back using {@link #release()},
+ * so idle connections don't hold on to one.
+ * </p>
+ * 
+ * @author Sorcix
+ */
+final class IrcLineReader {
+	
+	/** Maximum line length, without line ending. */
+	protected static final int MAX_LINE_LENGTH = IrcOutput.MAX_LINE_LENGTH - 2;
+	/** Maximum length of the message tags, including @ and space. */
+	protected static final int MAX_TAGS_LENGTH = 8191;
+	/** Buffer size, large enough for a tagged line with line ending. */
+	private static final int BUFFER_SIZE = IrcLineReader.MAX_TAGS_LENGTH + IrcOutput.MAX_LINE_LENGTH + 1;
+	/** Maximum number of unused buffers to keep. */
+	private static final int POOL_SIZE = 64;
+	/** Unused buffers. */
+	private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+	/** Number of unused buffers. */
+	private static final AtomicInteger pooled = new AtomicInteger(0);
+	/** The character set used to decode lines. */
+	private final Charset charset;
+	/** Incoming data, or null if released. */
+	private ByteBuffer buffer = null;
+	/** Start of the first unhandled line in the buffer. */
+	private int start = 0;
+	/** Position up to which the current line was scanned. */
+	private int scanned = 0;
+	/** Whether we're dropping the rest of a line that was too long. */
+	private boolean skipping = false;
+	
+	/**
+	 * Creates a new line reader.
+	 * 
+	 * @param charset The character set used to decode lines.
+	 */
+	protected IrcLineReader(final Charset charset) {
+		this.charset = charset;
+	}
+	
+	/**
+	 * Takes a buffer from the pool, or creates a new one.
+	 * 
+	 * @return An empty buffer.
+	 */
+	private static ByteBuffer acquire() {
+		final ByteBuffer buffer = IrcLineReader.pool.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocate(IrcLineReader.BUFFER_SIZE);
+		}
+		IrcLineReader.pooled.decrementAndGet();
+		return buffer;
+	}
+	
+	/**
+	 * Moves the unhandled data to the front of the buffer.
+	 */
+	private void compact() {
+		if (this.start == 0) {
+			return;
+		}
+		final int end = this.buffer.position();
+		if (this.start < end) {
+			System.arraycopy(this.buffer.array(), this.start, this.buffer.array(), 0, end - this.start);
+		}
+		this.buffer.position(end - this.start);
+		this.scanned -= this.start;
+		this.start = 0;
+	}
+	
+	/**
+	 * Decodes a line from the buffer.
+	 * 
+	 * @param from Start of the line.
+	 * @param to End of the line (exclusive).
+	 * @return The line.
+	 */
+	private String decode(final int from, final int to) {
+		return new String(this.buffer.array(), from, to - from, this.charset);
+	}
+	
+	/**
+	 * Returns the next complete line in the buffer.
+	 * 
+	 * @return The line without line ending, or null if there is no
+	 *         complete line.
+	 */
+	protected String next() {
+		if (this.buffer == null) {
+			return null;
+		}
+		final byte[] data = this.buffer.array();
+		final int end = this.buffer.position();
+		while (true) {
+			int eol = -1;
+			for (int i = this.scanned; i < end; i++) {
+				if (data[i] == '\n') {
+					eol = i;
+					break;
+				}
+			}
+			if (this.skipping) {
+				if (eol < 0) {
+					this.start = this.scanned = end;
+					break;
+				}
+				this.skipping = false;
+				this.start = this.scanned = eol + 1;
+				continue;
+			}
+			final int from = this.start;
+			final int limit = (from < end) && (data[from] == '@') ? IrcLineReader.MAX_TAGS_LENGTH + IrcLineReader.MAX_LINE_LENGTH : IrcLineReader.MAX_LINE_LENGTH;
+			if (eol < 0) {
+				this.scanned = end;
+				if (end - from > limit) {
+					// too long, cut it off and drop the rest
+					IrcDebug.log("Line too long, dropping " + (end - from - limit) + "+ bytes");
+					this.skipping = true;
+					this.start = this.scanned = end;
+					return this.decode(from, from + limit);
+				}
+				break;
+			}
+			this.start = this.scanned = eol + 1;
+			int to = eol;
+			if ((to > from) && (data[to - 1] == '\r')) {
+				to--;
+			}
+			if (to - from > limit) {
+				IrcDebug.log("Line too long, dropping " + (to - from - limit) + " bytes");
+				to = from + limit;
+			}
+			if (to > from) {
+				return this.decode(from, to);
+			}
+			// ignore empty lines
+		}
+		this.compact();
+		return null;
+	}
+	
+	/**
+	 * Reads available data from given channel.
+	 * 
+	 * @param channel The channel to read from.
+	 * @return The number of bytes read, or -1 at the end of the stream.
+	 * @throws IOException If reading fails.
+	 */
+	protected int read(final ReadableByteChannel channel) throws IOException {
+		this.prepare();
+		return channel.read(this.buffer);
+	}
+	
+	/**
+	 * Reads data from given stream, blocking until some is available.
+	 * 
+	 * @param in The stream to read from.
+	 * @return The number of bytes read, or -1 at the end of the stream.
+	 * @throws IOException If reading fails.
+	 */
+	protected int read(final InputStream in) throws IOException {
+		this.prepare();
+		final int read = in.read(this.buffer.array(), this.buffer.position(), this.buffer.remaining());
+		if (read > 0) {
+			this.buffer.position(this.buffer.position() + read);
+		}
+		return read;
+	}
+	
+	/**
+	 * Reads a single line from given channel, blocking until it is
+	 * available. The channel must be in blocking mode.
+	 * 
+	 * @param channel The channel to read from.
+	 * @return The line, or null at the end of the stream.
+	 * @throws IOException If reading fails.
+	 */
+	protected String readLine(final ReadableByteChannel channel) throws IOException {
+		String line;
+		while ((line = this.next()) == null) {
+			if (this.read(channel) < 0) {
+				return null;
+			}
+		}
+		return line;
+	}
+	
+	/**
+	 * Reads a single line from given stream, blocking until it is
+	 * available.
+	 * 
+	 * @param in The stream to read from.
+	 * @return The line, or null at the end of the stream.
+	 * @throws IOException If reading fails.
+	 */
+	protected String readLine(final InputStream in) throws IOException {
+		String line;
+		while ((line = this.next()) == null) {
+			if (this.read(in) < 0) {
+				return null;
+			}
+		}
+		return line;
+	}
+	
+	/**
+	 * Makes sure there is a buffer with free space to read into.
+	 */
+	private void prepare() {
+		if (this.buffer == null) {
+			this.buffer = IrcLineReader.acquire();
+			this.start = this.scanned = 0;
+		} else {
+			this.compact();
+		}
+	}
+	
+	/**
+	 * Gives the buffer back to the pool if all data was handled. Call
+	 * {@link #next()} until it returns null first.
+	 */
+	protected void release() {
+		if ((this.buffer != null) && (this.buffer.position() == 0)) {
+			final ByteBuffer buffer = this.buffer;
+			this.buffer = null;
+			if (IrcLineReader.pooled.incrementAndGet() <= IrcLineReader.POOL_SIZE) {
+				buffer.clear();
+				IrcLineReader.pool.add(buffer);
+			} else {
+				IrcLineReader.pooled.decrementAndGet();
+			}
+		}
+	}
+}
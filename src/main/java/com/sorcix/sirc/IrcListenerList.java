@@ -0,0 +1,185 @@
+/*
+ * IrcListenerList.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.lang.reflect.Array;
+
+/**
+ * Copy-on-write list of listeners.
+ * <p>
+ * Adding and removing listeners replaces the array, so sIRC can loop
+ * over a snapshot without locking or creating an iterator, while
+ * listeners are added or removed at the same time.
+ * </p>
+ * 
+ * @author Sorcix
+ * @param <T> The listener type.
+ */
+final class IrcListenerList<T> {
+	
+	/** The listener interface. */
+	private final Class<T> type;
+	/** The current listeners, never modified. */
+	private volatile T[] listeners;
+	/** Proxies of the current listeners, for the last dispatcher used. */
+	private volatile Dispatched<T> dispatched = null;
+	
+	/**
+	 * Creates an empty listener list.
+	 * 
+	 * @param type The listener interface.
+	 */
+	protected IrcListenerList(final Class<T> type) {
+		this.type = type;
+		this.listeners = this.newArray(0);
+	}
+	
+	/**
+	 * Adds a listener, unless it was added before.
+	 * 
+	 * @param listener The listener to add.
+	 * @return True if the listener was added.
+	 */
+	protected synchronized boolean add(final T listener) {
+		if ((listener == null) || this.contains(listener)) {
+			return false;
+		}
+		final T[] listeners = this.newArray(this.listeners.length + 1);
+		System.arraycopy(this.listeners, 0, listeners, 0, this.listeners.length);
+		listeners[this.listeners.length] = listener;
+		this.listeners = listeners;
+		return true;
+	}
+	
+	/**
+	 * Checks whether given listener was added.
+	 * 
+	 * @param listener The listener.
+	 * @return True if the listener is in this list.
+	 */
+	protected boolean contains(final T listener) {
+		for (final T current : this.listeners) {
+			if (current.equals(listener)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the current listeners. The array must not be modified.
+	 * 
+	 * @return The listeners.
+	 */
+	protected T[] get() {
+		return this.listeners;
+	}
+	
+	/**
+	 * Returns the current listeners, or proxies calling them through
+	 * given dispatcher. The proxies are created once for every change
+	 * to this list. The array must not be modified.
+	 * 
+	 * @param dispatcher The dispatcher, or null.
+	 * @return The listeners to call.
+	 */
+	protected T[] get(final IrcDispatcher dispatcher) {
+		final T[] listeners = this.listeners;
+		if (dispatcher == null) {
+			return listeners;
+		}
+		Dispatched<T> dispatched = this.dispatched;
+		if ((dispatched == null) || (dispatched.dispatcher != dispatcher) || (dispatched.source != listeners)) {
+			final T[] proxies = this.newArray(listeners.length);
+			for (int i = 0; i < listeners.length; i++) {
+				proxies[i] = dispatcher.wrap(listeners[i], this.type);
+			}
+			dispatched = new Dispatched<T>(dispatcher, listeners, proxies);
+			this.dispatched = dispatched;
+		}
+		return dispatched.proxies;
+	}
+	
+	/**
+	 * Creates an array of the listener type.
+	 * 
+	 * @param length The array length.
+	 * @return The new array.
+	 */
+	@SuppressWarnings("unchecked")
+	private T[] newArray(final int length) {
+		return (T[]) Array.newInstance(this.type, length);
+	}
+	
+	/**
+	 * Removes a listener.
+	 * 
+	 * @param listener The listener to remove.
+	 * @return True if the listener was removed.
+	 */
+	protected synchronized boolean remove(final T listener) {
+		for (int i = 0; i < this.listeners.length; i++) {
+			if (this.listeners[i].equals(listener)) {
+				final T[] listeners = this.newArray(this.listeners.length - 1);
+				System.arraycopy(this.listeners, 0, listeners, 0, i);
+				System.arraycopy(this.listeners, i + 1, listeners, i, listeners.length - i);
+				this.listeners = listeners;
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Proxies of a listener array.
+	 * 
+	 * @param <T> The listener type.
+	 */
+	private static final class Dispatched<T> {
+		
+		/** The dispatcher used by the proxies. */
+		private final IrcDispatcher dispatcher;
+		/** The listeners. */
+		private final T[] source;
+		/** The proxies. */
+		private final T[] proxies;
+		
+		/**
+		 * Creates new proxies.
+		 * 
+		 * @param dispatcher The dispatcher used by the proxies.
+		 * @param source The listeners.
+		 * @param proxies The proxies.
+		 */
+		private Dispatched(final IrcDispatcher dispatcher, final T[] source, final T[] proxies) {
+			this.dispatcher = dispatcher;
+			this.source = source;
+			this.proxies = proxies;
+		}
+	}
+}
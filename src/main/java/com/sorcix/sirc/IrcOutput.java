@@ -27,25 +27,60 @@
  */
 package com.sorcix.sirc;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
 
 /**
  * Output thread, and manages the outgoing message queue.
+ * <p>
+ * The thread is created using the thread factory of the
+ * {@link IrcConnection} when {@link #start()} is called.
+ * </p>
  * 
  * @author Sorcix
  */
-class IrcOutput extends Thread {
+class IrcOutput implements Runnable {
 	
 	/** The IrcConnection. */
 	private final IrcConnection irc;
+	/** Name of the output thread. */
+	private final String name;
+	/** The output thread, once started. */
+	private volatile Thread thread = null;
 	/** Stream used to write to the IRC server. */
-	private final BufferedWriter out;
+	private final OutputStream out;
+	/** Encodes lines in the charset of the connection. */
+	private final CharsetEncoder encoder;
+	/** Encoded lines waiting to be written to the stream. */
+	private final ByteBuffer buffer;
+	/** Splits messages that are too long. */
+	private final IrcSplitter splitter;
+	/** Our {@code user@host}, once the server told us. */
+	private volatile String userHost = null;
+	/** The line ending. */
+	private final CharBuffer endline = CharBuffer.wrap(IrcConnection.ENDLINE);
 	/** The outgoing message queue. */
 	private final IrcQueue queue;
+	/** Session sending the queued messages, when using a reactor. */
+	private IrcSession session = null;
+	/** Flood control timer, in nanoseconds. */
+	private long clock = System.nanoTime();
 	/** Maximum line length. */
 	protected static final int MAX_LINE_LENGTH = 512;
+	/** Size of the output buffer. */
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * Length of {@code user@host} assumed until the server told us: a
+	 * user name of 10 characters prefixed with {@code ~}, and a host
+	 * name of 63 characters.
+	 */
+	private static final int USER_HOST_LENGTH = 11 + 1 + 63;
 	
 	/**
 	 * Creates a new output thread.
@@ -53,13 +88,14 @@ class IrcOutput extends Thread {
 	 * @param irc The IrcConnection using this output thread.
 	 * @param out The stream to use for communication.
 	 */
-	protected IrcOutput(final IrcConnection irc, final Writer out) {
-		this.setName("sIRC-OUT:" + irc.getServerAddress() + "-" + irc.getClient().getUserName());
-		this.setPriority(Thread.MIN_PRIORITY);
-		this.setDaemon(true);
+	protected IrcOutput(final IrcConnection irc, final OutputStream out) {
+		this.name = "sIRC-OUT:" + irc.getServerAddress() + "-" + irc.getClient().getUserName();
 		this.irc = irc;
-		this.queue = new IrcQueue();
-		this.out = new BufferedWriter(out);
+		this.queue = new IrcQueue(irc);
+		this.out = out;
+		this.encoder = irc.getCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.buffer = ByteBuffer.allocate(IrcOutput.BUFFER_SIZE);
+		this.splitter = new IrcSplitter(irc.getCharset());
 	}
 	
 	/**
@@ -69,10 +105,111 @@ class IrcOutput extends Thread {
 	 * @see IrcConnection#disconnect()
 	 */
 	protected void close() throws IOException {
-		this.out.flush();
+		synchronized (this) {
+			this.flush();
+		}
 		this.out.close();
 	}
 	
+	/**
+	 * Returns the length of the prefix the server adds to our messages,
+	 * {@code :nick!user@host } including the space.
+	 * 
+	 * @return The prefix length, an estimate until the server told us
+	 *         our host.
+	 */
+	protected int getPrefixLength() {
+		final String userHost = this.userHost;
+		return this.irc.getClient().getNick().length() + 3 + (userHost != null ? userHost.length() : IrcOutput.USER_HOST_LENGTH);
+	}
+	
+	/**
+	 * Checks whether there are messages in the output queue.
+	 * 
+	 * @return True if the output queue is not empty.
+	 */
+	protected boolean hasQueued() {
+		return !this.queue.isEmpty();
+	}
+	
+	/**
+	 * Interrupts the output thread, if it was started.
+	 */
+	protected void interrupt() {
+		final Thread thread = this.thread;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+	
+	/**
+	 * Adds the flood control penalty for a message that was sent.
+	 * 
+	 * @param bytes The encoded length of the message, including line
+	 *            ending.
+	 */
+	private void charge(final int bytes) {
+		final IrcFloodControl control = this.irc.getFloodControl();
+		if (control != null) {
+			this.clock += control.getPenalty(bytes);
+		} else {
+			this.clock += this.irc.getMessageDelay() * 1000000L;
+		}
+	}
+	
+	/**
+	 * Calculates how long a message has to wait before flood control
+	 * allows sending it.
+	 * 
+	 * @param now The current time in nanoseconds.
+	 * @return Nanoseconds to wait, or 0 if the message can be sent.
+	 */
+	private long delay(final long now) {
+		final IrcFloodControl control = this.irc.getFloodControl();
+		final long window;
+		if (control != null) {
+			window = control.getWindow();
+		} else {
+			// no bursts, just the message delay between messages
+			window = 0;
+		}
+		if (this.clock - now < 0) {
+			this.clock = now;
+		}
+		final long wait = this.clock - now - window;
+		return wait > 0 ? wait : 0;
+	}
+	
+	/**
+	 * Sends the next message from the output queue if flood control
+	 * allows it. This is used instead of {@link #run()} by connections
+	 * using a reactor.
+	 * 
+	 * @param now The current time in nanoseconds.
+	 * @return Nanoseconds to wait before calling this method again, or
+	 *         -1 if the output queue is empty.
+	 */
+	protected long poll(final long now) {
+		if (this.queue.isEmpty()) {
+			return -1;
+		}
+		final long wait = this.delay(now);
+		if (wait > 0) {
+			return wait;
+		}
+		final String line = this.queue.poll();
+		if (line == null) {
+			// still being added by another thread
+			return 0;
+		}
+		try {
+			this.sendQueued(line);
+		} catch (final IOException ex) {
+			// the session notices this as well
+		}
+		return 0;
+	}
+	
 	/**
 	 * Sends messages from the output queue.
 	 */
@@ -81,11 +218,18 @@ class IrcOutput extends Thread {
 		try {
 			boolean running = true;
 			String line;
+			long wait;
 			while (running) {
-				Thread.sleep(this.irc.getMessageDelay());
 				line = this.queue.take();
 				if (line != null) {
-					this.sendNow(line);
+					while ((wait = this.delay(System.nanoTime())) > 0) {
+						Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+					}
+					try {
+						this.sendQueued(line);
+					} catch (final IOException ex) {
+						throw new IllegalStateException(ex);
+					}
 				} else {
 					running = false;
 				}
@@ -101,17 +245,28 @@ class IrcOutput extends Thread {
 		}*/
 	}
 	
+	/**
+	 * Sends given line, followed by all queued lines flood control
+	 * allows right now, flushing the stream only once.
+	 * 
+	 * @param line The first raw line to send.
+	 * @throws IOException If anything goes wrong while sending.
+	 */
+	private synchronized void sendQueued(String line) throws IOException {
+		do {
+			this.charge(this.write(line));
+		} while (!this.queue.isEmpty() && (this.delay(System.nanoTime()) == 0) && ((line = this.queue.poll()) != null));
+		this.flush();
+	}
+	
 	/**
 	 * Sends {@link IrcPacket} to the IRC server, using the message queue.
 	 * 
 	 * @param packet The data to send.
 	 */
-	protected synchronized void send(final IrcPacket packet) {
-		if (this.irc.getMessageDelay() == 0) {
-			this.sendNow(packet.getRaw());
-			return;
-		}
-		this.queue.add(packet.getRaw());
+	protected void send(final IrcPacket packet) {
+		final String line = packet.getRaw();
+		this.send(line, IrcPriority.of(line));
 	}
 	
 	/**
@@ -121,13 +276,29 @@ class IrcOutput extends Thread {
 	 * @deprecated Use {@link #send(IrcPacket)} instead.
 	 */
 	@Deprecated
-	protected synchronized void send(final String line) {
+	protected void send(final String line) {
 		//TODO: Remove in a future release.
-		if (this.irc.getMessageDelay() == 0) {
+		this.send(line, IrcPriority.of(line));
+	}
+	
+	/**
+	 * Sends raw line to the IRC server, using the message queue.
+	 * 
+	 * @param line The raw line to send.
+	 * @param priority The priority of this line in the queue.
+	 */
+	protected void send(final String line, final IrcPriority priority) {
+		// the message delay only applies without flood control
+		if ((this.irc.getFloodControl() == null) && (this.irc.getMessageDelay() == 0)) {
 			this.sendNow(line);
 			return;
 		}
-		this.queue.add(line);
+		for (final String part : this.split(line)) {
+			this.queue.add(part, priority);
+		}
+		if (this.session != null) {
+			this.session.scheduleOutput();
+		}
 	}
 	
 	/**
@@ -183,14 +354,116 @@ class IrcOutput extends Thread {
 	 * @throws IOException If anything goes wrong while sending this
 	 *             message.
 	 */
-	private synchronized void sendNowEx(String line) throws IOException {
-		if (line.length() > (IrcOutput.MAX_LINE_LENGTH - 2)) {
-			line = line.substring(0, IrcOutput.MAX_LINE_LENGTH - 2);
+	protected synchronized void sendNowEx(final String line) throws IOException {
+		for (final String part : this.split(line)) {
+			this.write(part);
+		}
+		this.flush();
+	}
+
+	/**
+	 * Remembers our {@code user@host}, to know how long the prefix is
+	 * that the server adds to our messages.
+	 * 
+	 * @param prefix Our {@code nick!user@host} prefix.
+	 */
+	protected void setPrefix(final String prefix) {
+		final int bang = prefix.indexOf('!');
+		if (bang > 0) {
+			this.userHost = prefix.substring(bang + 1);
 		}
+	}
+
+	/**
+	 * Splits a message that won't fit in a single line once the server
+	 * adds our prefix.
+	 * 
+	 * @param line The raw line.
+	 * @return The lines to send.
+	 */
+	private List<String> split(final String line) {
+		return this.splitter.split(line, this.getPrefixLength());
+	}
+	
+	/**
+	 * Writes raw line to the stream, without flushing it.
+	 * 
+	 * @param line The raw line to write.
+	 * @return The number of bytes written, including line ending.
+	 * @throws IOException If anything goes wrong while writing.
+	 */
+	private int write(final String line) throws IOException {
 		IrcDebug.log(">>> " + line);
-		this.out.write(line + IrcConnection.ENDLINE);
+		// drop what doesn't fit, without splitting a character
+		final int end = this.splitter.fit(line, 0, IrcOutput.MAX_LINE_LENGTH - 2);
+		final CharBuffer chars = CharBuffer.wrap(line, 0, end);
+		this.encoder.reset();
+		this.encode(chars, false);
+		this.endline.rewind();
+		this.encode(this.endline, true);
+		while (this.encoder.flush(this.buffer).isOverflow()) {
+			this.writeBuffer();
+		}
+		return this.splitter.getLength(line, 0, end) + 2;
+	}
+	
+	/**
+	 * Encodes characters into the output buffer, writing the buffer to
+	 * the stream whenever it is full.
+	 * 
+	 * @param chars The characters to encode.
+	 * @param last Whether these are the last characters of the line.
+	 * @throws IOException If anything goes wrong while writing.
+	 */
+	private void encode(final CharBuffer chars, final boolean last) throws IOException {
+		CoderResult result;
+		while ((result = this.encoder.encode(chars, this.buffer, last)).isOverflow()) {
+			this.writeBuffer();
+		}
+		if (result.isError()) {
+			result.throwException();
+		}
+	}
+	
+	/**
+	 * Writes the output buffer to the stream and flushes it.
+	 * 
+	 * @throws IOException If anything goes wrong while writing.
+	 */
+	private void flush() throws IOException {
+		this.writeBuffer();
 		this.out.flush();
 	}
+	
+	/**
+	 * Writes the output buffer to the stream, without flushing it.
+	 * 
+	 * @throws IOException If anything goes wrong while writing.
+	 */
+	private void writeBuffer() throws IOException {
+		if (this.buffer.position() > 0) {
+			this.out.write(this.buffer.array(), 0, this.buffer.position());
+			this.buffer.clear();
+		}
+	}
+
+	/**
+	 * Lets given session send the queued messages instead of this
+	 * thread.
+	 * 
+	 * @param session The session to use.
+	 */
+	protected void setSession(final IrcSession session) {
+		this.session = session;
+	}
+
+	/**
+	 * Starts the output thread.
+	 */
+	protected void start() {
+		this.thread = this.irc.newThread(this, this.name, Thread.MIN_PRIORITY, true);
+		this.thread.start();
+	}
 
 	/**
 	 * Shortcut to quickly send a PONG packet back.
@@ -27,18 +27,55 @@
  */
 package com.sorcix.sirc;
 
+import java.util.List;
+
 /**
  * Parses a raw server response into a more readable format.
  * 
  * <pre>
- * :&lt;prefix&gt; &lt;command&gt; &lt;receiver&gt; [&lt;arguments&gt;] [:&lt;message&gt;]
+ * [@&lt;tags&gt;] :&lt;prefix&gt; &lt;command&gt; &lt;receiver&gt; [&lt;arguments&gt;] [:&lt;message&gt;]
  * </pre>
+ * <p>
+ * Parsing only looks up where each part of the line starts and ends.
+ * The parts are copied out of the line (and stripped of color codes)
+ * the first time they are requested, so parts nobody asks for cost
+ * nothing.
+ * </p>
+ * <p>
+ * IRCv3 message tags are kept as a slice of the line as well. A
+ * single tag is found and unescaped only when it is looked up using
+ * {@link #getTag(String)}.
+ * </p>
  * 
  * @author Sorcix
  * @see AdvancedListener
  */
 public final class IrcPacket {
 
+	/** The raw line, or null if this packet was created from parts. */
+	private String line = null;
+	/** The IrcConnection used to create the sender. */
+	private IrcConnection irc = null;
+	/** Start of the tags in the line, or -1 if there are none. */
+	private int tagsStart = -1;
+	/** End of the tags in the line. */
+	private int tagsEnd = -1;
+	/** Start of the prefix in the line, or -1 if there is none. */
+	private int prefixStart = -1;
+	/** End of the prefix in the line. */
+	private int prefixEnd = -1;
+	/** Start of the command in the line. */
+	private int commandStart = -1;
+	/** End of the command in the line. */
+	private int commandEnd = -1;
+	/** Start of the arguments in the line, or -1 if there are none. */
+	private int argumentsStart = -1;
+	/** End of the arguments in the line. */
+	private int argumentsEnd = -1;
+	/** Start of the message in the line, or -1 if there is none. */
+	private int messageStart = -1;
+	/** End of the message in the line. */
+	private int messageEnd = -1;
 	/** Arguments separated by a space */
 	private String arguments = null;
 	/** The numeric server reply. */
@@ -49,12 +86,14 @@ public final class IrcPacket {
 	private boolean ctcp = false;
 	/** The message (basically anything behind the colon). */
 	private String message = null;
-	/** Whether this is a numeric server reply. */
-	private boolean numeric = false;
 	/** The sender. */
 	private String prefix = null;
 	/** The sender user object. */
 	private User sender = null;
+	/** The arguments followed by the message. */
+	private String[] parameters = null;
+	/** Formatting of the message. */
+	private List<IrcStyle> styles = null;
 	/** Unknown command sent to IRC server. */
 	protected static final int ERR_UNKNOWNCOMMAND = 421;
 	/** Termination of an RPL_MOTD list. */
@@ -69,9 +108,22 @@ public final class IrcPacket {
 	protected static final int RPL_NAMREPLY = 353;
 	/** Sent to the client to redirect it to another server. */
 	protected static final int RPL_BOUNCE = 10;
+	/** Features supported by the server. */
+	protected static final int RPL_ISUPPORT = 5;
 	/** CTCP message mark. */
 	protected static final String CTCP = "\u0001";
 
+	/**
+	 * Creates a new, empty IrcPacket to be filled using
+	 * {@link #reset(String)}.
+	 * 
+	 * @param irc
+	 *            The IrcConnection used to send messages.
+	 */
+	protected IrcPacket(final IrcConnection irc) {
+		this.irc = irc;
+	}
+
 	/**
 	 * Creates a new IrcPacket using the data from given raw IRC data.
 	 * 
@@ -80,61 +132,9 @@ public final class IrcPacket {
 	 * @param irc
 	 *            The IrcConnection used to send messages.
 	 */
-	protected IrcPacket(String line, final IrcConnection irc) {
-		line = IrcColors.remove(line);
-		final int locLineStart = line.indexOf(':') + 1;
-		int locCommand;
-		// some messages don't have a prefix
-		if ((locLineStart > 1) || (locLineStart < 0)) {
-			locCommand = 0;
-			this.prefix = null;
-		} else {
-			// space between sender and command
-			locCommand = line.indexOf(' ', locLineStart + 1);
-			// retrieve sender
-			this.prefix = line.substring(locLineStart, locCommand);
-		}
-		// space between command and receiver
-		final int locArgs = line.indexOf(' ', locCommand + 1);
-		// retrieve command
-		this.command = line.substring(locCommand + 1, locArgs);
-		// colon between arguments and message
-		final int locMsg = line.indexOf(':', locArgs);
-		// if there are arguments, save them
-		if ((locMsg - locArgs) > 1) {
-			this.arguments = line.substring(locArgs + 1, locMsg - 1);
-		} else if (locMsg < 0) {
-			// there is no message, so arguments go to the end
-			this.arguments = line.substring(locArgs + 1);
-		}
-		// If there is a message, save it
-		if (locMsg > 0) {
-			this.message = line.substring(locMsg + 1);
-			// check if this message is a CTCP request
-			if (this.message.startsWith(IrcPacket.CTCP)
-					&& this.message.endsWith(IrcPacket.CTCP)) {
-				this.ctcp = true;
-				this.message = this.message.substring(1,
-						this.message.length() - 1);
-			}
-		}
-		// check if the command is a server reply
-		this.cmdNumeric = this.getInteger(this.command);
-		if (this.cmdNumeric != -1) {
-			// numeric server response
-			this.numeric = true;
-		}
-		// if possible, parse the sender into a user object
-		// TODO: Get this out of here, this shouldn't be in IrcPacket..
-		if ((this.prefix != null) && (this.prefix.indexOf('!') > 0)) {
-			final String[] stuff = this.prefix.split("@|!");
-			if (stuff.length == 3) {
-				this.sender = new User(stuff[0], stuff[1], stuff[2], null, irc);
-			} else if (stuff.length == 1)
-				this.sender = new User(stuff[0], irc);
-		} else if (prefix != null) {
-			this.sender = new User(this.prefix, irc);
-		}
+	protected IrcPacket(final String line, final IrcConnection irc) {
+		this.irc = irc;
+		this.reset(line);
 	}
 
 	/**
@@ -157,12 +157,27 @@ public final class IrcPacket {
 		this.message = message;
 	}
 
+	/**
+	 * Creates a copy of this packet. sIRC reuses packets for incoming
+	 * lines, so listeners that want to keep a packet after returning
+	 * should keep a copy instead.
+	 * 
+	 * @return A copy of this packet.
+	 * @see CommandListener
+	 */
+	public IrcPacket copy() {
+		return new IrcPacket(this.irc).set(this);
+	}
+
 	/**
 	 * Gives the arguments parsed from this raw server line.
 	 * 
 	 * @return Arguments string, or {@code null} if there were none.
 	 */
 	public String getArguments() {
+		if ((this.arguments == null) && (this.argumentsStart >= 0)) {
+			this.arguments = IrcColors.remove(this.line.substring(this.argumentsStart, this.argumentsEnd));
+		}
 		return this.arguments;
 	}
 
@@ -172,7 +187,8 @@ public final class IrcPacket {
 	 * @return Arguments array, or {@code null} if there were none.
 	 */
 	public String[] getArgumentsArray() {
-		return this.arguments != null ? this.arguments.split(" ") : null;
+		final String arguments = this.getArguments();
+		return arguments != null ? arguments.split(" ") : null;
 	}
 
 	/**
@@ -181,31 +197,39 @@ public final class IrcPacket {
 	 * @return The command string.
 	 */
 	public String getCommand() {
+		if ((this.command == null) && (this.commandStart >= 0)) {
+			this.command = this.line.substring(this.commandStart, this.commandEnd);
+		}
 		return this.command;
 	}
 
 	/**
-	 * Tries to parse given string to an integer.
+	 * Gives the message parsed from this raw server line.
 	 * 
-	 * @param parse
-	 *            String to parse.
-	 * @return Integer value, or -1 if the string is not an integer.
+	 * @return Message string, or {@code null} if there was none.
 	 */
-	private int getInteger(final String parse) {
-		try {
-			return Integer.parseInt(parse);
-		} catch (final NumberFormatException ex) {
-			return -1;
+	public String getMessage() {
+		if ((this.message == null) && (this.messageStart >= 0)) {
+			this.message = IrcColors.remove(this.line.substring(this.messageStart, this.messageEnd));
 		}
+		return this.message;
 	}
 
 	/**
-	 * Gives the message parsed from this raw server line.
+	 * Gives the formatting of the message, as style spans with offsets
+	 * in the message returned by {@link #getMessage()}. The spans are
+	 * parsed the first time they are requested.
 	 * 
-	 * @return Message string, or {@code null} if there was none.
+	 * @return The styled parts of the message, or an empty list if the
+	 *         message has no formatting or there is no message.
+	 * @see #getRawMessage()
 	 */
-	public String getMessage() {
-		return this.message;
+	public List<IrcStyle> getMessageStyles() {
+		if (this.styles == null) {
+			final String raw = this.getRawMessage();
+			this.styles = IrcColors.parse(raw == null ? "" : raw);
+		}
+		return this.styles;
 	}
 
 	/**
@@ -217,6 +241,48 @@ public final class IrcPacket {
 		return this.cmdNumeric;
 	}
 
+	/**
+	 * Gives all parameters of this line: the arguments, followed by the
+	 * message if there is one. The line is only split once, so the
+	 * returned array is shared and must not be modified.
+	 * 
+	 * @return The parameters, or an empty array if there are none.
+	 */
+	public String[] getParameters() {
+		if (this.parameters == null) {
+			final String arguments = this.getArguments();
+			final String message = this.getMessage();
+			int count = message == null ? 0 : 1;
+			if (arguments != null) {
+				for (int i = 0; i < arguments.length(); i++) {
+					if ((arguments.charAt(i) != ' ') && ((i == 0) || (arguments.charAt(i - 1) == ' '))) {
+						count++;
+					}
+				}
+			}
+			final String[] parameters = new String[count];
+			int index = 0;
+			if (arguments != null) {
+				int start = 0;
+				while (start < arguments.length()) {
+					int end = arguments.indexOf(' ', start);
+					if (end < 0) {
+						end = arguments.length();
+					}
+					if (end > start) {
+						parameters[index++] = arguments.substring(start, end);
+					}
+					start = end + 1;
+				}
+			}
+			if (message != null) {
+				parameters[index] = message;
+			}
+			this.parameters = parameters;
+		}
+		return this.parameters;
+	}
+
 	/**
 	 * Gives the prefix of this packet. This usually is the sender of a message.
 	 * You might be able to use {@link #getSender()} instead.
@@ -224,30 +290,115 @@ public final class IrcPacket {
 	 * @return The sender string.
 	 */
 	public String getPrefix() {
+		if ((this.prefix == null) && (this.prefixStart >= 0)) {
+			this.prefix = IrcColors.remove(this.line.substring(this.prefixStart, this.prefixEnd));
+		}
 		return this.prefix;
 	}
 
+	/**
+	 * Gives the message parsed from this raw server line, including
+	 * color codes and other markup.
+	 * 
+	 * @return Message string, or {@code null} if there was none.
+	 * @see #getMessageStyles()
+	 */
+	public String getRawMessage() {
+		if (this.messageStart >= 0) {
+			return this.line.substring(this.messageStart, this.messageEnd);
+		}
+		return this.message;
+	}
+
 	/**
 	 * Generates a raw IRC packet.
 	 * 
 	 * @return IRC String containing the data in this object.
 	 */
 	protected String getRaw() {
-		final StringBuffer buffer = new StringBuffer();
+		final String prefix = this.getPrefix();
+		final String command = this.getCommand();
+		final String arguments = this.getArguments();
+		final String message = this.getMessage();
+		int length = command.length();
+		if (prefix != null) {
+			length += prefix.length() + 2;
+		}
+		if (arguments != null) {
+			length += arguments.length() + 1;
+		}
+		if (message != null) {
+			length += message.length() + 2;
+		}
+		if (this.tagsStart >= 0) {
+			length += this.tagsEnd - this.tagsStart + 2;
+		}
+		final StringBuilder buffer = new StringBuilder(length);
 
-		if ((this.prefix != null) && (this.prefix.length() > 0)) {
-			buffer.append(":").append(this.prefix).append(" ");
+		if ((this.tagsStart >= 0) && (this.tagsEnd > this.tagsStart)) {
+			buffer.append('@').append(this.line, this.tagsStart, this.tagsEnd).append(' ');
 		}
-		buffer.append(this.command);
-		if ((this.arguments != null) && (this.arguments.length() > 0)) {
-			buffer.append(" ").append(this.arguments);
+		if ((prefix != null) && (prefix.length() > 0)) {
+			buffer.append(':').append(prefix).append(' ');
 		}
-		if ((this.message != null) && (this.message.length() > 0)) {
-			buffer.append(" :").append(this.message);
+		buffer.append(command);
+		if ((arguments != null) && (arguments.length() > 0)) {
+			buffer.append(' ').append(arguments);
+		}
+		if ((message != null) && (message.length() > 0)) {
+			buffer.append(" :").append(message);
 		}
 		return buffer.toString();
 	}
 
+	/**
+	 * Returns the time the server sent this line, from the IRCv3
+	 * {@code server-time} tag.
+	 * 
+	 * @return The time in milliseconds since the epoch, or -1 if the
+	 *         line has no valid {@code time} tag.
+	 */
+	public long getServerTime() {
+		final String time = this.getTag("time");
+		if (time == null) {
+			return -1;
+		}
+		// YYYY-MM-DDThh:mm:ss[.sss]Z
+		final int length = time.length();
+		if ((length < 20) || (time.charAt(4) != '-') || (time.charAt(7) != '-') || (time.charAt(10) != 'T') || (time.charAt(13) != ':') || (time.charAt(16) != ':')
+				|| (time.charAt(length - 1) != 'Z')) {
+			return -1;
+		}
+		final int year = IrcPacket.parseDigits(time, 0, 4);
+		final int month = IrcPacket.parseDigits(time, 5, 7);
+		final int day = IrcPacket.parseDigits(time, 8, 10);
+		final int hour = IrcPacket.parseDigits(time, 11, 13);
+		final int minute = IrcPacket.parseDigits(time, 14, 16);
+		final int second = IrcPacket.parseDigits(time, 17, 19);
+		int millis = 0;
+		if (length > 20) {
+			if ((time.charAt(19) != '.') || (length > 24)) {
+				return -1;
+			}
+			millis = IrcPacket.parseDigits(time, 20, length - 1);
+			for (int i = length - 1; i < 23; i++) {
+				millis *= 10;
+			}
+		}
+		if ((year < 0) || (month < 1) || (month > 12) || (day < 1) || (day > 31) || (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59) || (second < 0)
+				|| (second > 60) || (millis < 0)) {
+			return -1;
+		}
+		// days since the epoch, for the proleptic Gregorian calendar
+		final int y = month <= 2 ? year - 1 : year;
+		final int era = y / 400;
+		final int yearOfEra = y - (era * 400);
+		final int dayOfYear = ((153 * (month > 2 ? month - 3 : month + 9)) + 2) / 5 + (day - 1);
+		final int dayOfEra = (yearOfEra * 365) + (yearOfEra / 4) - (yearOfEra / 100) + dayOfYear;
+		final long days = ((long) era * 146097) + dayOfEra - 719468;
+		return (((((days * 24) + hour) * 60) + minute) * 60 + second) * 1000 + millis;
+	}
+
 	/**
 	 * Returns the {@link User} that caused the server to send this packet.
 	 * 
@@ -255,16 +406,118 @@ public final class IrcPacket {
 	 *         user.
 	 */
 	public User getSender() {
+		if ((this.sender == null) && (this.irc != null)) {
+			final String prefix = this.getPrefix();
+			if (prefix == null) {
+				return null;
+			}
+			final int user = prefix.indexOf('!');
+			final int host = prefix.indexOf('@', user + 1);
+			if ((user > 0) && (host > user)) {
+				this.sender = new User(prefix.substring(0, user), prefix.substring(user + 1, host), prefix.substring(host + 1), null, this.irc);
+			} else if (user > 0) {
+				this.sender = new User(prefix.substring(0, user), this.irc);
+			} else {
+				this.sender = new User(prefix, this.irc);
+			}
+		}
 		return this.sender;
 	}
 
+	/**
+	 * Looks up an IRCv3 message tag. Only the requested tag is
+	 * unescaped, the other tags are skipped without creating Strings.
+	 * 
+	 * @param key
+	 *            The tag key, like {@code msgid} or
+	 *            {@code example.com/tag}.
+	 * @return The unescaped value, an empty string if the tag has no
+	 *         value, or {@code null} if the line doesn't have this tag.
+	 */
+	public String getTag(final String key) {
+		if (this.tagsStart < 0) {
+			return null;
+		}
+		final int length = key.length();
+		int pos = this.tagsStart;
+		while (pos < this.tagsEnd) {
+			int end = this.line.indexOf(';', pos);
+			if ((end < 0) || (end > this.tagsEnd)) {
+				end = this.tagsEnd;
+			}
+			if ((pos + length <= end) && this.line.regionMatches(pos, key, 0, length)) {
+				if (pos + length == end) {
+					return "";
+				}
+				if (this.line.charAt(pos + length) == '=') {
+					return IrcPacket.unescapeTag(this.line, pos + length + 1, end);
+				}
+			}
+			pos = end + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * Gives the IRCv3 message tags of this line, as sent by the server.
+	 * 
+	 * @return The escaped tags without the leading {@code @}, or
+	 *         {@code null} if the line has no tags.
+	 * @see #getTag(String)
+	 */
+	public String getTags() {
+		return this.tagsStart >= 0 ? this.line.substring(this.tagsStart, this.tagsEnd) : null;
+	}
+
+	/**
+	 * Calculates the hash code of the command, without creating a
+	 * String. This is the same as {@code getCommand().hashCode()}.
+	 * 
+	 * @return The hash code of the command.
+	 */
+	protected int hashCommand() {
+		if (this.command != null) {
+			return this.command.hashCode();
+		}
+		int hash = 0;
+		for (int i = this.commandStart; i < this.commandEnd; i++) {
+			hash = (31 * hash) + this.line.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Checks whether this line has given command, without creating a
+	 * String.
+	 * 
+	 * @param command
+	 *            The command to compare with.
+	 * @return True if this line has given command.
+	 */
+	protected boolean isCommand(final String command) {
+		if (this.command != null) {
+			return this.command.equals(command);
+		}
+		final int length = this.commandEnd - this.commandStart;
+		return (command.length() == length) && this.line.regionMatches(this.commandStart, command, 0, length);
+	}
+
 	/**
 	 * Checks whether this line had arguments.
 	 * 
 	 * @return True if there were arguments.
 	 */
 	public boolean hasArguments() {
-		return (this.arguments != null) && (this.arguments.length() > 0);
+		return this.getArguments() != null && (this.getArguments().length() > 0);
+	}
+
+	/**
+	 * Checks whether this line had IRCv3 message tags.
+	 * 
+	 * @return True if there were tags.
+	 */
+	public boolean hasTags() {
+		return this.tagsStart >= 0;
 	}
 
 	/**
@@ -273,7 +526,7 @@ public final class IrcPacket {
 	 * @return True if there was a message.
 	 */
 	public boolean hasMessage() {
-		return (this.message != null) && (this.message.trim().length() > 0);
+		return (this.getMessage() != null) && (this.getMessage().trim().length() > 0);
 	}
 
 	/**
@@ -291,6 +544,256 @@ public final class IrcPacket {
 	 * @return True if this line is a numeric reply.
 	 */
 	public boolean isNumeric() {
-		return this.numeric;
+		return this.cmdNumeric != -1;
+	}
+
+	/**
+	 * Parses a new raw line into this packet, replacing its current
+	 * contents. This allows reusing a single packet for every incoming
+	 * line; use {@link #copy()} to keep a packet around.
+	 * 
+	 * @param line
+	 *            Raw data from the server.
+	 * @return This packet.
+	 */
+	protected IrcPacket reset(final String line) {
+		this.line = line;
+		this.prefix = null;
+		this.command = null;
+		this.arguments = null;
+		this.message = null;
+		this.sender = null;
+		this.parameters = null;
+		this.styles = null;
+		this.tagsStart = -1;
+		this.prefixStart = -1;
+		this.argumentsStart = -1;
+		this.messageStart = -1;
+		this.cmdNumeric = -1;
+		this.ctcp = false;
+		final int length = line.length();
+		int pos = 0;
+		// IRCv3 message tags
+		if ((length > 0) && (line.charAt(0) == '@')) {
+			this.tagsStart = 1;
+			this.tagsEnd = this.indexOf(' ', 1);
+			pos = this.skipSpaces(this.tagsEnd);
+		}
+		// some messages don't have a prefix
+		if ((pos < length) && (line.charAt(pos) == ':')) {
+			this.prefixStart = pos + 1;
+			this.prefixEnd = this.indexOf(' ', pos + 1);
+			pos = this.skipSpaces(this.prefixEnd);
+		}
+		// retrieve command
+		this.commandStart = pos;
+		this.commandEnd = this.indexOf(' ', pos);
+		pos = this.skipSpaces(this.commandEnd);
+		// everything behind the first " :" is the message
+		int locMsg;
+		if ((pos < length) && (line.charAt(pos) == ':')) {
+			locMsg = pos;
+		} else {
+			locMsg = line.indexOf(" :", pos);
+			if (locMsg >= 0) {
+				locMsg++;
+			}
+		}
+		// if there are arguments, save them
+		int argumentsEnd = locMsg < 0 ? length : locMsg;
+		while ((argumentsEnd > pos) && (line.charAt(argumentsEnd - 1) == ' ')) {
+			argumentsEnd--;
+		}
+		if (argumentsEnd > pos) {
+			this.argumentsStart = pos;
+			this.argumentsEnd = argumentsEnd;
+		}
+		// If there is a message, save it
+		if (locMsg >= 0) {
+			this.messageStart = locMsg + 1;
+			this.messageEnd = length;
+			// check if this message is a CTCP request
+			if ((length - this.messageStart >= 2) && (line.charAt(this.messageStart) == '\u0001')
+					&& (line.charAt(length - 1) == '\u0001')) {
+				this.ctcp = true;
+				this.messageStart++;
+				this.messageEnd--;
+			}
+		}
+		// check if the command is a server reply
+		this.cmdNumeric = this.parseNumeric(this.commandStart, this.commandEnd);
+		return this;
+	}
+
+
+	/**
+	 * Replaces the contents of this packet with those of another
+	 * packet, including the parts already parsed.
+	 * 
+	 * @param packet The packet to copy.
+	 * @return This packet.
+	 */
+	protected IrcPacket set(final IrcPacket packet) {
+		this.line = packet.line;
+		this.tagsStart = packet.tagsStart;
+		this.tagsEnd = packet.tagsEnd;
+		this.prefixStart = packet.prefixStart;
+		this.prefixEnd = packet.prefixEnd;
+		this.commandStart = packet.commandStart;
+		this.commandEnd = packet.commandEnd;
+		this.argumentsStart = packet.argumentsStart;
+		this.argumentsEnd = packet.argumentsEnd;
+		this.messageStart = packet.messageStart;
+		this.messageEnd = packet.messageEnd;
+		this.cmdNumeric = packet.cmdNumeric;
+		this.ctcp = packet.ctcp;
+		this.prefix = packet.prefix;
+		this.command = packet.command;
+		this.arguments = packet.arguments;
+		this.message = packet.message;
+		this.sender = packet.sender;
+		this.parameters = packet.parameters;
+		this.styles = packet.styles;
+		return this;
+	}
+
+	/**
+	 * Parses everything that is otherwise parsed when first requested,
+	 * so the packet can be read by several threads without any of them
+	 * writing to it.
+	 * 
+	 * @return This packet.
+	 */
+	protected IrcPacket resolve() {
+		this.getCommand();
+		this.getParameters();
+		this.getMessageStyles();
+		this.getSender();
+		return this;
+	}
+	/**
+	 * Finds given character in the line.
+	 * 
+	 * @param c
+	 *            The character to look for.
+	 * @param from
+	 *            Where to start looking.
+	 * @return The position of given character, or the line length if
+	 *         it was not found.
+	 */
+	private int indexOf(final char c, final int from) {
+		final int index = this.line.indexOf(c, from);
+		return index < 0 ? this.line.length() : index;
+	}
+
+	/**
+	 * Parses a number of digits.
+	 * 
+	 * @param text
+	 *            The text.
+	 * @param from
+	 *            Position of the first digit.
+	 * @param to
+	 *            Position after the last digit.
+	 * @return The value, or -1 if a character is not a digit.
+	 */
+	private static int parseDigits(final String text, final int from, final int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			final char c = text.charAt(i);
+			if ((c < '0') || (c > '9')) {
+				return -1;
+			}
+			value = (value * 10) + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Tries to parse part of the line as a numeric reply, without
+	 * creating a String.
+	 * 
+	 * @param from
+	 *            Start of the command.
+	 * @param to
+	 *            End of the command.
+	 * @return Integer value, or -1 if the command is not a number.
+	 */
+	private int parseNumeric(final int from, final int to) {
+		if ((to <= from) || (to - from > 9)) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			final char c = this.line.charAt(i);
+			if ((c < '0') || (c > '9')) {
+				return -1;
+			}
+			value = (value * 10) + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Skips spaces in the line.
+	 * 
+	 * @param from
+	 *            Where to start.
+	 * @return The position of the first character that is not a
+	 *         space.
+	 */
+	private int skipSpaces(int from) {
+		while ((from < this.line.length()) && (this.line.charAt(from) == ' ')) {
+			from++;
+		}
+		return from;
+	}
+
+	/**
+	 * Unescapes the value of a message tag.
+	 * 
+	 * @param line
+	 *            The line.
+	 * @param from
+	 *            Start of the escaped value.
+	 * @param to
+	 *            End of the escaped value.
+	 * @return The value.
+	 */
+	private static String unescapeTag(final String line, final int from, final int to) {
+		final int escape = line.indexOf('\\', from);
+		if ((escape < 0) || (escape >= to)) {
+			return line.substring(from, to);
+		}
+		final StringBuilder value = new StringBuilder(to - from);
+		value.append(line, from, escape);
+		for (int i = escape; i < to; i++) {
+			char c = line.charAt(i);
+			if (c == '\\') {
+				if (++i == to) {
+					// a trailing backslash is dropped
+					break;
+				}
+				c = line.charAt(i);
+				switch (c) {
+					case ':':
+						c = ';';
+						break;
+					case 's':
+						c = ' ';
+						break;
+					case 'r':
+						c = '\r';
+						break;
+					case 'n':
+						c = '\n';
+						break;
+					default:
+						// \\ and unknown escapes are the character itself
+				}
+			}
+			value.append(c);
+		}
+		return value.toString();
 	}
 }
@@ -1,11 +1,77 @@
 package com.sorcix.sirc;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 public final class IrcPacketFactory {
 
 	protected static IrcPacket createAWAY(final String reason) {
 		return new IrcPacket(null, "AWAY", null, reason);
 	}
 
+	protected static List<IrcPacket> createJOIN(final Map<String, String> channels, final int maxTargets) {
+		// channels with a key go first, keys are matched by position
+		final List<String> names = new ArrayList<String>(channels.size());
+		final List<String> keys = new ArrayList<String>();
+		for (final Map.Entry<String, String> channel : channels.entrySet()) {
+			if (channel.getValue() != null) {
+				names.add(channel.getKey());
+				keys.add(channel.getValue());
+			}
+		}
+		for (final Map.Entry<String, String> channel : channels.entrySet()) {
+			if (channel.getValue() == null) {
+				names.add(channel.getKey());
+			}
+		}
+		return IrcPacketFactory.createList("JOIN", names, keys, null, 0, maxTargets);
+	}
+
+	private static List<IrcPacket> createList(final String command, final List<String> targets, final List<String> keys, final String message, final int messageLength, final int maxTargets) {
+		final List<IrcPacket> packets = new ArrayList<IrcPacket>();
+		final StringBuilder list = new StringBuilder();
+		final StringBuilder keyList = new StringBuilder();
+		// leave room for the command, a space, the message and the line ending
+		final int room = IrcOutput.MAX_LINE_LENGTH - command.length() - 3 - (message != null ? messageLength + 2 : 0);
+		int count = 0;
+		for (int i = 0; i < targets.size(); i++) {
+			final String target = targets.get(i);
+			final String key = i < keys.size() ? keys.get(i) : null;
+			final int length = list.length() + (keyList.length() > 0 ? keyList.length() + 1 : 0);
+			final int added = target.length() + 1 + (key != null ? key.length() + 1 : 0);
+			if ((count > 0) && ((count == maxTargets) || (length + added > room))) {
+				packets.add(IrcPacketFactory.createList(command, list, keyList, message));
+				list.setLength(0);
+				keyList.setLength(0);
+				count = 0;
+			}
+			if (count > 0) {
+				list.append(',');
+			}
+			list.append(target);
+			if (key != null) {
+				if (keyList.length() > 0) {
+					keyList.append(',');
+				}
+				keyList.append(key);
+			}
+			count++;
+		}
+		if (count > 0) {
+			packets.add(IrcPacketFactory.createList(command, list, keyList, message));
+		}
+		return packets;
+	}
+
+	private static IrcPacket createList(final String command, final CharSequence targets, final CharSequence keys, final String message) {
+		if (keys.length() == 0) {
+			return new IrcPacket(null, command, targets.toString(), message);
+		}
+		return new IrcPacket(null, command, targets + " " + keys, message);
+	}
+
 	protected static IrcPacket createMOTD() {
 		return new IrcPacket(null, "MOTD", null, null);
 	}
@@ -18,10 +84,22 @@ public final class IrcPacketFactory {
 		return new IrcPacket(null, "NICK", nick, null);
 	}
 
+	protected static List<IrcPacket> createNOTICE(final List<String> targets, final String message, final int messageLength, final int maxTargets) {
+		return IrcPacketFactory.createList("NOTICE", targets, Collections.<String> emptyList(), message, messageLength, maxTargets);
+	}
+
+	protected static List<IrcPacket> createPART(final List<String> channels, final int maxTargets) {
+		return IrcPacketFactory.createList("PART", channels, Collections.<String> emptyList(), null, 0, maxTargets);
+	}
+
 	protected static IrcPacket createPASS(final String password) {
 		return new IrcPacket(null, "PASS", password, null);
 	}
 
+	protected static List<IrcPacket> createPRIVMSG(final List<String> targets, final String message, final int messageLength, final int maxTargets) {
+		return IrcPacketFactory.createList("PRIVMSG", targets, Collections.<String> emptyList(), message, messageLength, maxTargets);
+	}
+
 	protected static IrcPacket createQUIT(final String message) {
 		return new IrcPacket(null, "QUIT", null, message);
 	}
@@ -32,14 +32,112 @@ import java.util.Iterator;
 
 /**
  * Parses incoming messages and calls event handlers.
+ * <p>
+ * Commands are looked up in a table of known commands once, instead of
+ * comparing the command with every known one. Lines with commands or
+ * numeric replies sIRC doesn't know are given to the
+ * {@link CommandListener}s registered for them, or to the
+ * {@link AdvancedListener} if there are none.
+ * </p>
  * 
  * @author Sorcix
  */
 final class IrcParser {
 	
+	/** Command: PRIVMSG. */
+	private static final int PRIVMSG = 1;
+	/** Command: NOTICE. */
+	private static final int NOTICE = 2;
+	/** Command: JOIN. */
+	private static final int JOIN = 3;
+	/** Command: PART. */
+	private static final int PART = 4;
+	/** Command: QUIT. */
+	private static final int QUIT = 5;
+	/** Command: KICK. */
+	private static final int KICK = 6;
+	/** Command: MODE. */
+	private static final int MODE = 7;
+	/** Command: TOPIC. */
+	private static final int TOPIC = 8;
+	/** Command: NICK. */
+	private static final int NICK = 9;
+	/** Command: INVITE. */
+	private static final int INVITE = 10;
+	/** Command: CAP. */
+	private static final int CAP = 11;
+	/** Known commands. */
+	private static final IrcCommandTable<Integer> COMMANDS = new IrcCommandTable<Integer>();
+	
+	static {
+		IrcParser.COMMANDS.put("PRIVMSG", IrcParser.PRIVMSG);
+		IrcParser.COMMANDS.put("NOTICE", IrcParser.NOTICE);
+		IrcParser.COMMANDS.put("JOIN", IrcParser.JOIN);
+		IrcParser.COMMANDS.put("PART", IrcParser.PART);
+		IrcParser.COMMANDS.put("QUIT", IrcParser.QUIT);
+		IrcParser.COMMANDS.put("KICK", IrcParser.KICK);
+		IrcParser.COMMANDS.put("MODE", IrcParser.MODE);
+		IrcParser.COMMANDS.put("TOPIC", IrcParser.TOPIC);
+		IrcParser.COMMANDS.put("NICK", IrcParser.NICK);
+		IrcParser.COMMANDS.put("INVITE", IrcParser.INVITE);
+		IrcParser.COMMANDS.put("CAP", IrcParser.CAP);
+	}
+	
 	/** Buffer for motd. */
 	private StringBuffer buffer = null;
 	
+	/**
+	 * Calls the command listeners registered for given line.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 * @return True if the line was passed to at least one command
+	 *         listener.
+	 */
+	private boolean dispatch(final IrcConnection irc, final IrcPacket line) {
+		final CommandListener[] listeners = irc.getCommandListeners().get(line);
+		if (listeners == null) {
+			return false;
+		}
+		boolean delivered = false;
+		for (final CommandListener listener : listeners) {
+			// subscriptions for other channels or senders don't count
+			if ((listener instanceof IrcSubscriptions.Filter) && !((IrcSubscriptions.Filter) listener).accepts(line)) {
+				continue;
+			}
+			irc.dispatch(listener, CommandListener.class).onCommand(irc, line);
+			delivered = true;
+		}
+		return delivered;
+	}
+	
+	/**
+	 * Parses a name from a NAMES reply. With the multi-prefix
+	 * capability a name can have more than one prefix, of which only
+	 * the first (highest) is kept. With userhost-in-names the
+	 * username and hostname follow the nickname.
+	 * 
+	 * @param name The name, like {@code @+nick!user@host}.
+	 * @param irc The IrcConnection receiving the reply.
+	 * @return The user.
+	 */
+	private static User parseName(final String name, final IrcConnection irc) {
+		int start = 0;
+		while ((start < name.length() - 1) && (User.USER_PREFIX.indexOf(name.charAt(start)) >= 0)) {
+			start++;
+		}
+		final int user = name.indexOf('!', start);
+		final int host = name.indexOf('@', user + 1);
+		if ((start <= 1) && (user < 0)) {
+			return new User(name, irc);
+		}
+		final String nick = (start > 0 ? name.substring(0, 1) : "") + name.substring(start, user < 0 ? name.length() : user);
+		if ((user > 0) && (host > user)) {
+			return new User(nick, name.substring(user + 1, host), name.substring(host + 1), null, irc);
+		}
+		return new User(nick, irc);
+	}
+	
 	/**
 	 * Parses normal IRC commands.
 	 * 
@@ -47,181 +145,301 @@ final class IrcParser {
 	 * @param line The input line.
 	 */
 	protected void parseCommand(final IrcConnection irc, final IrcPacket line) {
-		if (line.getCommand().equals("PRIVMSG") && (line.getArguments() != null)) {
-			if (line.isCtcp()) {
-				// reply to CTCP commands
-				if (line.getMessage().startsWith("ACTION ")) {
-					if (Channel.CHANNEL_PREFIX.indexOf(line.getArguments().charAt(0)) >= 0) {
-						// to channel
-						final Channel chan = irc.getState().getChannel(line.getArguments());
-						for (final Iterator<MessageListener> it = irc.getMessageListeners(); it.hasNext();) {
-							it.next().onAction(irc, chan.updateUser(line.getSender(), true), chan, line.getMessage().substring(7));
-						}
-					} else {
-						// to user
-						for (final Iterator<MessageListener> it = irc.getMessageListeners(); it.hasNext();) {
-							it.next().onAction(irc, line.getSender(), line.getMessage().substring(7));
-						}
+		final Integer command = IrcParser.COMMANDS.get(line);
+		boolean handled = true;
+		switch (command != null ? command : 0) {
+			case PRIVMSG:
+				handled = this.parsePrivmsg(irc, line);
+				break;
+			case NOTICE:
+				handled = this.parseNotice(irc, line);
+				break;
+			case JOIN:
+				this.parseJoin(irc, line);
+				break;
+			case PART:
+				this.parsePart(irc, line);
+				break;
+			case QUIT:
+				this.parseQuit(irc, line);
+				break;
+			case KICK:
+				this.parseKick(irc, line);
+				break;
+			case MODE:
+				this.parseMode(irc, line);
+				break;
+			case TOPIC:
+				this.parseTopic(irc, line);
+				break;
+			case NICK:
+				this.parseNick(irc, line);
+				break;
+			case INVITE:
+				this.parseInvite(irc, line);
+				break;
+			case CAP:
+				// capabilities added or removed after registration
+				irc.handleCapabilities(line);
+				break;
+			default:
+				handled = false;
+		}
+		if (!this.dispatch(irc, line) && !handled) {
+			if (irc.getAdvancedListener() != null) {
+				irc.getAdvancedListener().onUnknown(irc, line.copy());
+			}
+		}
+	}
+	
+	/**
+	 * Parses private messages and CTCP requests.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 * @return False if the line has no arguments.
+	 */
+	private boolean parsePrivmsg(final IrcConnection irc, final IrcPacket line) {
+		if (line.getArguments() == null) {
+			return false;
+		}
+		if (line.isCtcp()) {
+			// reply to CTCP commands
+			if (line.getMessage().startsWith("ACTION ")) {
+				if (Channel.CHANNEL_PREFIX.indexOf(line.getArguments().charAt(0)) >= 0) {
+					// to channel
+					final Channel chan = irc.getState().getChannel(line.getArguments());
+					for (final MessageListener listener : irc.getMessageListeners(chan, line)) {
+						listener.onAction(irc, chan.updateUser(line.getSender(), true), chan, line.getMessage().substring(7));
 					}
-				} else if (line.getMessage().equals("VERSION") || line.getMessage().equals("FINGER")) {
-					// send custom version string
-					line.getSender().sendCtcpReply("VERSION " + irc.getVersion());
-				} else if (line.getMessage().equals("SIRCVERS")) {
-					// send sIRC version information
-					line.getSender().sendCtcpReply("SIRCVERS " + IrcConnection.ABOUT);
-				} else if (line.getMessage().equals("TIME")) {
-					// send current date&time
-					line.getSender().sendCtcpReply(new Date().toString());
-				} else if (line.getMessage().startsWith("PING ")) {
-					// send ping reply
-					line.getSender().sendCtcpReply("PING " + line.getMessage().substring(5), true);
-				} else if (line.getMessage().startsWith("SOURCE")) {
-					// send sIRC source
-					line.getSender().sendCtcpReply("SOURCE http://j-sirc.googlecode.com");
-				} else if (line.getMessage().equals("CLIENTINFO")) {
-					// send client info
-					line.getSender().sendCtcpReply("CLIENTINFO VERSION TIME PING SOURCE FINGER SIRCVERS");
 				} else {
-					// send error message
-					line.getSender().sendCtcpReply("ERRMSG CTCP Command not supported. Use CLIENTINFO to list supported commands.");
-				}
-			} else if (line.getArguments().startsWith("#") || line.getArguments().startsWith("&")) {
-				// to channel
-				final Channel chan = irc.getState().getChannel(line.getArguments());
-				for (final Iterator<MessageListener> it = irc.getMessageListeners(); it.hasNext();) {
-					it.next().onMessage(irc, chan.updateUser(line.getSender(), true), chan, line.getMessage());
-				}
-			} else {
-				// to user
-				for (final Iterator<MessageListener> it = irc.getMessageListeners(); it.hasNext();) {
-					it.next().onPrivateMessage(irc, line.getSender(), line.getMessage());
-				}
-			}
-		} else if (line.getCommand().equals("NOTICE") && (line.getArguments() != null)) {
-			if (line.isCtcp()) {
-				// receive CTCP replies.
-				final int cmdPos = line.getMessage().indexOf(' ');
-				final String command = line.getMessage().substring(0, cmdPos);
-				final String args = line.getMessage().substring(cmdPos + 1);
-				if (command.equals("VERSION") || command.equals("PING") || command.equals("CLIENTINFO")) {
-					for (final Iterator<MessageListener> it = irc.getMessageListeners(); it.hasNext();) {
-						it.next().onCtcpReply(irc, line.getSender(), command, args);
+					// to user
+					for (final MessageListener listener : irc.getMessageListeners(null, line)) {
+						listener.onAction(irc, line.getSender(), line.getMessage().substring(7));
 					}
 				}
-			} else if (Channel.CHANNEL_PREFIX.indexOf(line.getArguments().charAt(0)) >= 0) {
-				// to channel
-				final Channel chan = irc.getState().getChannel(line.getArguments());
-				for (final Iterator<MessageListener> it = irc.getMessageListeners(); it.hasNext();) {
-					it.next().onNotice(irc, chan.updateUser(line.getSender(), true), chan, line.getMessage());
-				}
-			} else {
-				// to user
-				for (final Iterator<MessageListener> it = irc.getMessageListeners(); it.hasNext();) {
-					it.next().onNotice(irc, line.getSender(), line.getMessage());
-				}
-			}
-		} else if (line.getCommand().equals("JOIN")) {
-			// some server seem to send the joined channel as message,
-			// while others have it as an argument. (quakenet related)
-			String channel;
-			if (line.hasMessage()) {
-				channel = line.getMessage();
-			} else {
-				channel = line.getArguments();
-			}
-			// someone joined a channel
-			if (line.getSender().isUs()) {
-				// if the user joining the channel is the client
-				// we need to add it to the channel list.
-				irc.getState().addChannel(new Channel(channel, irc, true));
+			} else if (line.getMessage().equals("VERSION") || line.getMessage().equals("FINGER")) {
+				// send custom version string
+				line.getSender().sendCtcpReply("VERSION " + irc.getVersion());
+			} else if (line.getMessage().equals("SIRCVERS")) {
+				// send sIRC version information
+				line.getSender().sendCtcpReply("SIRCVERS " + IrcConnection.ABOUT);
+			} else if (line.getMessage().equals("TIME")) {
+				// send current date&time
+				line.getSender().sendCtcpReply(new Date().toString());
+			} else if (line.getMessage().startsWith("PING ")) {
+				// send ping reply
+				line.getSender().sendCtcpReply("PING " + line.getMessage().substring(5), true);
+			} else if (line.getMessage().startsWith("SOURCE")) {
+				// send sIRC source
+				line.getSender().sendCtcpReply("SOURCE http://j-sirc.googlecode.com");
+			} else if (line.getMessage().equals("CLIENTINFO")) {
+				// send client info
+				line.getSender().sendCtcpReply("CLIENTINFO VERSION TIME PING SOURCE FINGER SIRCVERS");
 			} else {
-				// add user to channel list.
-				irc.getState().getChannel(channel).addUser(line.getSender());
+				// send error message
+				line.getSender().sendCtcpReply("ERRMSG CTCP Command not supported. Use CLIENTINFO to list supported commands.");
 			}
-			for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-				it.next().onJoin(irc, irc.getState().getChannel(channel), line.getSender());
+		} else if (line.getArguments().startsWith("#") || line.getArguments().startsWith("&")) {
+			// to channel
+			final Channel chan = irc.getState().getChannel(line.getArguments());
+			for (final MessageListener listener : irc.getMessageListeners(chan, line)) {
+				listener.onMessage(irc, chan.updateUser(line.getSender(), true), chan, line.getMessage());
 			}
-		} else if (line.getCommand().equals("PART")) {
-			// someone left a channel
-			if (line.getSender().isUs()) {
-				// if the user leaving the channel is the client
-				// we need to remove it from the channel list
-				irc.getState().removeChannel(line.getArguments());
-				// run garbage collection
-				irc.garbageCollection();
-			} else {
-				// remove user from channel list.
-				irc.getState().getChannel(line.getArguments()).removeUser(line.getSender());
-			}
-			for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-				it.next().onPart(irc, irc.getState().getChannel(line.getArguments()), line.getSender(), line.getMessage());
-			}
-		} else if (line.getCommand().equals("QUIT")) {
-			// someone quit the IRC server
-			final User quitter = line.getSender();
-			for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-				it.next().onQuit(irc, quitter, line.getMessage());
+		} else {
+			// to user
+			for (final MessageListener listener : irc.getMessageListeners(null, line)) {
+				listener.onPrivateMessage(irc, line.getSender(), line.getMessage());
 			}
-			for (final Iterator<Channel> it = irc.getState().getChannels(); it.hasNext();) {
-				final Channel channel = it.next();
-				if (channel.hasUser(quitter)) {
-					channel.removeUser(quitter);
+		}
+		return true;
+	}
+	
+	/**
+	 * Parses notices and CTCP replies.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 * @return False if the line has no arguments.
+	 */
+	private boolean parseNotice(final IrcConnection irc, final IrcPacket line) {
+		if (line.getArguments() == null) {
+			return false;
+		}
+		if (line.isCtcp()) {
+			// receive CTCP replies.
+			final int cmdPos = line.getMessage().indexOf(' ');
+			final String command = line.getMessage().substring(0, cmdPos);
+			final String args = line.getMessage().substring(cmdPos + 1);
+			if (command.equals("VERSION") || command.equals("PING") || command.equals("CLIENTINFO")) {
+				for (final MessageListener listener : irc.getMessageListeners(null, line)) {
+					listener.onCtcpReply(irc, line.getSender(), command, args);
 				}
 			}
-		} else if (line.getCommand().equals("KICK")) {
-			// someone was kicked from a channel
-			final String[] data = line.getArgumentsArray();
-			final User kicked = new User(data[1], irc);
-			final Channel channel = irc.getState().getChannel(data[0]);
-			if (kicked.isUs()) {
-				// if the user leaving the channel is the client
-				// we need to remove it from the channel list
-				irc.getState().removeChannel(data[0]);
-			} else {
-				// remove user from channel list.
-				channel.removeUser(kicked);
-			}
-			for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-				it.next().onKick(irc, channel, line.getSender(), kicked, line.getMessage());
-			}
-		} else if (line.getCommand().equals("MODE")) {
-			this.parseMode(irc, line);
-		} else if (line.getCommand().equals("TOPIC")) {
-			// someone changed the topic.
-			for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-				final Channel chan = irc.getState().getChannel(line.getArguments());
-				it.next().onTopic(irc, chan, chan.updateUser(line.getSender(), false), line.getMessage());
-			}
-		} else if (line.getCommand().equals("NICK")) {
-			User newUser;
-			if (line.hasMessage()) {
-				newUser = new User(line.getMessage(), irc);
-			} else {
-				newUser = new User(line.getArguments(), irc);
-			}
-			// someone changed his nick
-			for (final Iterator<Channel> it = irc.getState().getChannels(); it.hasNext();) {
-				it.next().renameUser(line.getSender().getNickLower(), newUser.getNick());
+		} else if (Channel.CHANNEL_PREFIX.indexOf(line.getArguments().charAt(0)) >= 0) {
+			// to channel
+			final Channel chan = irc.getState().getChannel(line.getArguments());
+			for (final MessageListener listener : irc.getMessageListeners(chan, line)) {
+				listener.onNotice(irc, chan.updateUser(line.getSender(), true), chan, line.getMessage());
 			}
-			// change local user
-			if (line.getSender().isUs()) {
-				irc.getState().getClient().setNick(newUser.getNick());
+		} else {
+			// to user
+			for (final MessageListener listener : irc.getMessageListeners(null, line)) {
+				listener.onNotice(irc, line.getSender(), line.getMessage());
 			}
-			for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-				it.next().onNick(irc, line.getSender(), newUser);
+		}
+		return true;
+	}
+	
+	/**
+	 * Parses channel joins.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 */
+	private void parseJoin(final IrcConnection irc, final IrcPacket line) {
+		// some server seem to send the joined channel as message,
+		// while others have it as an argument. (quakenet related)
+		// With extended-join, the account and real name follow.
+		final String channel = line.getParameters()[0];
+		// someone joined a channel
+		if (line.getSender().isUs()) {
+			// if the user joining the channel is the client
+			// we need to add it to the channel list.
+			irc.getState().addChannel(new Channel(channel, irc, true));
+			// the server told us our host, messages can be longer
+			if ((irc.getOutput() != null) && (line.getPrefix() != null)) {
+				irc.getOutput().setPrefix(line.getPrefix());
 			}
-		} else if (line.getCommand().equals("INVITE")) {
-			// someone was invited
-			final String[] args = line.getArgumentsArray();
-			if ((args.length >= 2) && (line.getMessage() == null)) {
-				final Channel channel = irc.createChannel(args[1]);
-				for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-					it.next().onInvite(irc, line.getSender(), new User(args[0], irc), channel);
-				}
+		} else {
+			// add user to channel list.
+			irc.getState().getChannel(channel).addUser(line.getSender());
+		}
+		for (final ServerListener listener : irc.getServerListeners()) {
+			listener.onJoin(irc, irc.getState().getChannel(channel), line.getSender());
+		}
+	}
+	
+	/**
+	 * Parses channel parts.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 */
+	private void parsePart(final IrcConnection irc, final IrcPacket line) {
+		// someone left a channel
+		if (line.getSender().isUs()) {
+			// if the user leaving the channel is the client
+			// we need to remove it from the channel list
+			irc.getState().removeChannel(line.getArguments());
+			// run garbage collection
+			irc.garbageCollection();
+		} else {
+			// remove user from channel list.
+			irc.getState().getChannel(line.getArguments()).removeUser(line.getSender());
+		}
+		for (final ServerListener listener : irc.getServerListeners()) {
+			listener.onPart(irc, irc.getState().getChannel(line.getArguments()), line.getSender(), line.getMessage());
+		}
+	}
+	
+	/**
+	 * Parses quits.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 */
+	private void parseQuit(final IrcConnection irc, final IrcPacket line) {
+		// someone quit the IRC server
+		final User quitter = line.getSender();
+		for (final ServerListener listener : irc.getServerListeners()) {
+			listener.onQuit(irc, quitter, line.getMessage());
+		}
+		for (final Iterator<Channel> it = irc.getState().getChannels(); it.hasNext();) {
+			final Channel channel = it.next();
+			if (channel.hasUser(quitter)) {
+				channel.removeUser(quitter);
 			}
+		}
+	}
+	
+	/**
+	 * Parses kicks.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 */
+	private void parseKick(final IrcConnection irc, final IrcPacket line) {
+		// someone was kicked from a channel
+		final String[] data = line.getArgumentsArray();
+		final User kicked = new User(data[1], irc);
+		final Channel channel = irc.getState().getChannel(data[0]);
+		if (kicked.isUs()) {
+			// if the user leaving the channel is the client
+			// we need to remove it from the channel list
+			irc.getState().removeChannel(data[0]);
 		} else {
-			if (irc.getAdvancedListener() != null) {
-				irc.getAdvancedListener().onUnknown(irc, line);
+			// remove user from channel list.
+			channel.removeUser(kicked);
+		}
+		for (final ServerListener listener : irc.getServerListeners()) {
+			listener.onKick(irc, channel, line.getSender(), kicked, line.getMessage());
+		}
+	}
+	
+	/**
+	 * Parses topic changes.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 */
+	private void parseTopic(final IrcConnection irc, final IrcPacket line) {
+		// someone changed the topic.
+		for (final ServerListener listener : irc.getServerListeners()) {
+			final Channel chan = irc.getState().getChannel(line.getArguments());
+			listener.onTopic(irc, chan, chan.updateUser(line.getSender(), false), line.getMessage());
+		}
+	}
+	
+	/**
+	 * Parses nickname changes.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 */
+	private void parseNick(final IrcConnection irc, final IrcPacket line) {
+		User newUser;
+		if (line.hasMessage()) {
+			newUser = new User(line.getMessage(), irc);
+		} else {
+			newUser = new User(line.getArguments(), irc);
+		}
+		// someone changed his nick
+		for (final Iterator<Channel> it = irc.getState().getChannels(); it.hasNext();) {
+			it.next().renameUser(line.getSender().getNickLower(), newUser.getNick());
+		}
+		// change local user
+		if (line.getSender().isUs()) {
+			irc.getState().getClient().setNick(newUser.getNick());
+		}
+		for (final ServerListener listener : irc.getServerListeners()) {
+			listener.onNick(irc, line.getSender(), newUser);
+		}
+	}
+	
+	/**
+	 * Parses invites.
+	 * 
+	 * @param irc IrcConnection receiving this line.
+	 * @param line The input line.
+	 */
+	private void parseInvite(final IrcConnection irc, final IrcPacket line) {
+		// someone was invited
+		final String[] args = line.getArgumentsArray();
+		if ((args.length >= 2) && (line.getMessage() == null)) {
+			final Channel channel = irc.createChannel(args[1]);
+			for (final ServerListener listener : irc.getServerListeners()) {
+				listener.onInvite(irc, line.getSender(), new User(args[0], irc), channel);
 			}
 		}
 	}
@@ -236,8 +454,8 @@ final class IrcParser {
 		final String[] args = line.getArgumentsArray();
 		if ((args.length >= 2) && (Channel.CHANNEL_PREFIX.indexOf(args[0].charAt(0)) >= 0)) {
 			// general mode event listener
-			for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-				it.next().onMode(irc, irc.getState().getChannel(args[0]), line.getSender(), line.getArguments().substring(args[0].length() + 1));
+			for (final ServerListener listener : irc.getServerListeners()) {
+				listener.onMode(irc, irc.getState().getChannel(args[0]), line.getSender(), line.getArguments().substring(args[0].length() + 1));
 			}
 			if ((args.length >= 3)) {
 				final Channel channel = irc.getState().getChannel(args[0]);
@@ -253,60 +471,60 @@ final class IrcParser {
 						// voice or devoice
 						irc.askNames(channel);
 						if (enable) {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onVoice(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onVoice(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						} else {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onDeVoice(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onDeVoice(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						}
 					} else if (current == User.MODE_ADMIN) {
 						// admin or deadmin
 						irc.askNames(channel);
 						if (enable) {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onAdmin(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onAdmin(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						} else {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onDeAdmin(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onDeAdmin(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						}
 					} else if (current == User.MODE_OPERATOR) {
 						// op or deop
 						irc.askNames(channel);
 						if (enable) {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onOp(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onOp(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						} else {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onDeOp(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onDeOp(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						}
 					} else if (current == User.MODE_HALF_OP) {
 						// halfop or dehalfop
 						irc.askNames(channel);
 						if (enable) {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onHalfop(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onHalfop(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						} else {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onDeHalfop(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onDeHalfop(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						}
 					} else if (current == User.MODE_FOUNDER) {
 						// founder or defounder
 						irc.askNames(channel);
 						if (enable) {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onFounder(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onFounder(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						} else {
-							for (final Iterator<ModeListener> it = irc.getModeListeners(); it.hasNext();) {
-								it.next().onDeFounder(irc, channel, line.getSender(), irc.createUser(args[x]));
+							for (final ModeListener listener : irc.getModeListeners()) {
+								listener.onDeFounder(irc, channel, line.getSender(), irc.createUser(args[x]));
 							}
 						}
 					}
@@ -322,10 +540,14 @@ final class IrcParser {
 	 * @param line The input line.
 	 */
 	protected void parseNumeric(final IrcConnection irc, final IrcPacket line) {
+		if (irc.handleRegistration(line)) {
+			return;
+		}
+		boolean handled = true;
 		switch (line.getNumericCommand()) {
 			case IrcPacket.RPL_TOPIC:
-				for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-					it.next().onTopic(irc, irc.getState().getChannel(line.getArgumentsArray()[1]), null, line.getMessage());
+				for (final ServerListener listener : irc.getServerListeners()) {
+					listener.onTopic(irc, irc.getState().getChannel(line.getArgumentsArray()[1]), null, line.getMessage());
 				}
 				break;
 			case IrcPacket.RPL_NAMREPLY:
@@ -335,7 +557,7 @@ final class IrcParser {
 					final String[] users = line.getMessage().split(" ");
 					User buffer;
 					for (final String user : users) {
-						buffer = new User(user, irc);
+						buffer = IrcParser.parseName(user, irc);
 						/*
 						 * if (channel.hasUser(buffer)) {
 						 * channel.addUser(buffer); }
@@ -356,11 +578,16 @@ final class IrcParser {
 				if (this.buffer != null) {
 					final String motd = this.buffer.toString();
 					this.buffer = null;
-					for (final Iterator<ServerListener> it = irc.getServerListeners(); it.hasNext();) {
-						it.next().onMotd(irc, motd);
+					for (final ServerListener listener : irc.getServerListeners()) {
+						listener.onMotd(irc, motd);
 					}
 				}
 				break;
+			case IrcPacket.RPL_ISUPPORT:
+				irc.getSupportTokens().add(line);
+				// listeners may still want to read it
+				handled = false;
+				break;
 			case IrcPacket.RPL_BOUNCE:
 				// redirect to another server.
 				if (irc.isBounceAllowed()) {
@@ -375,9 +602,12 @@ final class IrcParser {
 				}
 				break;
 			default:
-				if (irc.getAdvancedListener() != null) {
-					irc.getAdvancedListener().onUnknown(irc, line);
-				}
+				handled = false;
+		}
+		if (!this.dispatch(irc, line) && !handled) {
+			if (irc.getAdvancedListener() != null) {
+				irc.getAdvancedListener().onUnknown(irc, line.copy());
+			}
 		}
 	}
 }
@@ -0,0 +1,98 @@
+/*
+ * IrcPriority.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+/**
+ * Priority of an outgoing message in the message queue.
+ * <p>
+ * Each priority has its own lane in the queue. Lanes are served using
+ * weighted round-robin, so urgent messages skip the backlog of less
+ * urgent ones, while lower priorities still get their share. All
+ * lanes are subject to the same flood control.
+ * </p>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#setPriorityWeight(IrcPriority, int)
+ * @see IrcConnection#sendRaw(String, IrcPriority)
+ */
+public enum IrcPriority {
+	
+	/** Connection control, like PONG, NICK and QUIT. */
+	CONTROL(8),
+	/** Channel moderation, like KICK, MODE and TOPIC. */
+	MODERATION(4),
+	/** Notices, CTCP replies and other commands. */
+	INTERACTIVE(2),
+	/** Messages sent to users and channels. */
+	BULK(1);
+	
+	/** Default number of messages sent per round. */
+	private final int weight;
+	
+	/**
+	 * Creates a new priority.
+	 * 
+	 * @param weight Default number of messages sent per round.
+	 */
+	private IrcPriority(final int weight) {
+		this.weight = weight;
+	}
+	
+	/**
+	 * Returns the default weight of this priority.
+	 * 
+	 * @return The number of messages of this priority sent in every
+	 *         round of the message queue.
+	 */
+	public int getDefaultWeight() {
+		return this.weight;
+	}
+	
+	/**
+	 * Determines the priority of a raw line by its command.
+	 * 
+	 * @param line The raw IRC line.
+	 * @return The priority to use.
+	 */
+	protected static IrcPriority of(final String line) {
+		int end = line.indexOf(' ');
+		if (end < 0) {
+			end = line.length();
+		}
+		final String command = line.substring(0, end).toUpperCase();
+		if (command.equals("PRIVMSG")) {
+			return BULK;
+		} else if (command.equals("PONG") || command.equals("PING") || command.equals("NICK") || command.equals("QUIT") || command.equals("PASS")
+				|| command.equals("USER")) {
+			return CONTROL;
+		} else if (command.equals("KICK") || command.equals("MODE") || command.equals("TOPIC") || command.equals("INVITE")) {
+			return MODERATION;
+		}
+		return INTERACTIVE;
+	}
+}
@@ -28,34 +28,78 @@
 package com.sorcix.sirc;
 
 import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Outgoing message queue.
+ * <p>
+ * Messages are kept in a lane per {@link IrcPriority}. Every round,
+ * each lane may send as many messages as its weight, higher priorities
+ * first. A new round starts when all lanes with messages have used
+ * their share.
+ * </p>
+ * <p>
+ * Within a lane, every target (channel or nickname) has its own
+ * queue, and targets take turns using deficit round-robin. Flooding
+ * one channel only delays the messages to that channel.
+ * </p>
+ * <p>
+ * Any thread may add messages, but only one thread at a time may take
+ * them. Adding never locks: new messages are pushed on a lock-free
+ * linked list, which the taking thread moves into the lanes.
+ * </p>
  * 
  * @author Sorcix
  */
 final class IrcQueue {
 	
-	/** Message Queue. */
-	private final ArrayDeque<String> queue;
+	/** Deficit added to a target every turn. */
+	private static final int QUANTUM = IrcOutput.MAX_LINE_LENGTH;
+	/** Fixed cost of a line, on top of its length. */
+	private static final int LINE_COST = IrcQueue.QUANTUM / 2;
+	/** The IrcConnection, holding the lane weights. */
+	private final IrcConnection irc;
+	/** Message lanes, by priority. Only used by the taking thread. */
+	private final Lane[] lanes;
+	/** Messages each lane may still send this round. */
+	private final int[] credits;
+	/** Last message added, producers append after this node. */
+	private final AtomicReference<Node> tail;
+	/** Last message moved into the lanes. */
+	private Node head;
+	/** Total number of queued messages. */
+	private final AtomicInteger size = new AtomicInteger(0);
+	/** Thread waiting in {@link #take()}, if any. */
+	private volatile Thread waiter = null;
 	
 	/**
 	 * Creates a new outgoing message queue.
+	 * 
+	 * @param irc The IrcConnection using this queue.
 	 */
-	protected IrcQueue() {
-		this.queue = new ArrayDeque<String>(8);
+	protected IrcQueue(final IrcConnection irc) {
+		this.irc = irc;
+		this.lanes = new Lane[IrcPriority.values().length];
+		for (int i = 0; i < this.lanes.length; i++) {
+			this.lanes[i] = new Lane();
+		}
+		this.credits = new int[this.lanes.length];
+		this.head = new Node(null, null, false);
+		this.tail = new AtomicReference<Node>(this.head);
 	}
 	
 	/**
 	 * Adds raw message to queue.
 	 * 
 	 * @param line The raw IRC line to add to the queue.
+	 * @param priority The priority of the message.
 	 */
-	protected void add(final String line) {
-		synchronized (this.queue) {
-			this.queue.addLast(line);
-			this.queue.notify();
-		}
+	protected void add(final String line, final IrcPriority priority) {
+		this.push(new Node(line, priority, false));
 	}
 	
 	/**
@@ -66,30 +110,248 @@ final class IrcQueue {
 	 * @param line The raw IRC line to add to the queue.
 	 */
 	protected void addToFront(final String line) {
-		synchronized (this.queue) {
-			this.queue.addFirst(line);
-			this.queue.notify();
+		this.push(new Node(line, IrcPriority.CONTROL, true));
+	}
+	
+	/**
+	 * Moves all added messages into the lanes. Only called by the
+	 * taking thread.
+	 */
+	private void drain() {
+		Node next;
+		while ((next = this.head.next) != null) {
+			this.lanes[next.priority.ordinal()].add(IrcQueue.getTarget(next.line), next.line, next.first);
+			// the node becomes the new stub
+			this.head = next;
+			next.line = null;
+		}
+	}
+	
+	/**
+	 * Returns the target of a raw line, which is its first parameter.
+	 * 
+	 * @param line The raw IRC line.
+	 * @return The target in lowercase, or an empty string if the line
+	 *         has no target.
+	 */
+	private static String getTarget(final String line) {
+		final int start = line.indexOf(' ') + 1;
+		if ((start == 0) || (start == line.length()) || (line.charAt(start) == ':')) {
+			return "";
+		}
+		int end = line.indexOf(' ', start);
+		if (end < 0) {
+			end = line.length();
+		}
+		return line.substring(start, end).toLowerCase();
+	}
+	
+	/**
+	 * Checks whether the queue is empty.
+	 * 
+	 * @return True if there are no lines in the queue.
+	 */
+	protected boolean isEmpty() {
+		return this.size.get() <= 0;
+	}
+	
+	/**
+	 * Takes the next line from the lanes. Must be called by the taking
+	 * thread, with at least one line in the lanes.
+	 * 
+	 * @return The raw IRC line.
+	 */
+	private String next() {
+		while (true) {
+			for (int i = 0; i < this.lanes.length; i++) {
+				if ((this.credits[i] > 0) && !this.lanes[i].isEmpty()) {
+					this.credits[i]--;
+					this.size.decrementAndGet();
+					return this.lanes[i].poll();
+				}
+			}
+			// all lanes with messages used their share, next round
+			final int[] weights = this.irc.getPriorityWeights();
+			for (int i = 0; i < this.credits.length; i++) {
+				this.credits[i] = weights[i];
+			}
+		}
+	}
+	
+	/**
+	 * Takes a raw line from the queue, without waiting.
+	 * 
+	 * @return A raw IRC line to be sent, or null if the queue is empty.
+	 */
+	protected String poll() {
+		this.drain();
+		for (final Lane lane : this.lanes) {
+			if (!lane.isEmpty()) {
+				return this.next();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Appends a message and wakes up the taking thread.
+	 * 
+	 * @param node The message.
+	 */
+	private void push(final Node node) {
+		this.tail.getAndSet(node).next = node;
+		this.size.incrementAndGet();
+		final Thread waiter = this.waiter;
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
 		}
 	}
 	
 	/**
-	 * Takes a raw line from the queue.
+	 * Takes a raw line from the queue, waiting until one is available.
 	 * 
-	 * @return A raw IRC line to be sent.
+	 * @return A raw IRC line to be sent, or null if the thread was
+	 *         interrupted.
 	 */
 	protected String take() {
 		String line;
-		synchronized (this.queue) {
-			if (this.queue.isEmpty()) {
-				try {
-					this.queue.wait();
-				} catch (final InterruptedException e) {
-					return null;
+		while ((line = this.poll()) == null) {
+			this.waiter = Thread.currentThread();
+			if (this.size.get() <= 0) {
+				LockSupport.park(this);
+			}
+			this.waiter = null;
+			if (Thread.interrupted()) {
+				return null;
+			}
+		}
+		return line;
+	}
+	
+	/**
+	 * Messages of one priority, queued per target.
+	 */
+	private static final class Lane {
+		
+		/** Queued targets, by name. */
+		private final Map<String, Target> targets = new HashMap<String, Target>();
+		/** Targets with queued messages, in the order they are served. */
+		private final ArrayDeque<Target> active = new ArrayDeque<Target>();
+		
+		/**
+		 * Adds a line to this lane.
+		 * 
+		 * @param name The target of the line.
+		 * @param line The raw IRC line.
+		 * @param first Whether to send this line first.
+		 */
+		private void add(final String name, final String line, final boolean first) {
+			Target target = this.targets.get(name);
+			if (target == null) {
+				target = new Target(name);
+				this.targets.put(name, target);
+				if (first) {
+					this.active.addFirst(target);
+				} else {
+					this.active.addLast(target);
 				}
+			} else if (first && (this.active.peekFirst() != target)) {
+				this.active.remove(target);
+				this.active.addFirst(target);
 			}
-			line = this.queue.getFirst();
-			this.queue.removeFirst();
-			return line;
+			if (first) {
+				target.lines.addFirst(line);
+				target.deficit = Math.max(target.deficit, IrcQueue.LINE_COST + line.length());
+			} else {
+				target.lines.addLast(line);
+			}
+		}
+		
+		/**
+		 * Checks whether this lane is empty.
+		 * 
+		 * @return True if there are no lines in this lane.
+		 */
+		private boolean isEmpty() {
+			return this.active.isEmpty();
+		}
+		
+		/**
+		 * Takes the next line from this lane. The target in front may
+		 * send lines until its deficit runs out, after which it gets a
+		 * new quantum and moves to the back.
+		 * 
+		 * @return The raw IRC line.
+		 */
+		private String poll() {
+			while (true) {
+				final Target target = this.active.peekFirst();
+				final String line = target.lines.peekFirst();
+				final int cost = IrcQueue.LINE_COST + line.length();
+				if (target.deficit >= cost) {
+					target.deficit -= cost;
+					target.lines.pollFirst();
+					if (target.lines.isEmpty()) {
+						this.active.pollFirst();
+						this.targets.remove(target.name);
+					}
+					return line;
+				}
+				target.deficit += IrcQueue.QUANTUM;
+				if (this.active.size() > 1) {
+					this.active.addLast(this.active.pollFirst());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Messages queued for a single target.
+	 */
+	private static final class Target {
+		
+		/** The target name. */
+		private final String name;
+		/** Queued lines. */
+		private final ArrayDeque<String> lines = new ArrayDeque<String>(4);
+		/** Number of bytes this target may still send this turn. */
+		private int deficit = IrcQueue.QUANTUM;
+		
+		/**
+		 * Creates a new target.
+		 * 
+		 * @param name The target name.
+		 */
+		private Target(final String name) {
+			this.name = name;
+		}
+	}
+	
+	/**
+	 * A message added to the queue, linked to the next one.
+	 */
+	private static final class Node {
+		
+		/** The raw IRC line. */
+		private String line;
+		/** The priority of the message. */
+		private final IrcPriority priority;
+		/** Whether to send this message first. */
+		private final boolean first;
+		/** The next message, set by the thread adding it. */
+		private volatile Node next = null;
+		
+		/**
+		 * Creates a new node.
+		 * 
+		 * @param line The raw IRC line.
+		 * @param priority The priority of the message.
+		 * @param first Whether to send this message first.
+		 */
+		private Node(final String line, final IrcPriority priority, final boolean first) {
+			this.line = line;
+			this.priority = priority;
+			this.first = first;
 		}
 	}
-}
\ No newline at end of file
+}
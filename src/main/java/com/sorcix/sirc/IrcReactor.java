@@ -0,0 +1,140 @@
+/*
+ * IrcReactor.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.io.IOException;
+
+/**
+ * Drives many {@link IrcConnection}s from a small, fixed number of
+ * threads.
+ * <p>
+ * By default every {@code IrcConnection} uses two threads, one to
+ * read from and one to write to the server. Connections using an
+ * {@code IrcReactor} share its event loops instead, each of which
+ * handles reads, writes and outgoing message delays for all
+ * connections assigned to it using a {@link java.nio.channels.Selector}.
+ * </p>
+ * 
+ * <pre>
+ * IrcReactor reactor = new IrcReactor(2);
+ * for (IrcConnection irc : connections) {
+ * 	irc.setReactor(reactor);
+ * 	irc.connect();
+ * }
+ * </pre>
+ * <p>
+ * Listeners are called on the event loop threads, so they should
+ * return quickly. SSL connections are not supported by the reactor
+ * and will keep using their own threads. The event loops are started
+ * when the first connection is registered and keep running until
+ * {@link #shutdown()} is called.
+ * </p>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#setReactor(IrcReactor)
+ */
+public final class IrcReactor {
+
+	/** The event loops, started on first use. */
+	private final IrcEventLoop[] loops;
+	/** Index of the event loop receiving the next connection. */
+	private int next = 0;
+	/** Whether this reactor was shut down. */
+	private boolean shutdown = false;
+
+	/**
+	 * Creates a new reactor using one event loop per available
+	 * processor.
+	 */
+	public IrcReactor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new reactor.
+	 * 
+	 * @param threads The number of event loop threads to use.
+	 */
+	public IrcReactor(final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Reactor needs at least one thread!");
+		}
+		this.loops = new IrcEventLoop[threads];
+	}
+
+	/**
+	 * Returns the number of event loop threads used by this reactor.
+	 * 
+	 * @return The number of event loop threads.
+	 */
+	public int getThreadCount() {
+		return this.loops.length;
+	}
+
+	/**
+	 * Checks whether this reactor was shut down.
+	 * 
+	 * @return True if {@link #shutdown()} was called, false otherwise.
+	 */
+	public synchronized boolean isShutdown() {
+		return this.shutdown;
+	}
+
+	/**
+	 * Selects the event loop for a new connection. Connections are
+	 * spread over the event loops using round-robin.
+	 * 
+	 * @return The event loop to use.
+	 * @throws IOException If the event loop could not be started.
+	 */
+	protected synchronized IrcEventLoop next() throws IOException {
+		if (this.shutdown) {
+			throw new IllegalStateException("Reactor was shut down!");
+		}
+		final int index = this.next;
+		this.next = (index + 1) % this.loops.length;
+		if (this.loops[index] == null) {
+			this.loops[index] = new IrcEventLoop("sIRC-LOOP:" + index);
+			this.loops[index].start();
+		}
+		return this.loops[index];
+	}
+
+	/**
+	 * Stops all event loops. Connections still registered with this
+	 * reactor are closed.
+	 */
+	public synchronized void shutdown() {
+		this.shutdown = true;
+		for (final IrcEventLoop loop : this.loops) {
+			if (loop != null) {
+				loop.shutdown();
+			}
+		}
+	}
+}
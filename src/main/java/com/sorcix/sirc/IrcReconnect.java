@@ -0,0 +1,122 @@
+/*
+ * IrcReconnect.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.util.Random;
+
+/**
+ * Describes how sIRC reconnects after losing the connection to the
+ * server.
+ * <p>
+ * When the connection is lost without calling
+ * {@link IrcConnection#disconnect()}, sIRC waits and connects again,
+ * trying the given servers in turn, starting with the one that was
+ * lost. Once registered, the channels the client was in are joined
+ * again using as few JOIN commands as possible.
+ * </p>
+ * <p>
+ * The delay doubles after every failed attempt, up to a maximum. A
+ * random part of it is left out, so many clients losing the same
+ * server don't all come back at the same moment.
+ * </p>
+ * 
+ * <pre>
+ * // wait 1 to 2 seconds, doubling up to 5 minutes
+ * irc.setReconnect(new IrcReconnect(2000, 300000,
+ * 		new IrcServer("irc.example.com"), new IrcServer("irc2.example.com")));
+ * </pre>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#setReconnect(IrcReconnect)
+ */
+public final class IrcReconnect {
+	
+	/** Used to spread attempts. */
+	private static final Random RANDOM = new Random();
+	/** Delay before the first attempt, in milliseconds. */
+	private final long minDelay;
+	/** Maximum delay between attempts, in milliseconds. */
+	private final long maxDelay;
+	/** The servers to try, or empty to use the lost server. */
+	private final IrcServer[] servers;
+	
+	/**
+	 * Creates a new reconnect policy. Up to half of every delay is left
+	 * out randomly.
+	 * 
+	 * @param minDelay Delay before the first attempt, in milliseconds.
+	 * @param maxDelay Maximum delay between attempts, in milliseconds.
+	 * @param servers The servers to try in turn, or none to only try the
+	 *            server that was lost.
+	 */
+	public IrcReconnect(final int minDelay, final int maxDelay, final IrcServer... servers) {
+		if ((minDelay < 1) || (maxDelay < minDelay)) {
+			throw new IllegalArgumentException("Delays must be positive, and the maximum at least the minimum!");
+		}
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+		this.servers = servers.clone();
+	}
+	
+	/**
+	 * Calculates how long to wait before an attempt.
+	 * 
+	 * @param attempt The number of failed attempts so far.
+	 * @return The delay in milliseconds.
+	 */
+	protected long getDelay(final int attempt) {
+		long delay = this.minDelay;
+		for (int i = 0; (i < attempt) && (delay < this.maxDelay); i++) {
+			delay *= 2;
+		}
+		delay = Math.min(delay, this.maxDelay);
+		final long half = delay / 2;
+		return (delay - half) + (long) (IrcReconnect.RANDOM.nextDouble() * (half + 1));
+	}
+	
+	/**
+	 * Returns the server to use for an attempt.
+	 * 
+	 * @param lost The server that was lost.
+	 * @param attempt The number of failed attempts so far.
+	 * @return The server to connect to.
+	 */
+	protected IrcServer getServer(final IrcServer lost, final int attempt) {
+		if (this.servers.length == 0) {
+			return lost;
+		}
+		int first = 0;
+		for (int i = 0; i < this.servers.length; i++) {
+			if (this.servers[i] == lost) {
+				first = i;
+				break;
+			}
+		}
+		return this.servers[(first + attempt) % this.servers.length];
+	}
+}
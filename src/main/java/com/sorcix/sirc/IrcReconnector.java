@@ -0,0 +1,93 @@
+/*
+ * IrcReconnector.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reconnects a lost {@link IrcConnection} on its own thread, and
+ * rejoins its channels once registered.
+ * 
+ * @author Sorcix
+ * @see IrcReconnect
+ */
+final class IrcReconnector implements Runnable {
+	
+	/** The connection to reconnect. */
+	private final IrcConnection irc;
+	/** How to reconnect. */
+	private final IrcReconnect policy;
+	/** The server that was lost. */
+	private final IrcServer lost;
+	/** The channels to rejoin, with their keys. */
+	private final Map<String, String> channels;
+	
+	/**
+	 * Creates a new reconnector.
+	 * 
+	 * @param irc The connection to reconnect.
+	 * @param policy How to reconnect.
+	 * @param channels The channels to rejoin, mapped to their key or
+	 *            {@code null}.
+	 */
+	protected IrcReconnector(final IrcConnection irc, final IrcReconnect policy, final Map<String, String> channels) {
+		this.irc = irc;
+		this.policy = policy;
+		this.lost = irc.getServer();
+		this.channels = channels;
+	}
+	
+	@Override
+	public void run() {
+		final Thread current = Thread.currentThread();
+		for (int attempt = 0;; attempt++) {
+			try {
+				Thread.sleep(this.policy.getDelay(attempt));
+			} catch (final InterruptedException ex) {
+				return;
+			}
+			if (!this.irc.isReconnecting(current)) {
+				return;
+			}
+			this.irc.setServer(this.policy.getServer(this.lost, attempt));
+			final IrcConnectFuture future = this.irc.connectAsync();
+			try {
+				future.get();
+			} catch (final ExecutionException ex) {
+				IrcDebug.log("Reconnecting failed: " + ex.getCause());
+				continue;
+			} catch (final InterruptedException ex) {
+				future.cancel(true);
+				return;
+			}
+			this.irc.rejoin(current, this.channels);
+			return;
+		}
+	}
+}
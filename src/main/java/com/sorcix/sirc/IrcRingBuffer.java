@@ -0,0 +1,249 @@
+/*
+ * IrcRingBuffer.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands every incoming line to groups of {@link CommandListener}s on
+ * their own threads, using a ring of preallocated packets.
+ * <p>
+ * The input thread parses each line once, and copies the result into
+ * the next slot of the ring. Every group has its own thread and its
+ * own position in the ring, and calls its listeners for all lines
+ * available at once. Groups never wait for each other, and adding a
+ * line takes no lock. When the slowest group falls a whole ring
+ * behind, the input thread waits for it.
+ * </p>
+ * 
+ * <pre>
+ * IrcRingBuffer ring = new IrcRingBuffer(irc, 1024);
+ * ring.addGroup(logger);
+ * ring.addGroup(statistics, commandHandler);
+ * irc.setRingBuffer(ring);
+ * </pre>
+ * <p>
+ * Packets given to the listeners belong to the ring, and must not be
+ * kept after returning; use {@link IrcPacket#copy()} instead. They are
+ * shared by all groups, so listeners should only read them. Lines
+ * are added after sIRC handled them, so channels and users are up to
+ * date. PING is answered by the input thread and not added.
+ * </p>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#setRingBuffer(IrcRingBuffer)
+ */
+public final class IrcRingBuffer {
+	
+	/** Nanoseconds the input thread waits for a full ring. */
+	private static final long FULL_WAIT = 100000L;
+	/** The IrcConnection. */
+	private final IrcConnection irc;
+	/** The slots. */
+	private final IrcPacket[] slots;
+	/** Mask to find the slot of a sequence number. */
+	private final int mask;
+	/** Sequence number of the last added line. */
+	private volatile long cursor = -1;
+	/** Lowest group sequence number seen by the input thread. */
+	private long gate = -1;
+	/** The consumer groups. */
+	private volatile Group[] groups = new Group[0];
+	/** Whether this ring was shut down. */
+	private volatile boolean shutdown = false;
+	
+	/**
+	 * Creates a new ring buffer.
+	 * 
+	 * @param irc The IrcConnection adding lines to this ring.
+	 * @param size The number of slots, rounded up to a power of two.
+	 */
+	public IrcRingBuffer(final IrcConnection irc, final int size) {
+		if ((size < 1) || (size > (1 << 30))) {
+			throw new IllegalArgumentException("Invalid ring buffer size!");
+		}
+		int slots = 1;
+		while (slots < size) {
+			slots <<= 1;
+		}
+		this.irc = irc;
+		this.slots = new IrcPacket[slots];
+		for (int i = 0; i < slots; i++) {
+			this.slots[i] = new IrcPacket(irc);
+		}
+		this.mask = slots - 1;
+	}
+	
+	/**
+	 * Adds a group of listeners with its own thread. The group starts
+	 * with the next line added to the ring. Listeners in a group are
+	 * called in the given order.
+	 * 
+	 * @param listeners The listeners in this group.
+	 */
+	public synchronized void addGroup(final CommandListener... listeners) {
+		if (this.shutdown) {
+			throw new IllegalStateException("Ring buffer was shut down!");
+		}
+		final Group group = new Group(listeners.clone(), this.cursor);
+		final Group[] groups = new Group[this.groups.length + 1];
+		System.arraycopy(this.groups, 0, groups, 0, this.groups.length);
+		groups[this.groups.length] = group;
+		this.groups = groups;
+		final Thread thread = this.irc.newThread(group, "sIRC-RING:" + this.irc.getServerAddress() + "-" + this.groups.length, Thread.NORM_PRIORITY,
+				true);
+		thread.start();
+	}
+	
+	/**
+	 * Returns the number of slots in this ring.
+	 * 
+	 * @return The ring size.
+	 */
+	public int getSize() {
+		return this.slots.length;
+	}
+	
+	/**
+	 * Returns the lowest sequence number of all groups.
+	 * 
+	 * @param max The value to return if there are no groups.
+	 * @return The lowest sequence number.
+	 */
+	private long getMinimumSequence(final long max) {
+		long minimum = max;
+		for (final Group group : this.groups) {
+			minimum = Math.min(minimum, group.sequence);
+		}
+		return minimum;
+	}
+	
+	/**
+	 * Checks whether this ring was created for given connection.
+	 * 
+	 * @param irc The IrcConnection.
+	 * @return True if the ring belongs to given connection.
+	 */
+	protected boolean isFor(final IrcConnection irc) {
+		return this.irc == irc;
+	}
+	
+	/**
+	 * Adds a handled line to the ring. Only called by the input thread.
+	 * 
+	 * @param packet The parsed line.
+	 */
+	protected void publish(final IrcPacket packet) {
+		final long next = this.cursor + 1;
+		final long wrap = next - this.slots.length;
+		while (wrap > this.gate) {
+			this.gate = this.getMinimumSequence(next - 1);
+			if ((wrap > this.gate) && !this.shutdown) {
+				LockSupport.parkNanos(this, IrcRingBuffer.FULL_WAIT);
+			} else if (this.shutdown) {
+				return;
+			}
+		}
+		// groups read the slot concurrently, so nothing is left to parse
+		this.slots[(int) next & this.mask].set(packet).resolve();
+		this.cursor = next;
+		for (final Group group : this.groups) {
+			final Thread waiter = group.waiter;
+			if (waiter != null) {
+				LockSupport.unpark(waiter);
+			}
+		}
+	}
+	
+	/**
+	 * Stops all groups. Lines already added are not delivered anymore.
+	 */
+	public synchronized void shutdown() {
+		this.shutdown = true;
+		for (final Group group : this.groups) {
+			final Thread waiter = group.waiter;
+			if (waiter != null) {
+				LockSupport.unpark(waiter);
+			}
+		}
+	}
+	
+	/**
+	 * Listeners sharing a thread and a position in the ring.
+	 */
+	private final class Group implements Runnable {
+		
+		/** The listeners. */
+		private final CommandListener[] listeners;
+		/** Sequence number of the last line handled by this group. */
+		private volatile long sequence;
+		/** The thread of this group while it is waiting for lines. */
+		private volatile Thread waiter = null;
+		
+		/**
+		 * Creates a new group.
+		 * 
+		 * @param listeners The listeners.
+		 * @param sequence Sequence number of the last line to skip.
+		 */
+		private Group(final CommandListener[] listeners, final long sequence) {
+			this.listeners = listeners;
+			this.sequence = sequence;
+		}
+		
+		@Override
+		public void run() {
+			final IrcRingBuffer ring = IrcRingBuffer.this;
+			long next = this.sequence + 1;
+			while (!ring.shutdown) {
+				final long available = ring.cursor;
+				if (available < next) {
+					this.waiter = Thread.currentThread();
+					if ((ring.cursor < next) && !ring.shutdown) {
+						LockSupport.park(this);
+					}
+					this.waiter = null;
+					continue;
+				}
+				// handle all available lines, then move forward once
+				for (; next <= available; next++) {
+					final IrcPacket packet = ring.slots[(int) next & ring.mask];
+					for (final CommandListener listener : this.listeners) {
+						try {
+							listener.onCommand(ring.irc, packet);
+						} catch (final Exception ex) {
+							IrcDebug.log("Exception " + ex + " on: " + packet.getRaw());
+							ex.printStackTrace();
+						}
+					}
+				}
+				this.sequence = available;
+			}
+		}
+	}
+}
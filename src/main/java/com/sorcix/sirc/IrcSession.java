@@ -0,0 +1,454 @@
+/*
+ * IrcSession.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection handled by an {@link IrcEventLoop}.
+ * <p>
+ * The registration handshake is done with the channel in blocking
+ * mode, after which {@link #register(IrcReactor)} switches it to
+ * non-blocking mode and hands it to an event loop. Bytes read during
+ * the handshake but not yet handled stay in the {@link IrcLineReader}.
+ * </p>
+ * <p>
+ * Alternatively, {@link #connect(IrcReactor, Runnable)} hands a
+ * channel that is still connecting to an event loop right away, and
+ * registration is done by the input handler like any other line.
+ * </p>
+ * 
+ * @author Sorcix
+ */
+final class IrcSession {
+
+	/** Initial size of the output buffer. */
+	private static final int BUFFER_SIZE = 8192;
+	/** The socket channel. */
+	private final SocketChannel channel;
+	/** Splits incoming data into lines. */
+	private final IrcLineReader reader;
+	/** Outgoing data, guarded by {@code this}. */
+	private ByteBuffer output;
+	/** Whether a flush was already submitted to the event loop. */
+	private final AtomicBoolean flushing = new AtomicBoolean(false);
+	/** Whether this session is waiting to send queued messages. */
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	/** Whether this session was closed. */
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	/** When the next queued message is due, used by the event loop. */
+	private long due;
+	/** The event loop, or null during the handshake. */
+	private volatile IrcEventLoop loop = null;
+	/** The selection key. */
+	private SelectionKey key = null;
+	/** Input handler. */
+	private IrcInput in = null;
+	/** Output handler. */
+	private IrcOutput out = null;
+	/** Called once a connecting channel is connected. */
+	private Runnable connected = null;
+	/** Why connecting failed, if it did. */
+	private volatile IOException error = null;
+
+	/**
+	 * Creates a new session.
+	 * 
+	 * @param irc The IrcConnection using this session.
+	 * @param channel The channel, connected in blocking mode or
+	 *            connecting in non-blocking mode.
+	 */
+	protected IrcSession(final IrcConnection irc, final SocketChannel channel) {
+		this.channel = channel;
+		this.reader = new IrcLineReader(irc.getCharset());
+		this.output = ByteBuffer.allocate(IrcSession.BUFFER_SIZE);
+	}
+
+	/**
+	 * Sets the input and output handlers of this session.
+	 * 
+	 * @param in The input handler.
+	 * @param out The output handler.
+	 */
+	protected void attach(final IrcInput in, final IrcOutput out) {
+		this.in = in;
+		this.out = out;
+	}
+
+	/**
+	 * Closes this session. If it was registered with an event loop,
+	 * the input handler is told the connection was lost.
+	 */
+	protected void close() {
+		if (!this.closed.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			this.channel.close();
+		} catch (final IOException ex) {
+			// ignore
+		}
+		final IrcEventLoop loop = this.loop;
+		if (loop != null) {
+			loop.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					IrcSession.this.in.finish();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Hands a non-blocking channel that is still connecting to an event
+	 * loop of given reactor. If connecting fails, the session is
+	 * closed.
+	 * 
+	 * @param reactor The reactor to use.
+	 * @param connected Called on the event loop once connected.
+	 * @throws IOException If the reactor could not be started.
+	 */
+	protected void connect(final IrcReactor reactor, final Runnable connected) throws IOException {
+		final IrcEventLoop loop = reactor.next();
+		synchronized (this) {
+			this.loop = loop;
+		}
+		loop.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				IrcSession.this.connected = connected;
+				try {
+					IrcSession.this.key = loop.register(IrcSession.this.channel, IrcSession.this, SelectionKey.OP_CONNECT);
+				} catch (final IOException ex) {
+					IrcSession.this.error = ex;
+					IrcSession.this.close();
+					return;
+				}
+				IrcSession.this.finishConnect();
+			}
+		});
+	}
+
+	/**
+	 * Returns why connecting the channel failed.
+	 * 
+	 * @return The exception, or null if connecting did not fail.
+	 */
+	protected IOException getError() {
+		return this.error;
+	}
+
+	/**
+	 * Finishes connecting the channel. Called by the event loop when
+	 * the channel is ready to connect.
+	 */
+	protected void finishConnect() {
+		try {
+			if (!this.channel.finishConnect()) {
+				return;
+			}
+		} catch (final IOException ex) {
+			this.error = ex;
+			this.close();
+			return;
+		}
+		this.key.interestOps(SelectionKey.OP_READ);
+		final Runnable connected = this.connected;
+		this.connected = null;
+		if (connected != null) {
+			connected.run();
+		}
+	}
+
+	/**
+	 * Writes pending output to the channel. In non-blocking mode this
+	 * must be called from the event loop.
+	 */
+	protected void flush() {
+		this.flushing.set(false);
+		try {
+			synchronized (this) {
+				this.output.flip();
+				try {
+					this.channel.write(this.output);
+				} finally {
+					this.output.compact();
+				}
+				if (this.key != null) {
+					if (this.output.position() > 0) {
+						this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					} else {
+						this.key.interestOps(SelectionKey.OP_READ);
+					}
+				}
+			}
+		} catch (final IOException ex) {
+			this.close();
+		}
+	}
+
+	/**
+	 * Returns when this session's next queued message is due.
+	 * 
+	 * @return Due time in nanoseconds.
+	 */
+	protected long getDue() {
+		return this.due;
+	}
+
+	/**
+	 * Creates a stream writing to this session. Flushing the stream
+	 * sends the data on the event loop, or immediately during the
+	 * handshake.
+	 * 
+	 * @return The output stream.
+	 */
+	protected OutputStream getOutputStream() {
+		return new OutputStream() {
+
+			@Override
+			public void flush() throws IOException {
+				IrcSession.this.requestFlush();
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) {
+				IrcSession.this.write(b, off, len);
+			}
+
+			@Override
+			public void write(final int b) {
+				IrcSession.this.write(new byte[] { (byte) b }, 0, 1);
+			}
+		};
+	}
+
+	/**
+	 * Reads available data and hands complete lines to the input
+	 * handler. Must be called from the event loop.
+	 */
+	protected void read() {
+		int read;
+		try {
+			read = this.reader.read(this.channel);
+		} catch (final IOException ex) {
+			read = -1;
+		}
+		if (!this.readBuffered()) {
+			return;
+		}
+		if (read < 0) {
+			this.close();
+		} else {
+			// don't keep a buffer while waiting for data
+			this.reader.release();
+		}
+	}
+
+	/**
+	 * Hands complete lines in the input buffer to the input handler.
+	 * 
+	 * @return False if the session was closed.
+	 */
+	private boolean readBuffered() {
+		String line = null;
+		try {
+			while (!this.closed.get() && ((line = this.reader.next()) != null)) {
+				this.in.receive(line);
+			}
+		} catch (final Exception ex) {
+			IrcDebug.log("Exception " + ex + " on: " + line);
+			ex.printStackTrace();
+			this.close();
+		}
+		return !this.closed.get();
+	}
+
+	/**
+	 * Reads a single line, blocking until it is available. Only used
+	 * during the handshake.
+	 * 
+	 * @return The line, or null if the connection was closed.
+	 * @throws IOException If reading fails.
+	 */
+	protected String readLine() throws IOException {
+		return this.reader.readLine(this.channel);
+	}
+
+	/**
+	 * Switches the channel to non-blocking mode and registers it with
+	 * an event loop of given reactor.
+	 * 
+	 * @param reactor The reactor to use.
+	 * @throws IOException If the channel could not be registered.
+	 */
+	protected void register(final IrcReactor reactor) throws IOException {
+		final IrcEventLoop loop = reactor.next();
+		synchronized (this) {
+			this.channel.configureBlocking(false);
+			this.loop = loop;
+		}
+		loop.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				IrcSession.this.registered();
+			}
+		});
+	}
+
+	/**
+	 * Called on the event loop after registering.
+	 */
+	private void registered() {
+		try {
+			this.key = this.loop.register(this.channel, this);
+		} catch (final IOException ex) {
+			this.close();
+			return;
+		}
+		// handle lines received along with the end of the handshake
+		if (this.readBuffered()) {
+			this.reader.release();
+			synchronized (this) {
+				if (this.output.position() > 0) {
+					this.flush();
+				}
+			}
+			this.scheduleOutput();
+		}
+	}
+
+	/**
+	 * Makes sure pending output gets written.
+	 * 
+	 * @throws IOException If writing fails during the handshake.
+	 */
+	private void requestFlush() throws IOException {
+		final IrcEventLoop loop;
+		synchronized (this) {
+			loop = this.loop;
+			if (loop == null) {
+				// still blocking, write everything now
+				this.output.flip();
+				try {
+					while (this.output.hasRemaining()) {
+						this.channel.write(this.output);
+					}
+				} finally {
+					this.output.compact();
+				}
+				return;
+			}
+		}
+		if (loop.inLoop()) {
+			this.flush();
+		} else if (this.flushing.compareAndSet(false, true)) {
+			loop.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					IrcSession.this.flush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Asks the event loop to send queued messages. Can be called from
+	 * any thread.
+	 */
+	protected void scheduleOutput() {
+		final IrcEventLoop loop = this.loop;
+		if ((loop != null) && this.scheduled.compareAndSet(false, true)) {
+			loop.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					loop.schedule(IrcSession.this, System.nanoTime());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Sends the next queued message if the message delay allows it,
+	 * and schedules the one after that. Called by the event loop.
+	 * 
+	 * @param now The current time in nanoseconds.
+	 */
+	protected void sendQueued(final long now) {
+		if (this.closed.get()) {
+			this.scheduled.set(false);
+			return;
+		}
+		final long wait = this.out.poll(now);
+		if (wait >= 0) {
+			this.loop.schedule(this, now + wait);
+			return;
+		}
+		// queue is empty, check again to avoid missing a message
+		this.scheduled.set(false);
+		if (this.out.hasQueued() && this.scheduled.compareAndSet(false, true)) {
+			this.loop.schedule(this, now);
+		}
+	}
+
+	/**
+	 * Sets when this session's next queued message is due.
+	 * 
+	 * @param due Due time in nanoseconds.
+	 */
+	protected void setDue(final long due) {
+		this.due = due;
+	}
+
+	/**
+	 * Appends data to the output buffer.
+	 * 
+	 * @param b The data.
+	 * @param off Offset in the data.
+	 * @param len Number of bytes.
+	 */
+	private synchronized void write(final byte[] b, final int off, final int len) {
+		if (this.output.remaining() < len) {
+			final ByteBuffer grown = ByteBuffer.allocate(Math.max(this.output.capacity() * 2, this.output.position() + len));
+			this.output.flip();
+			grown.put(this.output);
+			this.output = grown;
+		}
+		this.output.put(b, off, len);
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * IrcSplitter.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits messages that don't fit in a single line.
+ * <p>
+ * The server relays messages with our {@code :nick!user@host} prefix
+ * added, and drops whatever doesn't fit in 512 bytes. Messages and
+ * notices longer than that are split into several lines, preferably
+ * at spaces, but never inside a character. CTCP messages, like
+ * actions, are wrapped again in every line.
+ * </p>
+ * 
+ * @author Sorcix
+ */
+final class IrcSplitter {
+	
+	/** Most bytes a line may take, without the line ending. */
+	private static final int MAX_BYTES = IrcOutput.MAX_LINE_LENGTH - 2;
+	/** The charset lines are encoded in. */
+	private final Charset charset;
+	/** Whether the charset is UTF-8. */
+	private final boolean utf8;
+	/** Whether the charset uses one byte for every character. */
+	private final boolean singleByte;
+	/** Most bytes any character may take. */
+	private final int maxBytesPerChar;
+	
+	/**
+	 * Creates a new splitter.
+	 * 
+	 * @param charset The charset lines are encoded in.
+	 */
+	protected IrcSplitter(final Charset charset) {
+		this.charset = charset;
+		this.utf8 = "UTF-8".equals(charset.name());
+		final float max = charset.newEncoder().maxBytesPerChar();
+		this.singleByte = max <= 1;
+		this.maxBytesPerChar = (int) Math.ceil(max);
+	}
+	
+	/**
+	 * Returns the number of bytes a code point takes.
+	 * 
+	 * @param codePoint The code point.
+	 * @return The encoded length.
+	 */
+	private int getLength(final int codePoint) {
+		if (this.singleByte) {
+			return 1;
+		}
+		if (this.utf8) {
+			if (codePoint < 0x80) {
+				return 1;
+			} else if (codePoint < 0x800) {
+				return 2;
+			} else if (codePoint < 0x10000) {
+				return 3;
+			}
+			return 4;
+		}
+		return new String(Character.toChars(codePoint)).getBytes(this.charset).length;
+	}
+	
+	/**
+	 * Returns the number of bytes part of a string takes.
+	 * 
+	 * @param text The string.
+	 * @param start The first character.
+	 * @param end The end of the part.
+	 * @return The encoded length.
+	 */
+	protected int getLength(final String text, final int start, final int end) {
+		if (this.singleByte) {
+			return end - start;
+		}
+		int length = 0;
+		for (int i = start; i < end;) {
+			final int codePoint = text.codePointAt(i);
+			length += this.getLength(codePoint);
+			i += Character.charCount(codePoint);
+		}
+		return length;
+	}
+	
+	/**
+	 * Finds how much of a string fits in given number of bytes, without
+	 * splitting a character.
+	 * 
+	 * @param text The string.
+	 * @param start The first character.
+	 * @param bytes The number of bytes available.
+	 * @return The end of the part that fits.
+	 */
+	protected int fit(final String text, final int start, final int bytes) {
+		if (this.singleByte) {
+			return Math.min(text.length(), start + bytes);
+		}
+		if ((text.length() - start) * this.maxBytesPerChar <= bytes) {
+			return text.length();
+		}
+		int left = bytes;
+		int i = start;
+		while (i < text.length()) {
+			final int codePoint = text.codePointAt(i);
+			left -= this.getLength(codePoint);
+			if (left < 0) {
+				break;
+			}
+			i += Character.charCount(codePoint);
+		}
+		return i;
+	}
+	
+	/**
+	 * Splits a line if it won't fit once the server adds our prefix.
+	 * Only messages and notices are split, other lines are returned
+	 * unchanged.
+	 * 
+	 * @param line The raw line.
+	 * @param prefixLength The length of {@code :nick!user@host }.
+	 * @return The lines to send.
+	 */
+	protected List<String> split(final String line, final int prefixLength) {
+		final int budget = IrcSplitter.MAX_BYTES - prefixLength;
+		if ((line.length() * this.maxBytesPerChar <= budget) || (this.getLength(line, 0, line.length()) <= budget)) {
+			return Collections.singletonList(line);
+		}
+		// PRIVMSG <target> :<text>
+		final int space = line.indexOf(' ');
+		if ((space < 0) || !(line.regionMatches(true, 0, "PRIVMSG", 0, space) || line.regionMatches(true, 0, "NOTICE", 0, space))) {
+			return Collections.singletonList(line);
+		}
+		final int colon = line.indexOf(" :", space + 1);
+		if (colon < 0) {
+			return Collections.singletonList(line);
+		}
+		String head = line.substring(0, colon + 2);
+		String tail = "";
+		int start = colon + 2;
+		int end = line.length();
+		if ((end - start > 2) && (line.charAt(start) == '\u0001') && (line.charAt(end - 1) == '\u0001')) {
+			// keep the CTCP command in every line
+			final int argument = line.indexOf(' ', start);
+			if ((argument < 0) || (argument >= end - 1)) {
+				return Collections.singletonList(line);
+			}
+			head = line.substring(0, argument + 1);
+			tail = IrcPacket.CTCP;
+			start = argument + 1;
+			end--;
+		}
+		final int room = budget - this.getLength(head, 0, head.length()) - this.getLength(tail, 0, tail.length());
+		if (room < this.maxBytesPerChar * 2) {
+			return Collections.singletonList(line);
+		}
+		final List<String> lines = new ArrayList<String>();
+		final StringBuilder buffer = new StringBuilder(IrcOutput.MAX_LINE_LENGTH);
+		while (start < end) {
+			int stop = Math.min(end, this.fit(line, start, room));
+			int next = stop;
+			if (stop < end) {
+				// prefer splitting at a space in the second half
+				final int blank = line.lastIndexOf(' ', stop);
+				if (blank > start + (stop - start) / 2) {
+					stop = blank;
+					next = blank + 1;
+				}
+			}
+			buffer.setLength(0);
+			buffer.append(head).append(line, start, stop).append(tail);
+			lines.add(buffer.toString());
+			start = next;
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * IrcStyle.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+/**
+ * Formatting of part of a message, as set by mIRC markup codes.
+ * <p>
+ * Offsets refer to the message without markup, as returned by
+ * {@link IrcPacket#getMessage()}, so the plain text and its styles can
+ * be used together.
+ * </p>
+ * 
+ * @author Sorcix
+ * @see IrcPacket#getMessageStyles()
+ * @see IrcColors
+ */
+public final class IrcStyle {
+	
+	/** Style flag: bold. */
+	protected static final int BOLD = 1;
+	/** Style flag: underline. */
+	protected static final int UNDERLINE = 2;
+	/** Style flag: reverse. */
+	protected static final int REVERSE = 4;
+	/** Start offset in the plain text. */
+	private final int start;
+	/** End offset in the plain text. */
+	private final int end;
+	/** Style flags. */
+	private final int flags;
+	/** Foreground color, or -1. */
+	private final int foreground;
+	/** Background color, or -1. */
+	private final int background;
+	
+	/**
+	 * Creates a new style span.
+	 * 
+	 * @param start Start offset in the plain text.
+	 * @param end End offset in the plain text.
+	 * @param flags Style flags.
+	 * @param foreground Foreground color, or -1.
+	 * @param background Background color, or -1.
+	 */
+	protected IrcStyle(final int start, final int end, final int flags, final int foreground, final int background) {
+		this.start = start;
+		this.end = end;
+		this.flags = flags;
+		this.foreground = foreground;
+		this.background = background;
+	}
+	
+	/**
+	 * Returns the background color of this span.
+	 * 
+	 * @return The color number, or -1 if no background was set.
+	 */
+	public int getBackground() {
+		return this.background;
+	}
+	
+	/**
+	 * Returns where this span ends in the plain text.
+	 * 
+	 * @return The offset after the last character.
+	 */
+	public int getEnd() {
+		return this.end;
+	}
+	
+	/**
+	 * Returns the foreground color of this span.
+	 * 
+	 * @return The color number, or -1 if no color was set.
+	 */
+	public int getForeground() {
+		return this.foreground;
+	}
+	
+	/**
+	 * Returns where this span starts in the plain text.
+	 * 
+	 * @return The offset of the first character.
+	 */
+	public int getStart() {
+		return this.start;
+	}
+	
+	/**
+	 * Checks whether this span has given style.
+	 * 
+	 * @param flags Style flags.
+	 * @param foreground Foreground color, or -1.
+	 * @param background Background color, or -1.
+	 * @return True if the style is the same.
+	 */
+	protected boolean hasStyle(final int flags, final int foreground, final int background) {
+		return (this.flags == flags) && (this.foreground == foreground) && (this.background == background);
+	}
+	
+	/**
+	 * Checks whether this span is bold.
+	 * 
+	 * @return True if bold.
+	 */
+	public boolean isBold() {
+		return (this.flags & IrcStyle.BOLD) != 0;
+	}
+	
+	/**
+	 * Checks whether this span has reversed colors.
+	 * 
+	 * @return True if reversed.
+	 */
+	public boolean isReverse() {
+		return (this.flags & IrcStyle.REVERSE) != 0;
+	}
+	
+	/**
+	 * Checks whether this span is underlined.
+	 * 
+	 * @return True if underlined.
+	 */
+	public boolean isUnderline() {
+		return (this.flags & IrcStyle.UNDERLINE) != 0;
+	}
+	
+	@Override
+	public String toString() {
+		final StringBuilder buffer = new StringBuilder("IrcStyle[");
+		buffer.append(this.start).append('-').append(this.end);
+		if (this.isBold()) {
+			buffer.append(" bold");
+		}
+		if (this.isUnderline()) {
+			buffer.append(" underline");
+		}
+		if (this.isReverse()) {
+			buffer.append(" reverse");
+		}
+		if (this.foreground >= 0) {
+			buffer.append(" color ").append(this.foreground);
+			if (this.background >= 0) {
+				buffer.append(',').append(this.background);
+			}
+		}
+		return buffer.append(']').toString();
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * IrcSubscription.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+/**
+ * Limits the events a listener receives to a channel, command, numeric
+ * reply or sender.
+ * <p>
+ * Subscriptions are indexed by channel and command, so listeners are
+ * only called for matching events, instead of every listener checking
+ * every event itself.
+ * </p>
+ * 
+ * <pre>
+ * // messages in #sirc
+ * irc.subscribe(IrcSubscription.channel(&quot;#sirc&quot;), messageListener);
+ * // kicks in #sirc by staff
+ * irc.subscribe(IrcSubscription.command(&quot;KICK&quot;).inChannel(&quot;#sirc&quot;).from(&quot;*!*@staff.example.com&quot;), commandListener);
+ * // WHOIS replies
+ * irc.subscribe(IrcSubscription.numeric(311), commandListener);
+ * </pre>
+ * <p>
+ * Sender masks use {@code *} and {@code ?} wildcards, and are matched
+ * against {@code nick!user@host} ignoring case.
+ * </p>
+ * 
+ * @author Sorcix
+ * @see IrcConnection#subscribe(IrcSubscription, MessageListener)
+ * @see IrcConnection#subscribe(IrcSubscription, CommandListener)
+ */
+public final class IrcSubscription {
+	
+	/** The channel in lowercase, or null for any channel. */
+	private final String channel;
+	/** The command in uppercase, or null. */
+	private final String command;
+	/** The numeric reply, or -1. */
+	private final int numeric;
+	/** The sender mask, or null for any sender. */
+	private final String sender;
+	
+	/**
+	 * Creates a new subscription.
+	 * 
+	 * @param channel The channel in lowercase, or null.
+	 * @param command The command in uppercase, or null.
+	 * @param numeric The numeric reply, or -1.
+	 * @param sender The sender mask, or null.
+	 */
+	private IrcSubscription(final String channel, final String command, final int numeric, final String sender) {
+		this.channel = channel;
+		this.command = command;
+		this.numeric = numeric;
+		this.sender = sender;
+	}
+	
+	/**
+	 * Subscribes to events in a channel.
+	 * 
+	 * @param channel The channel name.
+	 * @return The subscription.
+	 */
+	public static IrcSubscription channel(final String channel) {
+		return new IrcSubscription(null, null, -1, null).inChannel(channel);
+	}
+	
+	/**
+	 * Subscribes to a command. Only used for {@link CommandListener}s.
+	 * 
+	 * @param command The command, like {@code KICK}.
+	 * @return The subscription.
+	 */
+	public static IrcSubscription command(final String command) {
+		if (command == null) {
+			throw new IllegalArgumentException("Command can't be null!");
+		}
+		return new IrcSubscription(null, command.toUpperCase(), -1, null);
+	}
+	
+	/**
+	 * Subscribes to a numeric reply. Only used for
+	 * {@link CommandListener}s.
+	 * 
+	 * @param numeric The numeric reply, from 0 to 999.
+	 * @return The subscription.
+	 */
+	public static IrcSubscription numeric(final int numeric) {
+		if ((numeric < 0) || (numeric > 999)) {
+			throw new IllegalArgumentException("Numeric replies range from 0 to 999!");
+		}
+		return new IrcSubscription(null, null, numeric, null);
+	}
+	
+	/**
+	 * Subscribes to events caused by a sender.
+	 * 
+	 * @param mask The sender mask, like {@code nick!*@*}.
+	 * @return The subscription.
+	 */
+	public static IrcSubscription sender(final String mask) {
+		return new IrcSubscription(null, null, -1, null).from(mask);
+	}
+	
+	@Override
+	public boolean equals(final Object object) {
+		if (!(object instanceof IrcSubscription)) {
+			return false;
+		}
+		final IrcSubscription other = (IrcSubscription) object;
+		return IrcSubscription.equals(this.channel, other.channel) && IrcSubscription.equals(this.command, other.command) && (this.numeric == other.numeric)
+				&& IrcSubscription.equals(this.sender, other.sender);
+	}
+	
+	/**
+	 * Compares two strings that may be null.
+	 * 
+	 * @param a The first string.
+	 * @param b The second string.
+	 * @return True if both are null or equal.
+	 */
+	private static boolean equals(final String a, final String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+	
+	/**
+	 * Limits this subscription to events caused by a sender.
+	 * 
+	 * @param mask The sender mask, like {@code *!*@example.com}.
+	 * @return A new subscription.
+	 */
+	public IrcSubscription from(final String mask) {
+		if (mask == null) {
+			throw new IllegalArgumentException("Sender mask can't be null!");
+		}
+		return new IrcSubscription(this.channel, this.command, this.numeric, mask.toLowerCase());
+	}
+	
+	/**
+	 * Returns the channel of this subscription.
+	 * 
+	 * @return The channel in lowercase, or null for any channel.
+	 */
+	protected String getChannel() {
+		return this.channel;
+	}
+	
+	/**
+	 * Returns the command of this subscription.
+	 * 
+	 * @return The command in uppercase, or null.
+	 */
+	protected String getCommand() {
+		return this.command;
+	}
+	
+	/**
+	 * Returns the numeric reply of this subscription.
+	 * 
+	 * @return The numeric reply, or -1.
+	 */
+	protected int getNumeric() {
+		return this.numeric;
+	}
+	
+	@Override
+	public int hashCode() {
+		int hash = this.numeric;
+		hash = (31 * hash) + (this.channel == null ? 0 : this.channel.hashCode());
+		hash = (31 * hash) + (this.command == null ? 0 : this.command.hashCode());
+		hash = (31 * hash) + (this.sender == null ? 0 : this.sender.hashCode());
+		return hash;
+	}
+	
+	/**
+	 * Limits this subscription to events in a channel.
+	 * 
+	 * @param channel The channel name.
+	 * @return A new subscription.
+	 */
+	public IrcSubscription inChannel(final String channel) {
+		if (channel == null) {
+			throw new IllegalArgumentException("Channel can't be null!");
+		}
+		return new IrcSubscription(channel.toLowerCase(), this.command, this.numeric, this.sender);
+	}
+	
+	/**
+	 * Checks whether this subscription is limited to a command or
+	 * numeric reply.
+	 * 
+	 * @return True if a command or numeric reply was given.
+	 */
+	protected boolean isCommand() {
+		return (this.command != null) || (this.numeric >= 0);
+	}
+	
+	/**
+	 * Checks whether a line matches the channel and sender of this
+	 * subscription. The channel is the first parameter of the line.
+	 * 
+	 * @param line The line.
+	 * @return True if the line matches.
+	 */
+	protected boolean matches(final IrcPacket line) {
+		if (this.channel != null) {
+			String target = line.getArguments();
+			if (target == null) {
+				// JOIN :#channel
+				target = line.getMessage();
+			}
+			if (target == null) {
+				return false;
+			}
+			final int end = target.indexOf(' ');
+			if (!this.channel.equalsIgnoreCase(end < 0 ? target : target.substring(0, end))) {
+				return false;
+			}
+		}
+		return this.matchesSender(line.getPrefix());
+	}
+	
+	/**
+	 * Checks whether a sender matches the mask of this subscription.
+	 * 
+	 * @param prefix The sender as {@code nick!user@host}, or null.
+	 * @return True if there is no mask, or the sender matches it.
+	 */
+	protected boolean matchesSender(final String prefix) {
+		if (this.sender == null) {
+			return true;
+		}
+		return (prefix != null) && IrcSubscription.matches(this.sender, 0, prefix.toLowerCase(), 0);
+	}
+	
+	/**
+	 * Matches a lowercase mask with wildcards against a lowercase
+	 * string.
+	 * 
+	 * @param mask The mask.
+	 * @param m Position in the mask.
+	 * @param value The string.
+	 * @param v Position in the string.
+	 * @return True if the rest of the string matches the rest of the
+	 *         mask.
+	 */
+	private static boolean matches(final String mask, int m, final String value, int v) {
+		// position after the last *, to backtrack to
+		int star = -1;
+		int mark = 0;
+		while (v < value.length()) {
+			if ((m < mask.length()) && ((mask.charAt(m) == '?') || (mask.charAt(m) == value.charAt(v)))) {
+				m++;
+				v++;
+			} else if ((m < mask.length()) && (mask.charAt(m) == '*')) {
+				star = ++m;
+				mark = v;
+			} else if (star >= 0) {
+				m = star;
+				v = ++mark;
+			} else {
+				return false;
+			}
+		}
+		while ((m < mask.length()) && (mask.charAt(m) == '*')) {
+			m++;
+		}
+		return m == mask.length();
+	}
+	
+	@Override
+	public String toString() {
+		final StringBuilder buffer = new StringBuilder("IrcSubscription[");
+		if (this.command != null) {
+			buffer.append(this.command).append(' ');
+		} else if (this.numeric >= 0) {
+			buffer.append(this.numeric).append(' ');
+		}
+		buffer.append(this.channel == null ? "*" : this.channel).append(' ');
+		buffer.append(this.sender == null ? "*" : this.sender);
+		return buffer.append(']').toString();
+	}
+}
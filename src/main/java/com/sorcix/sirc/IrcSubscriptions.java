@@ -0,0 +1,322 @@
+/*
+ * IrcSubscriptions.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of {@link MessageListener}s added with an
+ * {@link IrcSubscription}.
+ * <p>
+ * Subscriptions for a channel are kept by channel name, so a message
+ * only visits the subscriptions for its own channel. Subscriptions
+ * without a channel are checked for every message. Like
+ * {@link IrcListenerList}, changes replace the index instead of
+ * modifying it, so reading never locks.
+ * </p>
+ * 
+ * @author Sorcix
+ */
+final class IrcSubscriptions {
+	
+	/** Empty subscription array. */
+	private static final Entry[] NONE = new Entry[0];
+	/** Subscriptions by lowercase channel name, never modified. */
+	private volatile Map<String, Entry[]> channels = Collections.emptyMap();
+	/** Subscriptions without a channel, never modified. */
+	private volatile Entry[] any = IrcSubscriptions.NONE;
+	
+	/**
+	 * Adds a subscription, unless it was added before.
+	 * 
+	 * @param subscription The subscription.
+	 * @param listener The listener.
+	 * @return True if the subscription was added.
+	 */
+	protected synchronized boolean add(final IrcSubscription subscription, final MessageListener listener) {
+		final Entry entry = new Entry(subscription, listener);
+		final String channel = subscription.getChannel();
+		if (channel == null) {
+			final Entry[] any = IrcSubscriptions.add(this.any, entry);
+			if (any == this.any) {
+				return false;
+			}
+			this.any = any;
+			return true;
+		}
+		final Entry[] current = this.channels.get(channel);
+		final Entry[] added = IrcSubscriptions.add(current, entry);
+		if (added == current) {
+			return false;
+		}
+		final Map<String, Entry[]> channels = new HashMap<String, Entry[]>(this.channels);
+		channels.put(channel, added);
+		this.channels = channels;
+		return true;
+	}
+	
+	/**
+	 * Creates a copy of given array with an entry added.
+	 * 
+	 * @param entries The current entries, or null.
+	 * @param entry The entry to add.
+	 * @return The new entries, or the current ones if the entry was
+	 *         already there.
+	 */
+	private static Entry[] add(final Entry[] entries, final Entry entry) {
+		if (entries == null) {
+			return new Entry[] { entry };
+		}
+		for (final Entry current : entries) {
+			if (current.equals(entry)) {
+				return entries;
+			}
+		}
+		final Entry[] added = new Entry[entries.length + 1];
+		System.arraycopy(entries, 0, added, 0, entries.length);
+		added[entries.length] = entry;
+		return added;
+	}
+	
+	/**
+	 * Counts the entries matching a sender.
+	 * 
+	 * @param entries The entries, or null.
+	 * @param prefix The sender.
+	 * @return The number of matching entries.
+	 */
+	private static int count(final Entry[] entries, final String prefix) {
+		int count = 0;
+		if (entries != null) {
+			for (final Entry entry : entries) {
+				if (entry.subscription.matchesSender(prefix)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Copies the listeners of entries matching a sender.
+	 * 
+	 * @param entries The entries, or null.
+	 * @param prefix The sender.
+	 * @param dispatcher The dispatcher, or null.
+	 * @param listeners The array to copy to.
+	 * @param index The first index to copy to.
+	 * @return The index after the last copied listener.
+	 */
+	private static int copy(final Entry[] entries, final String prefix, final IrcDispatcher dispatcher, final MessageListener[] listeners, int index) {
+		if (entries != null) {
+			for (final Entry entry : entries) {
+				if (entry.subscription.matchesSender(prefix)) {
+					listeners[index++] = dispatcher == null ? entry.listener : dispatcher.wrap(entry.listener, MessageListener.class);
+				}
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Returns given listeners, followed by the listeners subscribed to
+	 * a message. If there are no matching subscriptions, the given
+	 * array is returned.
+	 * 
+	 * @param listeners The listeners receiving every message.
+	 * @param channel The channel the message was sent to, or null for
+	 *            private messages.
+	 * @param prefix The sender as {@code nick!user@host}.
+	 * @param dispatcher The dispatcher, or null.
+	 * @return The listeners to call.
+	 */
+	protected MessageListener[] get(final MessageListener[] listeners, final String channel, final String prefix, final IrcDispatcher dispatcher) {
+		final Entry[] any = this.any;
+		final Map<String, Entry[]> channels = this.channels;
+		if ((any.length == 0) && channels.isEmpty()) {
+			return listeners;
+		}
+		final Entry[] scoped = channel == null || channels.isEmpty() ? null : channels.get(channel.toLowerCase());
+		final int count = IrcSubscriptions.count(any, prefix) + IrcSubscriptions.count(scoped, prefix);
+		if (count == 0) {
+			return listeners;
+		}
+		final MessageListener[] all = new MessageListener[listeners.length + count];
+		System.arraycopy(listeners, 0, all, 0, listeners.length);
+		IrcSubscriptions.copy(any, prefix, dispatcher, all, IrcSubscriptions.copy(scoped, prefix, dispatcher, all, listeners.length));
+		return all;
+	}
+	
+	/**
+	 * Removes a subscription.
+	 * 
+	 * @param subscription The subscription.
+	 * @param listener The listener.
+	 * @return True if the subscription was removed.
+	 */
+	protected synchronized boolean remove(final IrcSubscription subscription, final MessageListener listener) {
+		final Entry entry = new Entry(subscription, listener);
+		final String channel = subscription.getChannel();
+		if (channel == null) {
+			final Entry[] any = IrcSubscriptions.remove(this.any, entry);
+			if (any == this.any) {
+				return false;
+			}
+			this.any = any;
+			return true;
+		}
+		final Entry[] current = this.channels.get(channel);
+		final Entry[] removed = IrcSubscriptions.remove(current, entry);
+		if (removed == current) {
+			return false;
+		}
+		final Map<String, Entry[]> channels = new HashMap<String, Entry[]>(this.channels);
+		if (removed.length == 0) {
+			channels.remove(channel);
+		} else {
+			channels.put(channel, removed);
+		}
+		this.channels = channels.isEmpty() ? Collections.<String, Entry[]> emptyMap() : channels;
+		return true;
+	}
+	
+	/**
+	 * Creates a copy of given array with an entry removed.
+	 * 
+	 * @param entries The current entries, or null.
+	 * @param entry The entry to remove.
+	 * @return The new entries, or the current ones if the entry wasn't
+	 *         there.
+	 */
+	private static Entry[] remove(final Entry[] entries, final Entry entry) {
+		if (entries == null) {
+			return null;
+		}
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i].equals(entry)) {
+				final Entry[] removed = new Entry[entries.length - 1];
+				System.arraycopy(entries, 0, removed, 0, i);
+				System.arraycopy(entries, i + 1, removed, i, removed.length - i);
+				return removed;
+			}
+		}
+		return entries;
+	}
+	
+	/**
+	 * A {@link CommandListener} only called for lines matching a
+	 * subscription.
+	 */
+	protected static final class Filter implements CommandListener {
+		
+		/** The subscription. */
+		private final IrcSubscription subscription;
+		/** The listener. */
+		private final CommandListener listener;
+		
+		/**
+		 * Creates a new filter.
+		 * 
+		 * @param subscription The subscription.
+		 * @param listener The listener.
+		 */
+		protected Filter(final IrcSubscription subscription, final CommandListener listener) {
+			this.subscription = subscription;
+			this.listener = listener;
+		}
+		
+		/**
+		 * Checks whether a line matches the subscription.
+		 * 
+		 * @param line The line.
+		 * @return True if the listener should be called.
+		 */
+		protected boolean accepts(final IrcPacket line) {
+			return this.subscription.matches(line);
+		}
+		
+		@Override
+		public boolean equals(final Object object) {
+			if (!(object instanceof Filter)) {
+				return false;
+			}
+			final Filter other = (Filter) object;
+			return this.subscription.equals(other.subscription) && this.listener.equals(other.listener);
+		}
+		
+		@Override
+		public int hashCode() {
+			return (31 * this.subscription.hashCode()) + this.listener.hashCode();
+		}
+		
+		@Override
+		public void onCommand(final IrcConnection irc, final IrcPacket line) {
+			if (this.accepts(line)) {
+				this.listener.onCommand(irc, line);
+			}
+		}
+	}
+	
+	/**
+	 * A message listener with its subscription.
+	 */
+	private static final class Entry {
+		
+		/** The subscription. */
+		private final IrcSubscription subscription;
+		/** The listener. */
+		private final MessageListener listener;
+		
+		/**
+		 * Creates a new entry.
+		 * 
+		 * @param subscription The subscription.
+		 * @param listener The listener.
+		 */
+		private Entry(final IrcSubscription subscription, final MessageListener listener) {
+			this.subscription = subscription;
+			this.listener = listener;
+		}
+		
+		@Override
+		public boolean equals(final Object object) {
+			if (!(object instanceof Entry)) {
+				return false;
+			}
+			final Entry other = (Entry) object;
+			return this.subscription.equals(other.subscription) && this.listener.equals(other.listener);
+		}
+		
+		@Override
+		public int hashCode() {
+			return (31 * this.subscription.hashCode()) + this.listener.hashCode();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * IrcSupport.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Features the server advertises using {@code RPL_ISUPPORT} (005)
+ * after registration.
+ * 
+ * @author Sorcix
+ */
+final class IrcSupport {
+	
+	/** Advertised tokens, mapped to their value or an empty string. */
+	private final Map<String, String> tokens = new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * Adds the tokens of an {@code RPL_ISUPPORT} reply. Tokens prefixed
+	 * with {@code -} are removed.
+	 * 
+	 * @param line The reply.
+	 */
+	protected void add(final IrcPacket line) {
+		final String[] arguments = line.getArgumentsArray();
+		// the first argument is our nickname
+		for (int i = 1; i < arguments.length; i++) {
+			final String token = arguments[i];
+			if (token.length() == 0) {
+				continue;
+			}
+			if (token.charAt(0) == '-') {
+				this.tokens.remove(token.substring(1).toUpperCase());
+				continue;
+			}
+			final int equals = token.indexOf('=');
+			if (equals < 0) {
+				this.tokens.put(token.toUpperCase(), "");
+			} else {
+				this.tokens.put(token.substring(0, equals).toUpperCase(), token.substring(equals + 1));
+			}
+		}
+	}
+	
+	/**
+	 * Forgets all tokens, before connecting again.
+	 */
+	protected void clear() {
+		this.tokens.clear();
+	}
+	
+	/**
+	 * Returns the value of a token.
+	 * 
+	 * @param token The token name.
+	 * @return The value, an empty string if the token has no value or
+	 *         null if the server did not advertise it.
+	 */
+	protected String get(final String token) {
+		return this.tokens.get(token.toUpperCase());
+	}
+	
+	/**
+	 * Returns how many channels may be joined, from {@code CHANLIMIT}
+	 * or the older {@code MAXCHANNELS}.
+	 * 
+	 * @return The channel prefixes sharing a limit, mapped to the
+	 *         limit. Empty if there is no limit.
+	 */
+	protected Map<String, Integer> getChannelLimits() {
+		final Map<String, Integer> limits = new LinkedHashMap<String, Integer>();
+		final String chanlimit = this.get("CHANLIMIT");
+		if (chanlimit != null) {
+			for (final String limit : chanlimit.split(",")) {
+				final int colon = limit.indexOf(':');
+				if ((colon > 0) && (colon < limit.length() - 1)) {
+					limits.put(limit.substring(0, colon), IrcSupport.parseInt(limit.substring(colon + 1)));
+				}
+			}
+			return limits;
+		}
+		final String maxchannels = this.get("MAXCHANNELS");
+		if ((maxchannels != null) && (maxchannels.length() > 0)) {
+			final String types = this.get("CHANTYPES");
+			limits.put(types != null ? types : Channel.CHANNEL_PREFIX, IrcSupport.parseInt(maxchannels));
+		}
+		return limits;
+	}
+	
+	/**
+	 * Returns how many targets a command accepts, from {@code TARGMAX}
+	 * or, for messages and notices, the older {@code MAXTARGETS}.
+	 * 
+	 * @param command The command.
+	 * @param unknown The limit to use if the server did not advertise
+	 *            one for this command.
+	 * @return The maximum number of targets, at least 1.
+	 */
+	protected int getTargetLimit(final String command, final int unknown) {
+		final String targmax = this.get("TARGMAX");
+		if (targmax == null) {
+			final String maxtargets = this.get("MAXTARGETS");
+			if ((maxtargets != null) && (maxtargets.length() > 0) && ("PRIVMSG".equalsIgnoreCase(command) || "NOTICE".equalsIgnoreCase(command))) {
+				return Math.max(1, IrcSupport.parseInt(maxtargets));
+			}
+			return unknown;
+		}
+		for (final String limit : targmax.split(",")) {
+			final int colon = limit.indexOf(':');
+			if ((colon > 0) && limit.substring(0, colon).equalsIgnoreCase(command)) {
+				if (colon == limit.length() - 1) {
+					return Integer.MAX_VALUE;
+				}
+				return Math.max(1, IrcSupport.parseInt(limit.substring(colon + 1)));
+			}
+		}
+		// servers like Solanum don't list JOIN and PART, which still
+		// take several channels
+		return unknown;
+	}
+	
+	/**
+	 * Parses a limit, treating invalid ones as no limit.
+	 * 
+	 * @param limit The limit.
+	 * @return The limit as a number.
+	 */
+	private static int parseInt(final String limit) {
+		try {
+			return Integer.parseInt(limit);
+		} catch (final NumberFormatException ex) {
+			return Integer.MAX_VALUE;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * IrcThreads.java
+ * 
+ * This file is part of the Sorcix Java IRC Library (sIRC).
+ * 
+ * Copyright (C) 2008-2010 Vic Demuzere http://sorcix.com
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.sorcix.sirc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factories for use with
+ * {@link IrcConnection#setThreadFactory(ThreadFactory)}.
+ * <p>
+ * sIRC itself runs on Java 6, so virtual threads are looked up at
+ * runtime. On JDKs without virtual threads, {@link #virtual()} throws
+ * an {@link UnsupportedOperationException}.
+ * </p>
+ * 
+ * @author Sorcix
+ */
+public final class IrcThreads {
+	
+	/** Virtual thread factory, or null if not supported. */
+	private static final ThreadFactory VIRTUAL = IrcThreads.createVirtual();
+	
+	/**
+	 * Not used.
+	 */
+	private IrcThreads() {
+		// static methods only
+	}
+	
+	/**
+	 * Creates a virtual thread factory using reflection.
+	 * 
+	 * @return The thread factory, or null if virtual threads are not
+	 *         supported.
+	 */
+	private static ThreadFactory createVirtual() {
+		try {
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			final Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (final Exception ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Checks whether this JDK supports virtual threads.
+	 * 
+	 * @return True if {@link #virtual()} can be used.
+	 */
+	public static boolean isVirtualSupported() {
+		return IrcThreads.VIRTUAL != null;
+	}
+	
+	/**
+	 * Returns a thread factory creating virtual threads. Blocking
+	 * listener code on a virtual thread does not hold on to a platform
+	 * thread, so many connections can share a few carrier threads.
+	 * 
+	 * @return The virtual thread factory.
+	 * @throws UnsupportedOperationException If this JDK does not
+	 *             support virtual threads.
+	 */
+	public static ThreadFactory virtual() {
+		if (IrcThreads.VIRTUAL == null) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or newer!");
+		}
+		return IrcThreads.VIRTUAL;
+	}
+}
@@ -46,6 +46,10 @@ public final class User {
 	private char prefix;
 	/** Custom address to send messages to. */
 	private String address = null;
+	/** Start of every message sent to this user, or null. */
+	private String messagePrefix = null;
+	/** Start of every notice sent to this user, or null. */
+	private String noticePrefix = null;
 	/** Username of this user (or null if unknown). */
 	private final String userName;
 	/** Mode character for voice. */
@@ -120,6 +124,34 @@ public final class User {
 		return this.address;
 	}
 	
+	/**
+	 * Returns the start of every message sent to this user.
+	 * 
+	 * @return The PRIVMSG command and address.
+	 */
+	private String getMessagePrefix() {
+		String prefix = this.messagePrefix;
+		if (prefix == null) {
+			prefix = "PRIVMSG " + this.getAddress() + " :";
+			this.messagePrefix = prefix;
+		}
+		return prefix;
+	}
+	
+	/**
+	 * Returns the start of every notice sent to this user.
+	 * 
+	 * @return The NOTICE command and address.
+	 */
+	private String getNoticePrefix() {
+		String prefix = this.noticePrefix;
+		if (prefix == null) {
+			prefix = "NOTICE " + this.getAddress() + " :";
+			this.noticePrefix = prefix;
+		}
+		return prefix;
+	}
+	
 	/**
 	 * Returns the hostname for this user.
 	 * 
@@ -256,7 +288,7 @@ public final class User {
 	 * @param command Command to send.
 	 */
 	public void sendCtcp(final String command) {
-		this.irc.getOutput().send("PRIVMSG " + this.getAddress() + " :" + IrcPacket.CTCP + command + IrcPacket.CTCP);
+		this.irc.getOutput().send(this.getMessagePrefix() + IrcPacket.CTCP + command + IrcPacket.CTCP);
 	}
 	
 	/**
@@ -304,13 +336,14 @@ public final class User {
 	 * be sent using a notice.
 	 * 
 	 * @param command Command to send.
-	 * @param skipQueue Whether to skip the outgoing message queue.
+	 * @param skipQueue Whether to send this reply before other queued
+	 *            messages.
 	 */
 	protected void sendCtcpReply(final String command, final boolean skipQueue) {
 		if (skipQueue) {
-			this.irc.getOutput().sendNow("NOTICE " + this.getAddress() + " :" + IrcPacket.CTCP + command + IrcPacket.CTCP);
+			this.irc.getOutput().send(this.getNoticePrefix() + IrcPacket.CTCP + command + IrcPacket.CTCP, IrcPriority.CONTROL);
 		} else {
-			this.irc.getOutput().send("NOTICE " + this.getAddress() + " :" + IrcPacket.CTCP + command + IrcPacket.CTCP);
+			this.irc.getOutput().send(this.getNoticePrefix() + IrcPacket.CTCP + command + IrcPacket.CTCP);
 		}
 	}
 	
@@ -327,7 +360,7 @@ public final class User {
 	 * @param message The message to send.
 	 */
 	public void sendMessage(final String message) {
-		this.irc.getOutput().send("PRIVMSG " + this.getAddress() + " :" + message);
+		this.irc.getOutput().send(this.getMessagePrefix() + message);
 	}
 	
 	/**
@@ -336,7 +369,7 @@ public final class User {
 	 * @param message The notice to send.
 	 */
 	public void sendNotice(final String message) {
-		this.irc.getOutput().send("NOTICE " + this.getAddress() + " :" + message);
+		this.irc.getOutput().send(this.getNoticePrefix() + message);
 	}
 	
 	/**
@@ -355,6 +388,8 @@ public final class User {
 		} else {
 			this.address = address;
 		}
+		this.messagePrefix = null;
+		this.noticePrefix = null;
 	}
 	
 	/**
@@ -405,6 +440,8 @@ public final class User {
 		} else {
 			this.address = this.nick;
 		}
+		this.messagePrefix = null;
+		this.noticePrefix = null;
 	}
 	
 	@Override
@@ -0,0 +1,51 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class IrcCapabilitiesTest {
+
+    private final IrcConnection irc = new IrcConnection();
+
+    private IrcPacket line(final String line) {
+        return new IrcPacket(line, irc);
+    }
+
+    @Test
+    public void testNegotiation() {
+        final IrcCapabilities caps = new IrcCapabilities();
+        assertNull(caps.start());
+        caps.add("multi-prefix");
+        caps.add("Away-Notify");
+        caps.add("sasl");
+        caps.add("unknown");
+        assertEquals("CAP LS 302", caps.start());
+
+        assertTrue(caps.handle(line(":server CAP * LS * :multi-prefix sasl=PLAIN,EXTERNAL")).isEmpty());
+        assertEquals(Arrays.asList("CAP REQ :multi-prefix sasl away-notify"),
+                caps.handle(line(":server CAP * LS :away-notify account-notify")));
+        assertEquals(Arrays.asList("CAP END"), caps.handle(line(":server CAP nick ACK :multi-prefix sasl away-notify ")));
+        assertTrue(caps.isEnabled("SASL"));
+        assertEquals(3, caps.getEnabled().size());
+
+        // after registration
+        assertEquals(Arrays.asList("CAP REQ :unknown"), caps.handle(line(":server CAP nick NEW :unknown other")));
+        assertEquals(Collections.emptyList(), caps.handle(line(":server CAP nick DEL :sasl")));
+        assertEquals(Collections.emptyList(), caps.handle(line(":server CAP nick NAK :unknown")));
+        assertEquals(2, caps.getEnabled().size());
+    }
+
+    @Test
+    public void testNothingOffered() {
+        final IrcCapabilities caps = new IrcCapabilities();
+        caps.add("multi-prefix");
+        caps.start();
+        assertEquals(Arrays.asList("CAP END"), caps.handle(line(":server CAP * LS :sasl")));
+    }
+}
@@ -0,0 +1,49 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class IrcColorsTest {
+
+    @Test
+    public void testPlainTextIsNotCopied() {
+        final String plain = "no markup here, 12,34";
+        assertSame(plain, IrcColors.remove(plain));
+    }
+
+    @Test
+    public void testRemove() {
+        assertEquals("bold and red on white.", IrcColors.remove("\u0002bold\u000f and \u00034,0red\u0003 on \u001fwhite\u0016."));
+        assertEquals("2019", IrcColors.remove("\u0003042019"));
+        assertEquals("", IrcColors.remove("\u000312,"));
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            line.append("\u0002ab");
+        }
+        assertEquals(600, IrcColors.remove(line.toString()).length());
+    }
+
+    @Test
+    public void testStyles() {
+        final IrcPacket packet = new IrcPacket(":a!b@c PRIVMSG #c :\u0002bold\u00034,1 red\u0002\u00034 on\u000f plain\u001fline", null);
+        assertEquals("bold red on plainline", packet.getMessage());
+        final List<IrcStyle> styles = packet.getMessageStyles();
+        assertEquals(4, styles.size());
+        assertEquals("IrcStyle[0-4 bold]", styles.get(0).toString());
+        assertEquals("IrcStyle[4-8 bold color 4,1]", styles.get(1).toString());
+        // the repeated color code doesn't split the span
+        assertEquals("IrcStyle[8-11 color 4,1]", styles.get(2).toString());
+        assertEquals(" on", packet.getMessage().substring(styles.get(2).getStart(), styles.get(2).getEnd()));
+        assertEquals("IrcStyle[17-21 underline]", styles.get(3).toString());
+        assertSame(styles, packet.getMessageStyles());
+        assertEquals("\u0002bold", packet.getRawMessage().substring(0, 5));
+
+        assertTrue(packet.reset(":a!b@c PRIVMSG #c :plain").getMessageStyles().isEmpty());
+        assertTrue(packet.reset(":a!b@c PRIVMSG #c :\u001fend\u001f").getMessageStyles().get(0).isUnderline());
+    }
+}
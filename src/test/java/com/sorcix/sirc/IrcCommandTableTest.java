@@ -0,0 +1,123 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+
+public class IrcCommandTableTest {
+
+    private static IrcPacket packet(final String line) {
+        return new IrcPacket(null).reset(line);
+    }
+
+    @Test
+    public void testNumerics() {
+        final IrcCommandTable<String> table = new IrcCommandTable<String>();
+        table.put(1, "welcome");
+        table.put(999, "last");
+        assertEquals("welcome", table.get(1));
+        assertEquals("last", table.get(999));
+        assertEquals("welcome", table.get(packet(":server 001 sIRC :Welcome")));
+        assertNull(table.get(2));
+        assertNull(table.get(-1));
+        assertNull(table.get(IrcCommandTable.NUMERICS));
+        assertNull(table.get(packet(":server 311 sIRC nick user host * :Real")));
+        table.put(1, null);
+        assertNull(table.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNumeric() {
+        new IrcCommandTable<String>().put(IrcCommandTable.NUMERICS, "invalid");
+    }
+
+    @Test
+    public void testCommands() {
+        final IrcCommandTable<String> table = new IrcCommandTable<String>();
+        // enough commands to grow the table a few times
+        for (int i = 0; i < 100; i++) {
+            table.put("CMD" + i, "value" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, table.get("CMD" + i));
+            assertEquals("value" + i, table.get(packet(":nick!user@host CMD" + i + " #sirc :text")));
+        }
+        assertNull(table.get("CMD100"));
+        assertNull(table.get(packet(":nick!user@host KNOCK #sirc :text")));
+        assertNull(table.get(packet("PING :server")));
+        for (int i = 0; i < 100; i += 2) {
+            table.put("CMD" + i, null);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 0 ? null : "value" + i, table.get("CMD" + i));
+        }
+        table.put("CMD1", "changed");
+        assertEquals("changed", table.get(packet(":nick!user@host CMD1")));
+    }
+
+    @Test
+    public void testCommandListenersIgnoreCase() {
+        final IrcConnection irc = new IrcConnection();
+        final CommandListener listener = mock(CommandListener.class);
+        irc.addCommandListener("knock", listener);
+        final IrcPacket line = packet(":nick!user@host KNOCK #sirc :let me in");
+        assertArrayEquals(new CommandListener[] { listener }, irc.getCommandListeners().get(line));
+        assertSame(irc.getCommandListeners().get(line), irc.getCommandListeners().get("KNOCK"));
+        irc.removeCommandListener("Knock", listener);
+        assertNull(irc.getCommandListeners().get(line));
+    }
+
+    @Test
+    public void testCommandListenersCopyOnWrite() {
+        final IrcConnection irc = new IrcConnection();
+        final CommandListener first = mock(CommandListener.class);
+        final CommandListener second = mock(CommandListener.class);
+        final IrcPacket line = packet(":nick!user@host KNOCK #sirc :let me in");
+        irc.addCommandListener("KNOCK", first);
+        final CommandListener[] one = irc.getCommandListeners().get(line);
+        irc.addCommandListener("KNOCK", first);
+        assertSame(one, irc.getCommandListeners().get(line));
+        irc.addCommandListener("KNOCK", second);
+        final CommandListener[] two = irc.getCommandListeners().get(line);
+        // readers holding the old array don't see the change
+        assertArrayEquals(new CommandListener[] { first }, one);
+        assertArrayEquals(new CommandListener[] { first, second }, two);
+        irc.removeCommandListener("KNOCK", mock(CommandListener.class));
+        assertSame(two, irc.getCommandListeners().get(line));
+        irc.removeCommandListener("KNOCK", first);
+        assertArrayEquals(new CommandListener[] { first, second }, two);
+        assertArrayEquals(new CommandListener[] { second }, irc.getCommandListeners().get(line));
+
+        irc.addCommandListener(311, first);
+        final CommandListener[] numeric = irc.getCommandListeners().get(311);
+        irc.removeCommandListener(311, first);
+        assertArrayEquals(new CommandListener[] { first }, numeric);
+        assertNull(irc.getCommandListeners().get(311));
+    }
+
+    @Test
+    public void testCommandListenersGetLines() {
+        final IrcConnection irc = new IrcConnection();
+        final CommandListener knock = mock(CommandListener.class);
+        final CommandListener whois = mock(CommandListener.class);
+        irc.addCommandListener("KNOCK", knock);
+        irc.addCommandListener(311, whois);
+        final IrcParser parser = new IrcParser();
+        final IrcPacket knocked = packet(":nick!user@host KNOCK #sirc :let me in");
+        final IrcPacket reply = packet(":server 311 sIRC nick user host * :Real Name");
+        final IrcPacket other = packet(":server 312 sIRC nick server :Info");
+        parser.parseCommand(irc, knocked);
+        parser.parseNumeric(irc, reply);
+        parser.parseNumeric(irc, other);
+        verify(knock).onCommand(irc, knocked);
+        verify(whois).onCommand(irc, reply);
+        verify(whois, never()).onCommand(irc, other);
+        verify(knock, never()).onCommand(irc, reply);
+    }
+}
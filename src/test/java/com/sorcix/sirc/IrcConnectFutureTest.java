@@ -0,0 +1,62 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+
+public class IrcConnectFutureTest {
+
+    @Test(timeout = 10000)
+    public void testCancelBeforeSocketExists() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final Thread[] connecting = new Thread[1];
+        final IrcConnection irc = new IrcConnection("127.0.0.1", server.getLocalPort());
+        irc.setNick("bot");
+        // holds the connecting thread until the future was cancelled
+        irc.setThreadFactory(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable task) {
+                connecting[0] = new Thread() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            cancelled.await();
+                        } catch (final InterruptedException ex) {
+                            return;
+                        }
+                        task.run();
+                    }
+                };
+                return connecting[0];
+            }
+        });
+        try {
+            final IrcConnectFuture future = irc.connectAsync();
+            assertTrue(future.cancel(true));
+            cancelled.countDown();
+            // the socket is closed before anything is sent
+            final Socket socket = server.accept();
+            assertNull(new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")).readLine());
+            socket.close();
+            connecting[0].join();
+            assertTrue(future.isCancelled());
+            assertTrue(future.getCause() instanceof CancellationException);
+            assertFalse(irc.isConnected());
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IrcDispatcherTest {
+    @Mock
+    IrcConnection irc;
+
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    final Executor executor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    User user;
+
+    @Before
+    public void setUp() {
+        user = new User("nick", "user", "host", null, irc);
+    }
+
+    private void runAll() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    @Test
+    public void testLanePerChannel() {
+        final IrcDispatcher dispatcher = new IrcDispatcher(executor);
+        final MessageListener listener = mock(MessageListener.class);
+        final MessageListener proxy = dispatcher.wrap(listener, MessageListener.class);
+        final Channel a = new Channel("#a", irc, false);
+        final Channel b = new Channel("#B", irc, false);
+
+        proxy.onMessage(irc, user, a, "1");
+        proxy.onMessage(irc, user, b, "2");
+        proxy.onMessage(irc, user, a, "3");
+        verifyZeroInteractions(listener);
+        // one executor task per channel
+        assertEquals(2, tasks.size());
+
+        runAll();
+        final InOrder order = Mockito.inOrder(listener);
+        order.verify(listener).onMessage(irc, user, a, "1");
+        order.verify(listener).onMessage(irc, user, a, "3");
+        verify(listener).onMessage(irc, user, b, "2");
+    }
+
+    @Test
+    public void testDropNewest() {
+        final IrcDispatcher dispatcher = new IrcDispatcher(executor, 2, IrcDispatcher.Overflow.DROP_NEWEST);
+        final MessageListener listener = mock(MessageListener.class);
+        final MessageListener proxy = dispatcher.wrap(listener, MessageListener.class);
+
+        for (int i = 0; i < 5; i++) {
+            proxy.onPrivateMessage(irc, user, "m" + i);
+        }
+        runAll();
+        verify(listener).onPrivateMessage(irc, user, "m0");
+        verify(listener).onPrivateMessage(irc, user, "m1");
+        Mockito.verifyNoMoreInteractions(listener);
+        assertEquals(3, dispatcher.getDropped());
+    }
+
+    @Test
+    public void testDropOldest() {
+        final IrcDispatcher dispatcher = new IrcDispatcher(executor, 2, IrcDispatcher.Overflow.DROP_OLDEST);
+        final MessageListener listener = mock(MessageListener.class);
+        final MessageListener proxy = dispatcher.wrap(listener, MessageListener.class);
+
+        for (int i = 0; i < 5; i++) {
+            proxy.onPrivateMessage(irc, user, "m" + i);
+        }
+        runAll();
+        verify(listener).onPrivateMessage(irc, user, "m3");
+        verify(listener).onPrivateMessage(irc, user, "m4");
+        Mockito.verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void testPacketsAreCopied() {
+        final IrcDispatcher dispatcher = new IrcDispatcher(executor);
+        final List<IrcPacket> received = new ArrayList<IrcPacket>();
+        final CommandListener proxy = dispatcher.wrap(new CommandListener() {
+            @Override
+            public void onCommand(final IrcConnection irc, final IrcPacket line) {
+                received.add(line);
+            }
+        }, CommandListener.class);
+        final IrcPacket packet = new IrcPacket(irc);
+
+        proxy.onCommand(irc, packet.reset(":srv 001 nick :one"));
+        proxy.onCommand(irc, packet.reset(":srv 002 nick :two"));
+        runAll();
+        assertEquals(2, received.size());
+        assertEquals("one", received.get(0).getMessage());
+        assertEquals("two", received.get(1).getMessage());
+        assertTrue(received.get(0) != packet);
+    }
+
+    @Test
+    public void testRemovedListenersAreForgotten() {
+        final IrcConnection connection = new IrcConnection();
+        final IrcDispatcher dispatcher = new IrcDispatcher(executor);
+        connection.setDispatcher(dispatcher);
+        final CommandListener listener = mock(CommandListener.class);
+
+        connection.addCommandListener("NOTICE", listener);
+        final CommandListener proxy = dispatcher.wrap(listener, CommandListener.class);
+        assertTrue(proxy == dispatcher.wrap(listener, CommandListener.class));
+        connection.removeCommandListener("NOTICE", listener);
+        assertTrue(proxy != dispatcher.wrap(listener, CommandListener.class));
+
+        connection.addCommandListener(311, listener);
+        final CommandListener numeric = dispatcher.wrap(listener, CommandListener.class);
+        connection.removeCommandListener(311, listener);
+        assertTrue(numeric != dispatcher.wrap(listener, CommandListener.class));
+
+        final IrcSubscription subscription = IrcSubscription.command("KICK").inChannel("#sirc");
+        connection.subscribe(subscription, listener);
+        final CommandListener filter = new IrcSubscriptions.Filter(subscription, listener);
+        final CommandListener filtered = dispatcher.wrap(filter, CommandListener.class);
+        connection.unsubscribe(subscription, listener);
+        assertTrue(filtered != dispatcher.wrap(filter, CommandListener.class));
+
+        final AdvancedListener advanced = mock(AdvancedListener.class);
+        connection.setAdvancedListener(advanced);
+        final AdvancedListener old = dispatcher.wrap(advanced, AdvancedListener.class);
+        connection.setAdvancedListener(null);
+        assertTrue(old != dispatcher.wrap(advanced, AdvancedListener.class));
+    }
+}
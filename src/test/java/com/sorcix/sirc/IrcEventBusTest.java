@@ -0,0 +1,86 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class IrcEventBusTest {
+
+    private static <E extends IrcEvent> IrcEventListener<E> collect(final List<E> events) {
+        return new IrcEventListener<E>() {
+            @Override
+            public void onEvent(final E event) {
+                events.add(event);
+            }
+        };
+    }
+
+    @Test
+    public void testEventsByType() {
+        final IrcConnection irc = new IrcConnection();
+        final IrcEventBus bus = irc.getEventBus();
+        final List<IrcEvent> all = new ArrayList<IrcEvent>();
+        final List<IrcNumericEvent> numerics = new ArrayList<IrcNumericEvent>();
+        final List<IrcJoinEvent> joins = new ArrayList<IrcJoinEvent>();
+        bus.addListener(IrcEvent.class, collect(all));
+        bus.addListener(IrcNumericEvent.class, collect(numerics));
+        bus.addListener(IrcJoinEvent.class, collect(joins));
+
+        // the packet is reused, like the input thread does
+        final IrcPacket packet = new IrcPacket(irc);
+        bus.post(irc, packet.reset(":server 311 me nick user host * :Real Name"));
+        bus.post(irc, packet.reset(":nick!user@host JOIN :#sirc"));
+        bus.post(irc, packet.reset(":server CAP * ACK :multi-prefix"));
+
+        assertEquals(3, all.size());
+        assertEquals(1, numerics.size());
+        assertEquals(311, numerics.get(0).getCode());
+        assertEquals("host", numerics.get(0).getParameter(3));
+        assertEquals(1, joins.size());
+        assertEquals("#sirc", joins.get(0).getChannelName());
+        assertEquals("nick", joins.get(0).getSender().getNick());
+        assertTrue(all.get(0) == numerics.get(0));
+        assertEquals("multi-prefix", all.get(2).getParameter(2));
+    }
+
+    @Test
+    public void testRemoveListener() {
+        final IrcConnection irc = new IrcConnection();
+        final List<IrcEvent> all = new ArrayList<IrcEvent>();
+        final IrcEventListener<IrcEvent> listener = collect(all);
+        irc.getEventBus().addListener(IrcEvent.class, listener);
+        irc.getEventBus().addListener(IrcEvent.class, listener);
+        irc.getEventBus().post(irc, new IrcPacket(irc).reset(":server PONG server :abc"));
+        irc.getEventBus().removeListener(IrcEvent.class, listener);
+        assertTrue(irc.getEventBus().isEmpty());
+        irc.getEventBus().post(irc, new IrcPacket(irc).reset(":server PONG server :abc"));
+        assertEquals(1, all.size());
+    }
+
+    @Test
+    public void testDispatcher() {
+        final IrcConnection irc = new IrcConnection();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        irc.setDispatcher(new IrcDispatcher(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        }));
+        final List<IrcJoinEvent> joins = new ArrayList<IrcJoinEvent>();
+        irc.getEventBus().addListener(IrcJoinEvent.class, collect(joins));
+
+        irc.getEventBus().post(irc, new IrcPacket(irc).reset(":nick!user@host JOIN :#sirc"));
+        assertTrue(joins.isEmpty());
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+        assertEquals(1, joins.size());
+        assertEquals("#sirc", joins.get(0).getChannelName());
+    }
+}
@@ -0,0 +1,73 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class IrcFloodControlTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void testRfc1459() {
+        final IrcFloodControl control = IrcFloodControl.RFC1459;
+        assertEquals(10 * SECOND, control.getWindow());
+        assertEquals(2 * SECOND, control.getPenalty(0));
+        assertEquals(3 * SECOND, control.getPenalty(120));
+        assertEquals(2 * SECOND + SECOND / 2, control.getPenalty(60));
+        assertEquals(6 * SECOND + 4 * SECOND / 15, control.getPenalty(512));
+    }
+
+    @Test
+    public void testTokenBucket() {
+        final IrcFloodControl control = IrcFloodControl.tokenBucket(5, 2);
+        // four more lines fit behind the first one
+        assertEquals(4 * SECOND / 2, control.getWindow());
+        assertEquals(SECOND / 2, control.getPenalty(0));
+        assertEquals(SECOND / 2, control.getPenalty(512));
+        final IrcFloodControl fastest = IrcFloodControl.tokenBucket(1, 1000);
+        assertEquals(0, fastest.getWindow());
+        assertEquals(SECOND / 1000, fastest.getPenalty(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTokenBucketRateLimit() {
+        IrcFloodControl.tokenBucket(5, 1001);
+    }
+
+    @Test
+    public void testPenaltyCountsEncodedBytes() {
+        final IrcConnection irc = new IrcConnection();
+        irc.setNick("sIRC");
+        irc.setCharset(Charset.forName("UTF-8"));
+        // a second for every byte
+        irc.setFloodControl(new IrcFloodControl(0, 0, 1));
+        final IrcOutput out = new IrcOutput(irc, new ByteArrayOutputStream());
+        final long now = System.nanoTime();
+        out.send("PRIVMSG #sirc :\u00e9\u00e9", IrcPriority.INTERACTIVE);
+        out.send("PRIVMSG #sirc :next", IrcPriority.INTERACTIVE);
+        assertEquals(0, out.poll(now));
+        // 19 characters with the line ending, but 21 bytes
+        assertEquals(21 * SECOND, out.poll(now));
+    }
+
+    @Test
+    public void testFloodControlIgnoresMessageDelay() {
+        final IrcConnection irc = new IrcConnection();
+        irc.setNick("sIRC");
+        irc.setMessageDelay(0);
+        irc.setFloodControl(IrcFloodControl.tokenBucket(1, 1));
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final IrcOutput out = new IrcOutput(irc, stream);
+        final long now = System.nanoTime();
+        out.send("PRIVMSG #sirc :first", IrcPriority.INTERACTIVE);
+        out.send("PRIVMSG #sirc :second", IrcPriority.INTERACTIVE);
+        // both lines are queued instead of sent right away
+        assertEquals(0, stream.size());
+        assertEquals(0, out.poll(now));
+        assertEquals(SECOND, out.poll(now));
+    }
+}
@@ -0,0 +1,101 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class IrcLineReaderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static IrcLineReader reader(final String data) throws IOException {
+        final IrcLineReader reader = new IrcLineReader(UTF8);
+        reader.read(new ByteArrayInputStream(data.getBytes(UTF8)));
+        return reader;
+    }
+
+    private static String repeat(final char c, final int count) {
+        final StringBuilder buffer = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            buffer.append(c);
+        }
+        return buffer.toString();
+    }
+
+    @Test
+    public void testLineEndings() throws IOException {
+        final IrcLineReader reader = reader("PING :a\r\nPING :b\n\r\nPING :c");
+
+        assertEquals("PING :a", reader.next());
+        assertEquals("PING :b", reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testPartialLine() throws IOException {
+        final IrcLineReader reader = reader("PRIVMSG #a :hé");
+        assertNull(reader.next());
+
+        reader.read(new ByteArrayInputStream("llo\r\n".getBytes(UTF8)));
+        assertEquals("PRIVMSG #a :héllo", reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testReadLine() throws IOException {
+        final IrcLineReader reader = new IrcLineReader(UTF8);
+        final ByteArrayInputStream in = new ByteArrayInputStream(":a 001 b :hi\r\n:a 004 b\r\n".getBytes(UTF8));
+
+        assertEquals(":a 001 b :hi", reader.readLine(in));
+        assertEquals(":a 004 b", reader.readLine(in));
+        assertNull(reader.readLine(in));
+    }
+
+    @Test
+    public void testTooLong() throws IOException {
+        final String message = repeat('x', 600);
+        final IrcLineReader reader = reader(message + "\r\nPING :a\r\n");
+
+        assertEquals(message.substring(0, IrcLineReader.MAX_LINE_LENGTH), reader.next());
+        assertEquals("PING :a", reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testTooLongAcrossReads() throws IOException {
+        final IrcLineReader reader = new IrcLineReader(UTF8);
+        final String message = repeat('x', 20000);
+        final ByteArrayInputStream in = new ByteArrayInputStream((message + "\r\nPING :a\r\n").getBytes(UTF8));
+
+        assertEquals(message.substring(0, IrcLineReader.MAX_LINE_LENGTH), reader.readLine(in));
+        assertEquals("PING :a", reader.readLine(in));
+    }
+
+    @Test
+    public void testTaggedLimit() throws IOException {
+        final String line = "@" + repeat('t', 4000) + " :a PRIVMSG #b :c";
+        final IrcLineReader reader = reader(line + "\r\n");
+
+        assertEquals(line, reader.next());
+    }
+
+    @Test
+    public void testRelease() throws IOException {
+        final IrcLineReader reader = reader("PING :a\r\nPI");
+        assertEquals("PING :a", reader.next());
+        assertNull(reader.next());
+
+        // incomplete line is kept
+        reader.release();
+        reader.read(new ByteArrayInputStream("NG :b\r\n".getBytes(UTF8)));
+        assertEquals("PING :b", reader.next());
+        assertNull(reader.next());
+
+        reader.release();
+        assertNull(reader.next());
+    }
+}
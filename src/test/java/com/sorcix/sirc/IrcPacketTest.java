@@ -0,0 +1,132 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IrcPacketTest {
+    @Mock
+    IrcConnection connection;
+
+    @Test
+    public void testPrivmsg() {
+        final IrcPacket packet = new IrcPacket(":nick!user@host PRIVMSG #chan :hello world", connection);
+
+        assertEquals("nick!user@host", packet.getPrefix());
+        assertEquals("PRIVMSG", packet.getCommand());
+        assertEquals("#chan", packet.getArguments());
+        assertEquals("hello world", packet.getMessage());
+        assertFalse(packet.isNumeric());
+        assertFalse(packet.isCtcp());
+
+        final User sender = packet.getSender();
+        assertEquals("nick", sender.getNick());
+        assertEquals("user", sender.getUserName());
+        assertEquals("host", sender.getHostName());
+    }
+
+    @Test
+    public void testNumeric() {
+        final IrcPacket packet = new IrcPacket(":irc.server.net 353 me = #chan :@op +voice user", connection);
+
+        assertTrue(packet.isNumeric());
+        assertEquals(IrcPacket.RPL_NAMREPLY, packet.getNumericCommand());
+        assertArrayEquals(new String[] { "me", "=", "#chan" }, packet.getArgumentsArray());
+        assertEquals("@op +voice user", packet.getMessage());
+        assertEquals("irc.server.net", packet.getSender().getNick());
+    }
+
+    @Test
+    public void testNoPrefix() {
+        final IrcPacket packet = new IrcPacket("ERROR :Closing link", connection);
+
+        assertNull(packet.getPrefix());
+        assertNull(packet.getSender());
+        assertEquals("ERROR", packet.getCommand());
+        assertNull(packet.getArguments());
+        assertEquals("Closing link", packet.getMessage());
+    }
+
+    @Test
+    public void testNoMessage() {
+        final IrcPacket packet = new IrcPacket(":a!b@c MODE #chan +k key:with:colons", connection);
+
+        assertEquals("#chan +k key:with:colons", packet.getArguments());
+        assertNull(packet.getMessage());
+        assertFalse(packet.hasMessage());
+    }
+
+    @Test
+    public void testJoinAsMessage() {
+        final IrcPacket packet = new IrcPacket(":a!b@c JOIN :#chan", connection);
+
+        assertNull(packet.getArguments());
+        assertEquals("#chan", packet.getMessage());
+    }
+
+    @Test
+    public void testCtcp() {
+        final IrcPacket packet = new IrcPacket(":a!b@c PRIVMSG me :\u0001VERSION\u0001", connection);
+
+        assertTrue(packet.isCtcp());
+        assertEquals("VERSION", packet.getMessage());
+    }
+
+    @Test
+    public void testColors() {
+        final IrcPacket packet = new IrcPacket(":a!b@c PRIVMSG #chan :\u000304,12red\u000f and \u0002bold", connection);
+
+        assertEquals("red and bold", packet.getMessage());
+    }
+
+    @Test
+    public void testParameters() {
+        final IrcPacket packet = new IrcPacket(":server 311 me  nick user host * :Real Name", connection);
+        assertArrayEquals(new String[] { "me", "nick", "user", "host", "*", "Real Name" }, packet.getParameters());
+        assertArrayEquals(new String[] { "#chan" }, packet.reset(":a!b@c JOIN :#chan").getParameters());
+        assertArrayEquals(new String[0], packet.reset("QUIT").getParameters());
+    }
+
+    @Test
+    public void testTags() {
+        final IrcPacket packet = new IrcPacket("@time=2011-10-19T16:40:51.620Z;msgid=abc;+example.com/x=a\\:b\\sc\\\\;flag :a!b@c PRIVMSG #chan :hi;there", connection);
+        assertTrue(packet.hasTags());
+        assertEquals("a", packet.getSender().getNick());
+        assertEquals("PRIVMSG", packet.getCommand());
+        assertEquals("#chan", packet.getArguments());
+        assertEquals("hi;there", packet.getMessage());
+        assertEquals("abc", packet.getTag("msgid"));
+        assertEquals("a;b c\\", packet.getTag("+example.com/x"));
+        assertEquals("", packet.getTag("flag"));
+        assertNull(packet.getTag("msg"));
+        assertNull(packet.getTag("there"));
+        assertEquals(1319042451620L, packet.getServerTime());
+        assertEquals(packet.getTags(), packet.copy().getTags());
+
+        packet.reset(":a!b@c PRIVMSG #chan :hi");
+        assertFalse(packet.hasTags());
+        assertNull(packet.getTag("msgid"));
+        assertEquals(-1, packet.getServerTime());
+    }
+
+    @Test
+    public void testReset() {
+        final IrcPacket packet = new IrcPacket(":a!b@c PRIVMSG #chan :first", connection);
+        final IrcPacket copy = packet.copy();
+        packet.reset(":d!e@f NOTICE me :second");
+
+        assertEquals("NOTICE", packet.getCommand());
+        assertEquals("second", packet.getMessage());
+        assertEquals("d", packet.getSender().getNick());
+        assertEquals("PRIVMSG", copy.getCommand());
+        assertEquals("first", copy.getMessage());
+    }
+}
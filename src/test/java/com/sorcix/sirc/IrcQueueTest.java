@@ -0,0 +1,114 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IrcQueueTest {
+    @Mock
+    IrcConnection connection;
+
+    IrcQueue queue;
+
+    @Before
+    public void setUp() {
+        when(connection.getPriorityWeights()).thenReturn(new int[] { 8, 4, 2, 1 });
+        queue = new IrcQueue(connection);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testPriorityJumpsBacklog() {
+        for (int i = 0; i < 5; i++) {
+            queue.add("PRIVMSG #a :" + i, IrcPriority.BULK);
+        }
+        assertEquals("PRIVMSG #a :0", queue.poll());
+        queue.add("KICK #a spammer", IrcPriority.MODERATION);
+        assertEquals("KICK #a spammer", queue.poll());
+        assertEquals("PRIVMSG #a :1", queue.poll());
+    }
+
+    @Test
+    public void testWeightedRounds() {
+        for (int i = 0; i < 10; i++) {
+            queue.add("MODE #a +v n" + i, IrcPriority.MODERATION);
+            queue.add("PRIVMSG #a :" + i, IrcPriority.BULK);
+        }
+        // 4 moderation messages for every bulk message
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertEquals("MODE #a +v n" + (round * 4 + i), queue.poll());
+            }
+            assertEquals("PRIVMSG #a :" + round, queue.poll());
+        }
+    }
+
+    @Test
+    public void testTargetsTakeTurns() {
+        for (int i = 0; i < 100; i++) {
+            queue.add("PRIVMSG #flood :" + i, IrcPriority.BULK);
+        }
+        assertEquals("PRIVMSG #flood :0", queue.poll());
+        queue.add("PRIVMSG #quiet :hello", IrcPriority.BULK);
+        queue.add("PRIVMSG nick :hello", IrcPriority.BULK);
+        int polled = 0;
+        boolean quiet = false;
+        boolean nick = false;
+        while (!quiet || !nick) {
+            final String line = queue.poll();
+            quiet |= line.equals("PRIVMSG #quiet :hello");
+            nick |= line.equals("PRIVMSG nick :hello");
+            polled++;
+        }
+        assertTrue(polled < 10);
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            final String target = "#c" + p;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        queue.add("PRIVMSG " + target + " :" + i, IrcPriority.BULK);
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        final int[] next = new int[producers.length];
+        for (int i = 0; i < producers.length * 1000; i++) {
+            final String line = queue.take();
+            final int p = line.charAt(10) - '0';
+            // lines to the same target keep their order
+            assertEquals("PRIVMSG #c" + p + " :" + next[p]++, line);
+        }
+        for (final Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testClassify() {
+        assertEquals(IrcPriority.BULK, IrcPriority.of("PRIVMSG #a :hi"));
+        assertEquals(IrcPriority.CONTROL, IrcPriority.of("QUIT"));
+        assertEquals(IrcPriority.MODERATION, IrcPriority.of("kick #a b"));
+        assertEquals(IrcPriority.INTERACTIVE, IrcPriority.of("NOTICE a :\u0001VERSION x\u0001"));
+    }
+}
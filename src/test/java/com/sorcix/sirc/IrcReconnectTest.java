@@ -0,0 +1,130 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class IrcReconnectTest {
+
+    @Test
+    public void testBackoff() {
+        final IrcServer first = new IrcServer("irc1.example.com");
+        final IrcServer second = new IrcServer("irc2.example.com");
+        final IrcReconnect reconnect = new IrcReconnect(1000, 8000, first, second);
+        for (int i = 0; i < 100; i++) {
+            final long delay = reconnect.getDelay(i % 6);
+            final long max = Math.min(8000, 1000L << (i % 6));
+            assertTrue(delay >= max / 2 && delay <= max);
+        }
+        assertSame(second, reconnect.getServer(second, 0));
+        assertSame(first, reconnect.getServer(second, 1));
+        assertSame(second, reconnect.getServer(second, 2));
+    }
+
+    @Test
+    public void testRejoinPacking() {
+        final Map<String, String> channels = new LinkedHashMap<String, String>();
+        channels.put("#a", null);
+        channels.put("#b", "secret");
+        channels.put("#c", null);
+        List<IrcPacket> joins = IrcPacketFactory.createJOIN(channels, Integer.MAX_VALUE);
+        assertEquals(1, joins.size());
+        assertEquals("JOIN #b,#a,#c secret", joins.get(0).getRaw());
+
+        channels.clear();
+        for (int i = 0; i < 100; i++) {
+            channels.put("#channel" + i, null);
+        }
+        joins = IrcPacketFactory.createJOIN(channels, Integer.MAX_VALUE);
+        int count = 0;
+        for (final IrcPacket join : joins) {
+            assertTrue(join.getRaw().length() + 2 <= IrcOutput.MAX_LINE_LENGTH);
+            count += join.getArguments().split(",").length;
+        }
+        assertEquals(100, count);
+        assertEquals(3, joins.size());
+    }
+
+    @Test(timeout = 10000)
+    public void testRejoinIsBatched() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final BlockingQueue<String> rejoins = new LinkedBlockingQueue<String>();
+        final Thread fake = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int connection = 0; connection < 2; connection++) {
+                        final Socket socket = server.accept();
+                        final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                        final Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+                        int joined = 0;
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            if (line.startsWith("NICK")) {
+                                // 005 before 004, so it is known when the channels are rejoined
+                                out.write(":srv 001 bot :Welcome\r\n:srv 002 bot :Host\r\n:srv 003 bot :Created\r\n");
+                                out.write(":srv 005 bot TARGMAX=NAMES:1,LIST:1,KICK:1,WHOIS:1,PRIVMSG:4,NOTICE:4,ACCEPT:,MONITOR: :are supported\r\n");
+                                out.write(":srv 004 bot srv version\r\n");
+                            } else if (line.startsWith("JOIN")) {
+                                if (connection > 0) {
+                                    rejoins.add(line);
+                                }
+                                for (final String channel : line.split(" ")[1].split(",")) {
+                                    out.write(":bot!user@host JOIN " + channel + "\r\n");
+                                    joined++;
+                                }
+                            }
+                            out.flush();
+                            if ((connection == 0) && (joined == 3)) {
+                                // drop the first connection once all channels are joined
+                                break;
+                            }
+                        }
+                        socket.close();
+                    }
+                } catch (final IOException ex) {
+                    // the test fails on its timeout
+                }
+            }
+        };
+        fake.setDaemon(true);
+        fake.start();
+        final IrcConnection irc = new IrcConnection("127.0.0.1", server.getLocalPort());
+        final IrcReactor reactor = new IrcReactor(1);
+        irc.setNick("bot");
+        // the reactor parses replies that arrive during registration
+        irc.setReactor(reactor);
+        irc.setReconnect(new IrcReconnect(10, 10));
+        try {
+            irc.connect();
+            irc.createChannel("#a").join();
+            irc.createChannel("#b").join();
+            irc.createChannel("#c").join();
+            final String rejoin = rejoins.poll(5, TimeUnit.SECONDS);
+            assertTrue(rejoin != null);
+            assertEquals(new HashSet<String>(Arrays.asList("#a", "#b", "#c")), new HashSet<String>(Arrays.asList(rejoin.substring(5).split(","))));
+        } finally {
+            irc.disconnect();
+            reactor.shutdown();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class IrcRingBufferTest {
+
+    private static CommandListener collect(final List<String> lines, final CountDownLatch done) {
+        return new CommandListener() {
+            @Override
+            public void onCommand(final IrcConnection irc, final IrcPacket line) {
+                lines.add(line.getMessage());
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(8, new IrcRingBuffer(new IrcConnection(), 5).getSize());
+    }
+
+    @Test
+    public void testGroupsSeeEveryLineInOrder() throws InterruptedException {
+        final IrcConnection irc = new IrcConnection();
+        final IrcRingBuffer ring = new IrcRingBuffer(irc, 4);
+        final CountDownLatch done = new CountDownLatch(200);
+        final List<String> first = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> second = Collections.synchronizedList(new ArrayList<String>());
+        ring.addGroup(collect(first, done));
+        ring.addGroup(collect(second, done));
+
+        final IrcPacket packet = new IrcPacket(irc);
+        for (int i = 0; i < 100; i++) {
+            // the ring is much smaller, so this waits for the groups
+            ring.publish(packet.reset(":nick!user@host PRIVMSG #chan :" + i));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        ring.shutdown();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(i), first.get(i));
+            assertEquals(String.valueOf(i), second.get(i));
+        }
+    }
+
+    private static CommandListener parse(final List<Object> parsed, final CyclicBarrier together, final CountDownLatch done) {
+        return new CommandListener() {
+            @Override
+            public void onCommand(final IrcConnection irc, final IrcPacket line) {
+                try {
+                    // read every line at the same time as the other group
+                    together.await(5, TimeUnit.SECONDS);
+                } catch (final Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+                parsed.add(line.getSender());
+                parsed.add(line.getParameters());
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testGroupsShareParsedSlots() throws InterruptedException {
+        final IrcConnection irc = new IrcConnection();
+        final IrcRingBuffer ring = new IrcRingBuffer(irc, 64);
+        final CountDownLatch done = new CountDownLatch(2000);
+        final List<Object> first = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Object> second = Collections.synchronizedList(new ArrayList<Object>());
+        final CyclicBarrier together = new CyclicBarrier(2);
+        ring.addGroup(parse(first, together, done));
+        ring.addGroup(parse(second, together, done));
+
+        final IrcPacket packet = new IrcPacket(irc);
+        for (int i = 0; i < 1000; i++) {
+            ring.publish(packet.reset(":nick" + i + "!user@host PRIVMSG #chan :" + i));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        ring.shutdown();
+        for (int i = 0; i < 2000; i++) {
+            // both groups see the same, fully parsed objects
+            assertTrue(first.get(i) == second.get(i));
+        }
+        assertEquals("nick999", ((User) first.get(1998)).getNick());
+        assertEquals("999", ((String[]) first.get(1999))[1]);
+    }
+}
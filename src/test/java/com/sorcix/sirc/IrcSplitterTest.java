@@ -0,0 +1,57 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IrcSplitterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static String repeat(final String text, final int count) {
+        final StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            buffer.append(text);
+        }
+        return buffer.toString();
+    }
+
+    @Test
+    public void testSplitsAtCharacters() {
+        final IrcSplitter splitter = new IrcSplitter(UTF8);
+        // 3 bytes each, no spaces
+        final String text = repeat("€", 400);
+        final List<String> lines = splitter.split("PRIVMSG #sirc :" + text, 60);
+        final StringBuilder joined = new StringBuilder();
+        for (final String line : lines) {
+            assertTrue(line.startsWith("PRIVMSG #sirc :"));
+            assertTrue(line.getBytes(UTF8).length <= 510 - 60);
+            joined.append(line.substring(15));
+        }
+        assertEquals(3, lines.size());
+        assertEquals(text, joined.toString());
+    }
+
+    @Test
+    public void testSplitsAtSpaces() {
+        final IrcSplitter splitter = new IrcSplitter(UTF8);
+        final String text = repeat("word ", 200).trim();
+        final List<String> lines = splitter.split("NOTICE nick :\u0001ACTION " + text + "\u0001", 60);
+        final StringBuilder joined = new StringBuilder();
+        for (final String line : lines) {
+            assertTrue(line.startsWith("NOTICE nick :\u0001ACTION word"));
+            assertTrue(line.endsWith("word\u0001"));
+            assertTrue(line.length() <= 510 - 60);
+            joined.append(' ').append(line.substring(21, line.length() - 1));
+        }
+        assertEquals(text, joined.substring(1));
+
+        final String topic = "TOPIC #sirc :" + text;
+        assertEquals(1, splitter.split(topic, 60).size());
+        assertEquals(1, splitter.split("PRIVMSG #sirc :short", 60).size());
+    }
+}
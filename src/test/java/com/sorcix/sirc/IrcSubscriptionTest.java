@@ -0,0 +1,102 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+
+public class IrcSubscriptionTest {
+
+    private static IrcPacket packet(final IrcConnection irc, final String line) {
+        return new IrcPacket(irc).reset(line);
+    }
+
+    @Test
+    public void testSenderMask() {
+        final IrcSubscription staff = IrcSubscription.sender("*!*@Staff.example.com");
+        assertTrue(staff.matchesSender("nick!user@staff.example.com"));
+        assertFalse(staff.matchesSender("nick!user@example.com"));
+        assertFalse(staff.matchesSender(null));
+        final IrcSubscription nick = IrcSubscription.sender("n?ck!*");
+        assertTrue(nick.matchesSender("NICK!user@host"));
+        assertFalse(nick.matchesSender("nickname!user@host"));
+        assertEquals(IrcSubscription.channel("#A").from("x*"), IrcSubscription.sender("x*").inChannel("#a"));
+    }
+
+    @Test
+    public void testMessagesGoToMatchingSubscribers() {
+        final IrcConnection irc = new IrcConnection();
+        final MessageListener global = mock(MessageListener.class);
+        final MessageListener sirc = mock(MessageListener.class);
+        final MessageListener staff = mock(MessageListener.class);
+        irc.addMessageListener(global);
+        final IrcPacket line = packet(irc, ":nick!user@host PRIVMSG #sirc :hello");
+        final Channel chan = irc.createChannel("#sirc");
+        final MessageListener[] unsubscribed = irc.getMessageListeners(chan, line);
+
+        irc.subscribe(IrcSubscription.channel("#SIRC"), sirc);
+        irc.subscribe(IrcSubscription.sender("*!*@staff"), staff);
+        assertEquals(2, irc.getMessageListeners(chan, line).length);
+        assertEquals(1, irc.getMessageListeners(null, line).length);
+        assertEquals(1, irc.getMessageListeners(irc.createChannel("#other"), line).length);
+        final IrcPacket fromStaff = packet(irc, ":op!user@staff PRIVMSG #sirc :hello");
+        assertEquals(3, irc.getMessageListeners(chan, fromStaff).length);
+        assertEquals(2, irc.getMessageListeners(null, fromStaff).length);
+
+        irc.unsubscribe(IrcSubscription.channel("#sirc"), sirc);
+        irc.unsubscribe(IrcSubscription.sender("*!*@staff"), staff);
+        assertSame(unsubscribed, irc.getMessageListeners(chan, fromStaff));
+    }
+
+    @Test
+    public void testCommandSubscription() {
+        final IrcConnection irc = new IrcConnection();
+        final CommandListener listener = mock(CommandListener.class);
+        final IrcSubscription kicks = IrcSubscription.command("kick").inChannel("#sirc").from("*!*@staff");
+        irc.subscribe(kicks, listener);
+        final IrcPacket other = packet(irc, ":op!user@staff KICK #other nick :bye");
+        final IrcPacket user = packet(irc, ":nick!user@host KICK #sirc nick :bye");
+        final IrcPacket staff = packet(irc, ":op!user@staff KICK #sirc nick :bye");
+        for (final IrcPacket line : new IrcPacket[] { other, user, staff }) {
+            for (final CommandListener subscribed : irc.getCommandListeners().get(line)) {
+                subscribed.onCommand(irc, line);
+            }
+        }
+        verify(listener, never()).onCommand(irc, other);
+        verify(listener, never()).onCommand(irc, user);
+        verify(listener).onCommand(irc, staff);
+
+        irc.unsubscribe(kicks, listener);
+        assertEquals(null, irc.getCommandListeners().get(staff));
+    }
+
+    @Test
+    public void testUnmatchedSubscriptionLeavesLineUnknown() {
+        final IrcConnection irc = new IrcConnection();
+        final CommandListener listener = mock(CommandListener.class);
+        final AdvancedListener advanced = mock(AdvancedListener.class);
+        irc.subscribe(IrcSubscription.command("KNOCK").inChannel("#sirc"), listener);
+        irc.setAdvancedListener(advanced);
+        final IrcParser parser = new IrcParser();
+        final IrcPacket other = packet(irc, ":nick!user@host KNOCK #other :let me in");
+        final IrcPacket sirc = packet(irc, ":nick!user@host KNOCK #sirc :let me in");
+        parser.parseCommand(irc, other);
+        parser.parseCommand(irc, sirc);
+        verify(listener, never()).onCommand(irc, other);
+        verify(listener).onCommand(irc, sirc);
+        verify(advanced, times(1)).onUnknown(eq(irc), any(IrcPacket.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCommandListenerNeedsCommand() {
+        new IrcConnection().subscribe(IrcSubscription.channel("#sirc"), mock(CommandListener.class));
+    }
+}
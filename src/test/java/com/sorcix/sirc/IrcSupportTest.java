@@ -0,0 +1,98 @@
+package com.sorcix.sirc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class IrcSupportTest {
+
+    private final IrcConnection irc = new IrcConnection();
+
+    @Test
+    public void testTokens() {
+        final IrcSupport support = new IrcSupport();
+        assertEquals(5, support.getTargetLimit("PRIVMSG", 5));
+        assertEquals(0, support.getChannelLimits().size());
+
+        support.add(new IrcPacket(":srv 005 nick CHANLIMIT=#&:20,+: EXCEPTS TARGMAX=PRIVMSG:4,JOIN:,PART:2 :are supported", irc));
+        assertEquals("", support.get("excepts"));
+        assertEquals(4, support.getTargetLimit("privmsg", 1));
+        assertEquals(Integer.MAX_VALUE, support.getTargetLimit("JOIN", 1));
+        assertEquals(2, support.getTargetLimit("PART", 1));
+        assertEquals(5, support.getTargetLimit("NOTICE", 5));
+        final Map<String, Integer> limits = support.getChannelLimits();
+        assertEquals(1, limits.size());
+        assertEquals(Integer.valueOf(20), limits.get("#&"));
+
+        support.add(new IrcPacket(":srv 005 nick -EXCEPTS :are supported", irc));
+        assertNull(support.get("EXCEPTS"));
+        support.clear();
+        assertNull(support.get("TARGMAX"));
+    }
+
+    @Test
+    public void testUnlistedTargets() {
+        final IrcSupport support = new IrcSupport();
+        support.add(new IrcPacket(":srv 005 nick TARGMAX=NAMES:1,LIST:1,KICK:1,WHOIS:1,PRIVMSG:4,NOTICE:4,ACCEPT:,MONITOR: :are supported", irc));
+        assertEquals(1, support.getTargetLimit("KICK", Integer.MAX_VALUE));
+        assertEquals(4, support.getTargetLimit("NOTICE", 1));
+        assertEquals(Integer.MAX_VALUE, support.getTargetLimit("MONITOR", 1));
+        assertEquals(Integer.MAX_VALUE, support.getTargetLimit("JOIN", Integer.MAX_VALUE));
+        assertEquals(Integer.MAX_VALUE, support.getTargetLimit("PART", Integer.MAX_VALUE));
+
+        final List<String> channels = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            channels.add("#c" + i);
+        }
+        final List<IrcPacket> parts = IrcPacketFactory.createPART(channels, support.getTargetLimit("PART", Integer.MAX_VALUE));
+        assertEquals(1, parts.size());
+        assertEquals("PART #c0,#c1,#c2,#c3,#c4", parts.get(0).getRaw());
+    }
+
+    @Test
+    public void testPartPacking() {
+        final List<String> channels = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            channels.add("#c" + i);
+        }
+        final List<IrcPacket> parts = IrcPacketFactory.createPART(channels, 2);
+        assertEquals(3, parts.size());
+        assertEquals("PART #c0,#c1", parts.get(0).getRaw());
+        assertEquals("PART #c4", parts.get(2).getRaw());
+    }
+
+    @Test
+    public void testMessagePacking() {
+        final IrcSupport support = new IrcSupport();
+        support.add(new IrcPacket(":srv 005 nick MAXTARGETS=4 :are supported", irc));
+        assertEquals(4, support.getTargetLimit("PRIVMSG", 1));
+        assertEquals(1, support.getTargetLimit("KICK", 1));
+
+        final List<String> channels = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            channels.add("#alerts" + i);
+        }
+        List<IrcPacket> messages = IrcPacketFactory.createPRIVMSG(channels, "disk full", 9, 4);
+        assertEquals(13, messages.size());
+        assertEquals("PRIVMSG #alerts0,#alerts1,#alerts2,#alerts3 :disk full", messages.get(0).getRaw());
+
+        final StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 440; i++) {
+            message.append('x');
+        }
+        messages = IrcPacketFactory.createPRIVMSG(channels, message.toString(), message.length(), Integer.MAX_VALUE);
+        int count = 0;
+        for (final IrcPacket packet : messages) {
+            assertTrue(packet.getRaw().length() + 2 <= IrcOutput.MAX_LINE_LENGTH);
+            count += packet.getArguments().split(",").length;
+        }
+        assertEquals(50, count);
+        assertEquals(9, messages.size());
+    }
+}